@@ -25,7 +25,7 @@ import java.util.concurrent.ExecutionException;
 public class MiloServerConfig {
 
     @Bean(destroyMethod = "shutdown")
-    public OpcUaServer opcUaServer(UaNodeManager manager) throws Exception {
+    public OpcUaServer opcUaServer() throws Exception {
 
         EndpointConfiguration endpoint = new EndpointConfiguration.Builder()
                 .setBindAddress("0.0.0.0")
@@ -42,18 +42,9 @@ public class MiloServerConfig {
                 .setEndpoints(Set.of(endpoint))
                 .build();
 
-        OpcUaServer server = new OpcUaServer(config);
-        MultiMachineNameSpace namespace = new MultiMachineNameSpace(server, "urn:synclab:milo:namespace");
-        server.getAddressSpaceManager().register(namespace);
-
-        // 서버 기동
-        server.startup().get();
-        System.out.println("[DEBUG] After startup(), checking ObjectsFolder...");
-
-        System.out.println(" Milo OPC UA Server started and namespace initialized.");
-        System.out.printf("Namespace Index: %s%n", namespace.getNamespaceIndex());
-
-        return server;
+        // 엔드포인트는 주소공간 구성이 끝난 뒤 MiloServerInitializer 가 연다 (빈 주소공간을 클라이언트에 노출하지 않는다).
+        // 네임스페이스는 multiMachineNameSpace 빈 하나만 등록한다.
+        return new OpcUaServer(config);
     }
 
     @Bean
@@ -63,19 +54,13 @@ public class MiloServerConfig {
 
         // 0.6.12에서는 getNamespaceManager() → getAddressSpaceManager()
         server.getAddressSpaceManager().register(namespace);
+        System.out.printf("Namespace Index: %s%n", namespace.getNamespaceIndex());
 
         return namespace;
     }
 
     @Bean
-    public UaNodeManager nodeManager() {
-        return new UaNodeManager();
+    public UaNodeManager nodeManager(MultiMachineNameSpace namespace) {
+        return new UaNodeManager(namespace);
     }
 }
-
-
-
-
-
-
-
@@ -3,13 +3,19 @@ package com.synclab.miloserver.config;
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import jakarta.annotation.PreDestroy;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.TimeUnit;
+
 @Component
 public class MiloServerInitializer {
 
+    private static final long OBJECTS_FOLDER_TIMEOUT_MS = 10_000L;
+    private static final long OBJECTS_FOLDER_POLL_MS = 10L;
+
     private final OpcUaServer server;
     private final MultiMachineNameSpace namespace;
 
@@ -21,16 +27,33 @@ public class MiloServerInitializer {
     @EventListener(ApplicationReadyEvent.class)
     public void initAfterSpringContext() {
         try {
-            System.out.println("[INFO] Waiting for ObjectsFolder...");
-            Thread.sleep(2000); // 최소 2초 지연 (보장 대기)
+            long started = System.nanoTime();
+            awaitObjectsFolder();
             namespace.startup();
             namespace.initializeNodes();
+            server.startup().get();
+            System.out.println(" Milo OPC UA Server started.");
+            System.out.printf("[Startup] OPC UA address space ready in %d ms (build %d ms, %d nodes)%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                    namespace.getAddressSpaceBuildMillis(),
+                    namespace.getAddressSpaceNodeCount());
             System.out.println("[INFO] initializeNodes() completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /** 고정 지연 대신 NS0 ObjectsFolder 가 실제로 조회될 때까지만 기다린다. */
+    private void awaitObjectsFolder() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OBJECTS_FOLDER_TIMEOUT_MS);
+        while (server.getAddressSpaceManager().getManagedNode(Identifiers.ObjectsFolder).isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                throw new IllegalStateException("ObjectsFolder not available after " + OBJECTS_FOLDER_TIMEOUT_MS + " ms");
+            }
+            Thread.sleep(OBJECTS_FOLDER_POLL_MS);
+        }
+    }
+
     @PreDestroy
     public void shutdownNamespace() {
         try {
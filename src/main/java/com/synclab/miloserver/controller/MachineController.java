@@ -1,11 +1,22 @@
 package com.synclab.miloserver.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.synclab.miloserver.opcua.LineAnalytics;
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.ProcessMeasurementStore;
 import com.synclab.miloserver.opcua.ProductionLineController;
+import com.synclab.miloserver.opcua.SerialGenealogyStore;
 import com.synclab.miloserver.opcua.UaNodeManager;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -15,6 +26,14 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/machine")
@@ -23,19 +42,155 @@ public class MachineController {
     private final UaNodeManager manager;
     private final MultiMachineNameSpace namespace;
 
-    public MachineController(UaNodeManager manager, MultiMachineNameSpace namespace) {
+    private final JsonFactory jsonFactory;
+
+    public MachineController(UaNodeManager manager, MultiMachineNameSpace namespace, ObjectMapper objectMapper) {
         this.manager = manager;
         this.namespace = namespace;
+        this.jsonFactory = objectMapper.getFactory();
     }
 
+    /**
+     * id 는 태그의 상위 경로(예: F0001.CL0001.ElectrodeUnit01 또는 라인 태그면 F0001.CL0001),
+     * tag 는 태그 키(state, order_no ...)이다.
+     */
     @GetMapping("/{id}/{tag}")
     public Object read(@PathVariable String id, @PathVariable String tag) {
-        return manager.readValue("Machine" + id + "." + tag);
+        String path = id + "." + tag;
+        if (manager.find(path).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Tag not found: " + path);
+        }
+        return manager.readValue(path);
     }
 
     @PostMapping("/{id}/{tag}")
     public void write(@PathVariable String id, @PathVariable String tag, @RequestParam Object value) {
-        manager.writeValue("Machine" + id + "." + tag, value);
+        String path = id + "." + tag;
+        if (manager.find(path).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Tag not found: " + path);
+        }
+        boolean written;
+        try {
+            written = manager.writeValue(path, value);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        } catch (IllegalStateException ex) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+        }
+        if (!written) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Tag is not writable: " + path);
+        }
+    }
+
+    /** prefix(라인/설비 경로) 아래 모든 태그 값. 예) GET /machine/tags?prefix=F0001.CL0001.ElectrodeUnit01 */
+    @GetMapping("/tags")
+    public Map<String, Object> readTags(@RequestParam(required = false, defaultValue = "") String prefix) {
+        return manager.readValues(prefix.trim());
+    }
+
+    /**
+     * 경로 또는 glob 패턴(*, ?, **) 목록의 값을 같은 tick 기준 snapshot 으로 한 번에 반환한다.
+     * 응답은 Jackson streaming generator 로 바로 기록한다.
+     * <pre>
+     * POST /machine/tags/read {"paths":["F0001.CL0001.*.state","F0001.CL0001.order_no"]}
+     * → {"capturedAt":..,"count":2,"tags":[{"path":..,"value":..,"status":"GOOD","sourceTime":..,"serverTime":..}]}
+     * </pre>
+     */
+    @PostMapping(value = "/tags/read", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> readTagsBulk(@RequestBody BulkReadRequest request) {
+        if (request == null || request.getPaths() == null || request.getPaths().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "paths is required");
+        }
+        UaNodeManager.TagSnapshot snapshot = manager.snapshot(request.getPaths());
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = jsonFactory.createGenerator(out)) {
+                writeSnapshot(json, snapshot);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * 여러 태그를 한 번에 쓴다. 하나라도 없거나 쓰기 불가/형식 오류면 아무것도 쓰지 않고 400 을 반환한다.
+     * <pre>
+     * POST /machine/tags/write {"values":{"F0001.CL0001.ElectrodeUnit01.command":"STOP"}}
+     * </pre>
+     */
+    @PostMapping("/tags/write")
+    public Map<String, Object> writeTagsBulk(@RequestBody BulkWriteRequest request) {
+        if (request == null || request.getValues() == null || request.getValues().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "values is required");
+        }
+        try {
+            return Map.of("written", manager.writeValues(request.getValues()));
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+    }
+
+    private static void writeSnapshot(JsonGenerator json, UaNodeManager.TagSnapshot snapshot) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("capturedAt", snapshot.capturedAt());
+        json.writeNumberField("count", snapshot.size());
+        json.writeArrayFieldStart("tags");
+        for (int i = 0; i < snapshot.size(); i++) {
+            DataValue value = snapshot.value(i);
+            json.writeStartObject();
+            json.writeStringField("path", snapshot.path(i));
+            json.writeFieldName("value");
+            writeVariantValue(json, value.getValue().getValue());
+            json.writeStringField("status", statusName(value.getStatusCode()));
+            writeTimeField(json, "sourceTime", value.getSourceTime());
+            writeTimeField(json, "serverTime", value.getServerTime());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private static void writeVariantValue(JsonGenerator json, Object value) throws IOException {
+        if (value == null) {
+            json.writeNull();
+        } else if (value instanceof Double d) {
+            if (d.isNaN() || d.isInfinite()) {
+                json.writeNull();
+            } else {
+                json.writeNumber(d);
+            }
+        } else if (value instanceof Float f) {
+            json.writeNumber(f);
+        } else if (value instanceof Integer n) {
+            json.writeNumber(n);
+        } else if (value instanceof Long n) {
+            json.writeNumber(n);
+        } else if (value instanceof Boolean b) {
+            json.writeBoolean(b);
+        } else if (value instanceof DateTime t) {
+            json.writeNumber(t.getJavaTime());
+        } else if (value instanceof Object[] array) {
+            json.writeStartArray();
+            for (Object element : array) {
+                writeVariantValue(json, element);
+            }
+            json.writeEndArray();
+        } else {
+            json.writeString(value.toString());
+        }
+    }
+
+    private static void writeTimeField(JsonGenerator json, String name, DateTime time) throws IOException {
+        if (time == null || time.isNull()) {
+            json.writeNullField(name);
+        } else {
+            json.writeNumberField(name, time.getJavaTime());
+        }
+    }
+
+    private static String statusName(StatusCode status) {
+        if (status == null || status.isGood()) {
+            return "GOOD";
+        }
+        return status.isUncertain() ? "UNCERTAIN" : "BAD";
     }
 
     @PostMapping("/command")
@@ -70,16 +225,135 @@ public class MachineController {
             }
         }
 
-        lineController.processMesCommand(
+        StatusCode result = lineController.processMesCommand(
                 request.getAction(),
                 request.getOrderNo(),
                 request.getTargetQty(),
                 request.getItemCode()
         );
+        if (result.isBad()) {
+            HttpStatus status = result.getValue() == StatusCodes.Bad_InvalidState ? HttpStatus.CONFLICT : HttpStatus.BAD_REQUEST;
+            throw new ResponseStatusException(status, "Command rejected: " + result);
+        }
 
         return ResponseEntity.accepted().build();
     }
 
+    /** 라인 흐름 분석(처리량, 유효 cycle time, stage 별 가동률/평균 대기, 병목 stage). 작업지시 진행 중 1초마다 갱신된다. */
+    @GetMapping("/analytics")
+    public LineAnalytics.Snapshot readLineAnalytics(@RequestParam String factoryCode, @RequestParam String lineCode) {
+        String normalizedFactoryCode = factoryCode.trim();
+        String normalizedLineCode = lineCode.trim();
+        return namespace.findLineController(normalizedFactoryCode, normalizedLineCode)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("Line not found for factoryCode=%s, lineCode=%s", normalizedFactoryCode, normalizedLineCode)))
+                .getAnalytics();
+    }
+
+    /**
+     * serial 추적. serial, trayId, orderNo 중 하나로 조회한다(trayId 는 orderNo 와 함께 주면 그 작업지시 tray 로 좁힌다).
+     * 결과는 serial 별 tray, stage 별 설비/완료 시각, 판정(OK/NG/IN_PROCESS)이다.
+     */
+    @GetMapping("/genealogy")
+    public List<SerialGenealogyStore.SerialTrace> readGenealogy(@RequestParam String factoryCode,
+                                                                @RequestParam String lineCode,
+                                                                @RequestParam(required = false) String serial,
+                                                                @RequestParam(required = false) String trayId,
+                                                                @RequestParam(required = false) String orderNo) {
+        String normalizedFactoryCode = factoryCode.trim();
+        String normalizedLineCode = lineCode.trim();
+        SerialGenealogyStore genealogy = namespace.findLineController(normalizedFactoryCode, normalizedLineCode)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("Line not found for factoryCode=%s, lineCode=%s", normalizedFactoryCode, normalizedLineCode)))
+                .getGenealogy();
+        if (serial != null && !serial.isBlank()) {
+            SerialGenealogyStore.SerialTrace trace = genealogy.findBySerial(serial.trim());
+            if (trace == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Serial not found: " + serial);
+            }
+            return List.of(trace);
+        }
+        if (trayId != null && !trayId.isBlank()) {
+            return genealogy.findByTray(trayId.trim(), orderNo == null ? null : orderNo.trim());
+        }
+        if (orderNo != null && !orderNo.isBlank()) {
+            return genealogy.findByOrder(orderNo.trim());
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "serial, trayId or orderNo is required");
+    }
+
+    /** 공정 측정값 테이블(설비 유형 × 작업지시) 목록과 항목별 평균/최소/최대 */
+    @GetMapping("/measurements")
+    public List<ProcessMeasurementStore.TableSummary> readMeasurementTables() {
+        return namespace.getMeasurementStore().summaries();
+    }
+
+    /** 한 테이블의 행 (serial, 설비, 기록 시각, 측정값) */
+    @GetMapping("/measurements/rows")
+    public List<ProcessMeasurementStore.Row> readMeasurementRows(@RequestParam String unitType,
+                                                                 @RequestParam String orderNo,
+                                                                 @RequestParam(required = false, defaultValue = "0") int offset,
+                                                                 @RequestParam(required = false, defaultValue = "1000") int limit) {
+        List<ProcessMeasurementStore.Row> rows = namespace.getMeasurementStore()
+                .read(unitType.trim(), orderNo.trim(), offset, Math.min(limit, 100_000));
+        if (rows == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    String.format("Measurements not found for unitType=%s, orderNo=%s", unitType, orderNo));
+        }
+        return rows;
+    }
+
+    /**
+     * 한 테이블 전체를 CSV 로 내려받는다 (MES 품질 데이터 일괄 적재용). chunk 단위로 바로 기록한다.
+     * <pre>
+     * GET /machine/measurements/export?unitType=ELECTRODE&orderNo=WO-1
+     * serial,machine,recorded_at,mix_viscosity,coating_thickness,...
+     * </pre>
+     */
+    @GetMapping("/measurements/export")
+    public ResponseEntity<StreamingResponseBody> exportMeasurements(@RequestParam String unitType,
+                                                                    @RequestParam String orderNo) {
+        String normalizedUnitType = unitType.trim();
+        String normalizedOrderNo = orderNo.trim();
+        ProcessMeasurementStore store = namespace.getMeasurementStore();
+        if (!store.contains(normalizedUnitType, normalizedOrderNo)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    String.format("Measurements not found for unitType=%s, orderNo=%s", unitType, orderNo));
+        }
+        StreamingResponseBody body = out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            store.exportCsv(normalizedUnitType, normalizedOrderNo, writer);
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .body(body);
+    }
+
+    public static class BulkReadRequest {
+        private List<String> paths;
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+    }
+
+    public static class BulkWriteRequest {
+        private Map<String, Object> values;
+
+        public Map<String, Object> getValues() {
+            return values;
+        }
+
+        public void setValues(Map<String, Object> values) {
+            this.values = values;
+        }
+    }
+
     public static class MesCommandRequest {
         private String action;
         private String orderNo;
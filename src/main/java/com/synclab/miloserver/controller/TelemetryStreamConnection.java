@@ -0,0 +1,199 @@
+package com.synclab.miloserver.controller;
+
+import com.synclab.miloserver.opcua.JsonPayloadWriter;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * SSE 연결 하나의 상태.
+ * 변화는 경로별 최신값 하나만 보관(coalescing)하므로, 느린 클라이언트도 버퍼가 구독 태그 수 이상으로 늘지 않는다.
+ * 이전 frame 전송이 끝나지 않았으면 다음 flush 는 건너뛰고 값만 계속 덮어쓴다.
+ */
+final class TelemetryStreamConnection {
+
+    private static final Object NULL_VALUE = new Object();
+    private static final int DOUBLE_SCALE = 6;
+
+    private final SseEmitter emitter;
+    // 구독 시점에 TagRegistry 로 확정한 대상 노드 → 경로 (생성 후 읽기 전용)
+    private final Map<UaVariableNode, String> paths;
+    // 값 변화 통지가 없는 lazy 노드와 그 현재값을 읽는 함수 (flush 때마다 읽어 변화분만 보낸다)
+    private final List<UaVariableNode> lazyNodes;
+    private final Function<UaVariableNode, Object> lazyReader;
+    private final double deadband;
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+    // 마지막으로 보낸 값 (flush 는 한 번에 하나만 실행되므로 동기화 불필요)
+    private final Map<String, Object> lastSent = new HashMap<>();
+    // 최초 snapshot 을 보내기 전까지는 flush 가 끼어들지 않도록 전송 중 상태로 시작한다.
+    private final AtomicBoolean sending = new AtomicBoolean(true);
+    private final AtomicLong frameSeq = new AtomicLong();
+    private final AtomicLong skippedFlushes = new AtomicLong();
+    private volatile boolean closed = false;
+
+    TelemetryStreamConnection(SseEmitter emitter,
+                              IdentityHashMap<UaVariableNode, String> paths,
+                              List<UaVariableNode> lazyNodes,
+                              Function<UaVariableNode, Object> lazyReader,
+                              double deadband) {
+        this.emitter = emitter;
+        this.paths = paths;
+        this.lazyNodes = lazyNodes;
+        this.lazyReader = lazyReader;
+        this.deadband = Math.max(0.0, deadband);
+    }
+
+    SseEmitter emitter() {
+        return emitter;
+    }
+
+    Set<UaVariableNode> nodes() {
+        return paths.keySet();
+    }
+
+    Map<UaVariableNode, String> paths() {
+        return paths;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        pending.clear();
+    }
+
+    /** 설비 tick 스레드에서 호출된다. 구독 대상이 아니면 바로 반환한다. */
+    void offer(UaVariableNode node, Object value) {
+        if (closed) {
+            return;
+        }
+        String path = paths.get(node);
+        if (path != null) {
+            pending.put(path, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /** 이전 frame 을 아직 보내는 중이면 false (이번 주기는 건너뛰고 값은 계속 coalescing 된다). */
+    boolean tryBeginFlush() {
+        if (sending.compareAndSet(false, true)) {
+            return true;
+        }
+        skippedFlushes.incrementAndGet();
+        return false;
+    }
+
+    void flush() {
+        try {
+            if (closed) {
+                return;
+            }
+            // lazy 노드는 epoch memo 가 있어 같은 tick 안의 반복 읽기는 계산 없이 끝난다. 같은 값은 deadband 에서 걸러진다.
+            for (UaVariableNode node : lazyNodes) {
+                offer(node, lazyReader.apply(node));
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            JsonPayloadWriter json = JsonPayloadWriter.acquire()
+                    .beginObject()
+                    .field("ts", System.currentTimeMillis())
+                    .field("skipped", skippedFlushes.get())
+                    .name("changes")
+                    .beginObject();
+            int changes = 0;
+            for (String path : pending.keySet()) {
+                // remove 로 꺼내야 순회 도중 들어온 최신값을 잃지 않는다.
+                Object value = pending.remove(path);
+                if (value == null || !passesDeadband(path, value)) {
+                    continue;
+                }
+                lastSent.put(path, value);
+                writeValue(json.name(path), value);
+                changes++;
+            }
+            if (changes == 0) {
+                return;
+            }
+            String frame = json.endObject().endObject().toJson();
+            emitter.send(SseEmitter.event()
+                    .name("telemetry")
+                    .id(Long.toString(frameSeq.incrementAndGet()))
+                    .data(frame, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException ex) {
+            close();
+            emitter.completeWithError(ex);
+        } finally {
+            sending.set(false);
+        }
+    }
+
+    /**
+     * 연결 직후 현재 값을 한 frame 으로 보낸다. 그 사이 들어온 변화는 pending 에 쌓였다가 다음 flush 에서 나간다.
+     */
+    void sendInitial(Map<String, Object> values) throws IOException {
+        try {
+            JsonPayloadWriter json = JsonPayloadWriter.acquire()
+                    .beginObject()
+                    .field("ts", System.currentTimeMillis())
+                    .name("values")
+                    .beginObject();
+            values.forEach((path, value) -> {
+                lastSent.put(path, value == null ? NULL_VALUE : value);
+                writeValue(json.name(path), value);
+            });
+            String frame = json.endObject().endObject().toJson();
+            emitter.send(SseEmitter.event()
+                    .name("snapshot")
+                    .id(Long.toString(frameSeq.incrementAndGet()))
+                    .data(frame, MediaType.APPLICATION_JSON));
+        } finally {
+            sending.set(false);
+        }
+    }
+
+    /** 숫자는 마지막으로 보낸 값과의 차이가 deadband 이하이면 보내지 않는다. 숫자가 아니면 값이 같을 때만 생략한다. */
+    private boolean passesDeadband(String path, Object value) {
+        Object previous = lastSent.get(path);
+        if (previous == null) {
+            return true;
+        }
+        if (deadband > 0.0 && value instanceof Number current && previous instanceof Number last) {
+            return Math.abs(current.doubleValue() - last.doubleValue()) > deadband;
+        }
+        return !Objects.deepEquals(previous, value);
+    }
+
+    private static void writeValue(JsonPayloadWriter json, Object value) {
+        if (value == null || value == NULL_VALUE) {
+            json.nullValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            json.value(((Number) value).doubleValue(), DOUBLE_SCALE);
+        } else if (value instanceof Number number) {
+            json.value(number.longValue());
+        } else if (value instanceof Boolean bool) {
+            json.value(bool);
+        } else if (value instanceof Object[] array) {
+            json.beginArray();
+            for (Object element : array) {
+                writeValue(json, element);
+            }
+            json.endArray();
+        } else {
+            json.value(value.toString());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.synclab.miloserver.controller;
+
+import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.TagRegistry;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OPC UA 를 쓰지 않는 소비자(web HMI, notebook)용 telemetry 변화 스트림 (Server-Sent Events).
+ * <pre>
+ * GET /machine/stream?paths=F0001.CL0001.*.state&amp;paths=F0001.CL0001.ElectrodeUnit01.*&amp;deadband=0.5
+ *   event: snapshot  {"ts":..,"values":{"path":value,...}}   연결 직후 1회
+ *   event: telemetry {"ts":..,"skipped":n,"changes":{"path":value,...}}   설비 tick 주기(1초)마다 변화분만
+ * </pre>
+ * 변화는 MultiMachineNameSpace 의 ValueChangeListener 로 받고, 연결마다 경로별 최신값만 보관한다.
+ * lazy 노드(processed_count 등)는 값 변화 통지가 없으므로 frame 마다 한 번 읽어 바뀐 값만 보낸다.
+ * 연결은 구독 태그의 관측자로 등록되어, 구독자가 없어 생략하던 telemetry 도 설비가 다시 계산한다.
+ */
+@RestController
+@RequestMapping("/machine")
+public class TelemetryStreamController {
+
+    private static final long FRAME_INTERVAL_MS = 1000L;
+    private static final long EMITTER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final int MAX_CONNECTIONS = 64;
+
+    private final MultiMachineNameSpace namespace;
+    private final MultiMachineNameSpace.ValueChangeListener changeListener = this::onValueChanged;
+    private final Set<TelemetryStreamConnection> connections = ConcurrentHashMap.newKeySet();
+    // 동시 요청이 size() 확인을 함께 통과하지 않도록 연결 슬롯을 먼저 확보하고, connections 에서 빠질 때 반납한다.
+    private final Semaphore connectionSlots = new Semaphore(MAX_CONNECTIONS);
+    // 연결별 전송은 블로킹 IO 이므로 가상 스레드에서 실행해 느린 클라이언트가 다른 연결을 막지 않게 한다.
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService frameScheduler =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "telemetry-stream-frames");
+                t.setDaemon(true);
+                return t;
+            });
+
+    public TelemetryStreamController(MultiMachineNameSpace namespace) {
+        this.namespace = namespace;
+        namespace.addValueChangeListener(changeListener);
+        frameScheduler.scheduleAtFixedRate(this::flushFrames, FRAME_INTERVAL_MS, FRAME_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam List<String> paths,
+                             @RequestParam(required = false, defaultValue = "0") double deadband) {
+        if (!connectionSlots.tryAcquire()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many telemetry streams");
+        }
+        TelemetryStreamConnection connection;
+        try {
+            connection = open(paths, deadband);
+        } catch (RuntimeException ex) {
+            connectionSlots.release();
+            throw ex;
+        }
+        // 먼저 등록해 snapshot 을 읽는 동안의 변화도 놓치지 않는다 (snapshot 전송 전에는 flush 되지 않음).
+        connections.add(connection);
+        connection.nodes().forEach(node -> namespace.observe(node.getNodeId(), true));
+        Map<String, Object> initial = new TreeMap<>();
+        connection.paths().forEach((node, path) -> initial.put(path, namespace.readValue(node).getValue().getValue()));
+        try {
+            connection.sendInitial(initial);
+        } catch (IOException ex) {
+            remove(connection);
+            connection.emitter().completeWithError(ex);
+        }
+        return connection.emitter();
+    }
+
+    private TelemetryStreamConnection open(List<String> paths, double deadband) {
+        IdentityHashMap<UaVariableNode, String> targets = new IdentityHashMap<>();
+        TagRegistry registry = namespace.getTagRegistry();
+        for (String pattern : paths) {
+            registry.forEachMatching(pattern.trim(), (path, node) -> targets.put(node, path));
+        }
+        if (targets.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No tags match " + paths);
+        }
+
+        List<UaVariableNode> lazyNodes = new ArrayList<>();
+        targets.keySet().forEach(node -> {
+            if (namespace.isLazy(node)) {
+                lazyNodes.add(node);
+            }
+        });
+
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        TelemetryStreamConnection connection = new TelemetryStreamConnection(
+                emitter, targets, lazyNodes, node -> namespace.readValue(node).getValue().getValue(), deadband);
+        emitter.onCompletion(() -> remove(connection));
+        emitter.onTimeout(() -> remove(connection));
+        emitter.onError(ex -> remove(connection));
+        return connection;
+    }
+
+    private void onValueChanged(UaVariableNode node, Object value) {
+        for (TelemetryStreamConnection connection : connections) {
+            connection.offer(node, value);
+        }
+    }
+
+    private void flushFrames() {
+        for (TelemetryStreamConnection connection : connections) {
+            if (connection.isClosed()) {
+                remove(connection);
+            } else if (connection.tryBeginFlush()) {
+                senders.execute(connection::flush);
+            }
+        }
+    }
+
+    /** 여러 콜백(completion/timeout/error, 전송 실패)에서 불려도 관측 해제는 한 번만 한다. */
+    private void remove(TelemetryStreamConnection connection) {
+        connection.close();
+        if (connections.remove(connection)) {
+            connectionSlots.release();
+            connection.nodes().forEach(node -> namespace.observe(node.getNodeId(), false));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        namespace.removeValueChangeListener(changeListener);
+        frameScheduler.shutdownNow();
+        connections.forEach(connection -> {
+            remove(connection);
+            connection.emitter().complete();
+        });
+        senders.shutdownNow();
+    }
+}
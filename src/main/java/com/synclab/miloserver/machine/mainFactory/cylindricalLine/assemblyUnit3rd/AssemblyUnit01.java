@@ -1,6 +1,7 @@
 package com.synclab.miloserver.machine.mainFactory.cylindricalLine.assemblyUnit3rd;
 
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.TagClass;
 import com.synclab.miloserver.opcua.UnitLogic;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 
@@ -8,6 +9,10 @@ import java.util.concurrent.ThreadLocalRandom;
 
 public class AssemblyUnit01 extends UnitLogic {
 
+    // ProcessMeasurementStore 열 (serial 당 한 행)
+    private static final String[] MEASUREMENT_COLUMNS = {
+            "notch_dim_dev_um", "stack_align_dev_um", "winding_tension", "weld_resistance", "leak_rate", "fill_volume_ml"
+    };
     private static final double[] STAGE_DURATIONS_SEC = {3.0, 4.0, 3.0, 2.0, 2.0};
     private static final double TOTAL_CYCLE_TIME_SEC = 14.0;
     private static final double TIME_ACCELERATION = 5.0;
@@ -72,26 +77,26 @@ public class AssemblyUnit01 extends UnitLogic {
 
     @Override
     public void setupVariables(MultiMachineNameSpace ns) {
-        telemetryNodes.put("stack_alignment", ns.addVariableNode(machineFolder, name + ".stack_alignment", 0.0));
-        telemetryNodes.put("winding_tension", ns.addVariableNode(machineFolder, name + ".winding_tension", 0.0));
-        telemetryNodes.put("weld_quality", ns.addVariableNode(machineFolder, name + ".weld_quality", 0.0));
-        telemetryNodes.put("leak_test_result", ns.addVariableNode(machineFolder, name + ".leak_test_result", "IDLE"));
-        telemetryNodes.put("electrolyte_fill", ns.addVariableNode(machineFolder, name + ".electrolyte_fill", 0.0));
-
-        telemetryNodes.put("notch_dim_dev_um", ns.addVariableNode(machineFolder, name + ".notch_dim_dev_um", 0.0));
-        telemetryNodes.put("stack_align_dev_um", ns.addVariableNode(machineFolder, name + ".stack_align_dev_um", 0.0));
-        telemetryNodes.put("winding_tension_N", ns.addVariableNode(machineFolder, name + ".winding_tension_N", 0.0));
-        telemetryNodes.put("weld_resistance_mOhm", ns.addVariableNode(machineFolder, name + ".weld_resistance_mOhm", 0.0));
-        telemetryNodes.put("leak_rate_Pa_s", ns.addVariableNode(machineFolder, name + ".leak_rate_Pa_s", 0.0));
-        telemetryNodes.put("fill_volume_ml", ns.addVariableNode(machineFolder, name + ".fill_volume_ml", 0.0));
-        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", ""));
-        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true));
-        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0));
-        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC));
-        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0));
-        telemetryNodes.put("processed_count", ns.addVariableNode(machineFolder, name + ".processed_count", 0));
-        telemetryNodes.put("good_count", ns.addVariableNode(machineFolder, name + ".good_count", 0));
-        telemetryNodes.put("ng_count", ns.addVariableNode(machineFolder, name + ".ng_count", 0));
+        telemetryNodes.put("stack_alignment", ns.addVariableNode(machineFolder, name + ".stack_alignment", 0.0, TagClass.FAST));
+        telemetryNodes.put("winding_tension", ns.addVariableNode(machineFolder, name + ".winding_tension", 0.0, TagClass.FAST));
+        telemetryNodes.put("weld_quality", ns.addVariableNode(machineFolder, name + ".weld_quality", 0.0, TagClass.FAST));
+        telemetryNodes.put("leak_test_result", ns.addVariableNode(machineFolder, name + ".leak_test_result", "IDLE", TagClass.EVENT));
+        telemetryNodes.put("electrolyte_fill", ns.addVariableNode(machineFolder, name + ".electrolyte_fill", 0.0, TagClass.FAST));
+
+        telemetryNodes.put("notch_dim_dev_um", ns.addVariableNode(machineFolder, name + ".notch_dim_dev_um", 0.0, TagClass.FAST));
+        telemetryNodes.put("stack_align_dev_um", ns.addVariableNode(machineFolder, name + ".stack_align_dev_um", 0.0, TagClass.FAST));
+        telemetryNodes.put("winding_tension_N", ns.addVariableNode(machineFolder, name + ".winding_tension_N", 0.0, TagClass.FAST));
+        telemetryNodes.put("weld_resistance_mOhm", ns.addVariableNode(machineFolder, name + ".weld_resistance_mOhm", 0.0, TagClass.FAST));
+        telemetryNodes.put("leak_rate_Pa_s", ns.addVariableNode(machineFolder, name + ".leak_rate_Pa_s", 0.0, TagClass.FAST));
+        telemetryNodes.put("fill_volume_ml", ns.addVariableNode(machineFolder, name + ".fill_volume_ml", 0.0, TagClass.FAST));
+        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", "", TagClass.EVENT));
+        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true, TagClass.EVENT));
+        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0, TagClass.EVENT));
+        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC, TagClass.SLOW));
+        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0, TagClass.FAST));
+        registerLazyTelemetry(ns, "processed_count", TagClass.NORMAL, () -> processedSerialCount);
+        registerLazyTelemetry(ns, "good_count", TagClass.NORMAL, () -> okCount);
+        registerLazyTelemetry(ns, "ng_count", TagClass.NORMAL, () -> ngCount);
     }
 
     @Override
@@ -174,7 +179,7 @@ public class AssemblyUnit01 extends UnitLogic {
             }
         }
 
-        updateTelemetry(ns, "t_in_cycle_sec", Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
+        updateObservedTelemetry(ns, "t_in_cycle_sec", () -> Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
     }
 
     private void configureAlarms() {
@@ -225,6 +230,8 @@ public class AssemblyUnit01 extends UnitLogic {
         cycleElapsed = 0.0;
         sampleProcessMetrics();
         updateMetricTelemetry(ns);
+        recordProcessMeasurements(ns, MEASUREMENT_COLUMNS,
+                notchDimDevUm, stackAlignDevUm, windingTensionN, weldResistanceMOhm, leakRatePaS, fillVolumeMl);
 
         boolean notchOk = Math.abs(notchDimDevUm) <= 12.0;
         boolean stackOk = Math.abs(stackAlignDevUm) <= 20.0;
@@ -291,16 +298,16 @@ public class AssemblyUnit01 extends UnitLogic {
     }
 
     private void updateMetricTelemetry(MultiMachineNameSpace ns) {
-        updateTelemetry(ns, "notch_dim_dev_um", notchDimDevUm);
-        updateTelemetry(ns, "stack_align_dev_um", stackAlignDevUm);
-        updateTelemetry(ns, "winding_tension_N", windingTensionN);
-        updateTelemetry(ns, "weld_resistance_mOhm", weldResistanceMOhm);
-        updateTelemetry(ns, "leak_rate_Pa_s", leakRatePaS);
-        updateTelemetry(ns, "fill_volume_ml", fillVolumeMl);
-        updateTelemetry(ns, "stack_alignment", Math.abs(stackAlignDevUm));
-        updateTelemetry(ns, "winding_tension", windingTensionN);
-        updateTelemetry(ns, "weld_quality", 100.0 - weldResistanceMOhm);
-        updateTelemetry(ns, "electrolyte_fill", fillVolumeMl);
+        updateObservedTelemetry(ns, "notch_dim_dev_um", () -> notchDimDevUm);
+        updateObservedTelemetry(ns, "stack_align_dev_um", () -> stackAlignDevUm);
+        updateObservedTelemetry(ns, "winding_tension_N", () -> windingTensionN);
+        updateObservedTelemetry(ns, "weld_resistance_mOhm", () -> weldResistanceMOhm);
+        updateObservedTelemetry(ns, "leak_rate_Pa_s", () -> leakRatePaS);
+        updateObservedTelemetry(ns, "fill_volume_ml", () -> fillVolumeMl);
+        updateObservedTelemetry(ns, "stack_alignment", () -> Math.abs(stackAlignDevUm));
+        updateObservedTelemetry(ns, "winding_tension", () -> windingTensionN);
+        updateObservedTelemetry(ns, "weld_quality", () -> 100.0 - weldResistanceMOhm);
+        updateObservedTelemetry(ns, "electrolyte_fill", () -> fillVolumeMl);
     }
 
     private void updateProcessCountersTelemetry(MultiMachineNameSpace ns) {
@@ -325,12 +332,12 @@ public class AssemblyUnit01 extends UnitLogic {
         updateTelemetry(ns, "processed_count", 0);
         updateTelemetry(ns, "good_count", 0);
         updateTelemetry(ns, "ng_count", 0);
-        updateTelemetry(ns, "t_in_cycle_sec", 0.0);
-        updateTelemetry(ns, "notch_dim_dev_um", 0.0);
-        updateTelemetry(ns, "stack_align_dev_um", 0.0);
-        updateTelemetry(ns, "winding_tension_N", 0.0);
-        updateTelemetry(ns, "weld_resistance_mOhm", 0.0);
-        updateTelemetry(ns, "leak_rate_Pa_s", 0.0);
-        updateTelemetry(ns, "fill_volume_ml", 0.0);
+        updateObservedTelemetry(ns, "t_in_cycle_sec", () -> 0.0);
+        updateObservedTelemetry(ns, "notch_dim_dev_um", () -> 0.0);
+        updateObservedTelemetry(ns, "stack_align_dev_um", () -> 0.0);
+        updateObservedTelemetry(ns, "winding_tension_N", () -> 0.0);
+        updateObservedTelemetry(ns, "weld_resistance_mOhm", () -> 0.0);
+        updateObservedTelemetry(ns, "leak_rate_Pa_s", () -> 0.0);
+        updateObservedTelemetry(ns, "fill_volume_ml", () -> 0.0);
     }
 }
@@ -1,6 +1,7 @@
 package com.synclab.miloserver.machine.mainFactory.cylindricalLine.cellCleanUnit6th;
 
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.TagClass;
 import com.synclab.miloserver.opcua.UnitLogic;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 
@@ -8,6 +9,10 @@ import java.util.concurrent.ThreadLocalRandom;
 
 public class CellCleaner01 extends UnitLogic {
 
+    // ProcessMeasurementStore 열 (serial 당 한 행)
+    private static final String[] MEASUREMENT_COLUMNS = {
+            "ultrasonic_power", "residual_moisture", "surface_defects", "drying_temperature", "cleanliness_score"
+    };
     private static final double[] STAGE_DURATIONS_SEC = {2.0, 2.0, 2.0, 2.0};
     private static final double TOTAL_CYCLE_TIME_SEC = 8.0;
     private static final double TIME_ACCELERATION = 10.0;
@@ -71,19 +76,19 @@ public class CellCleaner01 extends UnitLogic {
 
     @Override
     public void setupVariables(MultiMachineNameSpace ns) {
-        telemetryNodes.put("ultrasonic_power", ns.addVariableNode(machineFolder, name + ".ultrasonic_power", 0.0));
-        telemetryNodes.put("residual_moisture", ns.addVariableNode(machineFolder, name + ".residual_moisture", 0.0));
-        telemetryNodes.put("surface_defects", ns.addVariableNode(machineFolder, name + ".surface_defects", 0));
-        telemetryNodes.put("drying_temperature", ns.addVariableNode(machineFolder, name + ".drying_temperature", 0.0));
-        telemetryNodes.put("cleanliness_score", ns.addVariableNode(machineFolder, name + ".cleanliness_score", 0.0));
-        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", ""));
-        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true));
-        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0));
-        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC));
-        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0));
-        telemetryNodes.put("processed_count", ns.addVariableNode(machineFolder, name + ".processed_count", 0));
-        telemetryNodes.put("good_count", ns.addVariableNode(machineFolder, name + ".good_count", 0));
-        telemetryNodes.put("ng_count", ns.addVariableNode(machineFolder, name + ".ng_count", 0));
+        telemetryNodes.put("ultrasonic_power", ns.addVariableNode(machineFolder, name + ".ultrasonic_power", 0.0, TagClass.FAST));
+        telemetryNodes.put("residual_moisture", ns.addVariableNode(machineFolder, name + ".residual_moisture", 0.0, TagClass.FAST));
+        telemetryNodes.put("surface_defects", ns.addVariableNode(machineFolder, name + ".surface_defects", 0, TagClass.NORMAL));
+        telemetryNodes.put("drying_temperature", ns.addVariableNode(machineFolder, name + ".drying_temperature", 0.0, TagClass.FAST));
+        telemetryNodes.put("cleanliness_score", ns.addVariableNode(machineFolder, name + ".cleanliness_score", 0.0, TagClass.FAST));
+        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", "", TagClass.EVENT));
+        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true, TagClass.EVENT));
+        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0, TagClass.EVENT));
+        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC, TagClass.SLOW));
+        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0, TagClass.FAST));
+        registerLazyTelemetry(ns, "processed_count", TagClass.NORMAL, () -> processedSerialCount);
+        registerLazyTelemetry(ns, "good_count", TagClass.NORMAL, () -> okCount);
+        registerLazyTelemetry(ns, "ng_count", TagClass.NORMAL, () -> ngCount);
     }
 
     @Override
@@ -165,7 +170,7 @@ public class CellCleaner01 extends UnitLogic {
             }
         }
 
-        updateTelemetry(ns, "t_in_cycle_sec", Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
+        updateObservedTelemetry(ns, "t_in_cycle_sec", () -> Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
     }
 
     private void configureAlarms() {
@@ -216,6 +221,8 @@ public class CellCleaner01 extends UnitLogic {
         cycleElapsed = 0.0;
         sampleProcessMetrics();
         updateMetricTelemetry(ns);
+        recordProcessMeasurements(ns, MEASUREMENT_COLUMNS,
+                ultrasonicPowerW, residualMoisturePpm, surfaceDefectDetected ? 1.0 : 0.0, dryingTemperatureC, cleanlinessScore);
 
         boolean powerOk = ultrasonicPowerW >= 115 && ultrasonicPowerW <= 125;
         boolean moistureOk = residualMoisturePpm <= 3.0;
@@ -278,11 +285,11 @@ public class CellCleaner01 extends UnitLogic {
     }
 
     private void updateMetricTelemetry(MultiMachineNameSpace ns) {
-        updateTelemetry(ns, "ultrasonic_power", ultrasonicPowerW);
-        updateTelemetry(ns, "residual_moisture", residualMoisturePpm);
+        updateObservedTelemetry(ns, "ultrasonic_power", () -> ultrasonicPowerW);
+        updateObservedTelemetry(ns, "residual_moisture", () -> residualMoisturePpm);
         updateTelemetry(ns, "surface_defects", surfaceDefectDetected ? 1 : 0);
-        updateTelemetry(ns, "drying_temperature", dryingTemperatureC);
-        updateTelemetry(ns, "cleanliness_score", cleanlinessScore);
+        updateObservedTelemetry(ns, "drying_temperature", () -> dryingTemperatureC);
+        updateObservedTelemetry(ns, "cleanliness_score", () -> cleanlinessScore);
     }
 
     private void updateProcessCountersTelemetry(MultiMachineNameSpace ns) {
@@ -312,7 +319,7 @@ public class CellCleaner01 extends UnitLogic {
         updateTelemetry(ns, "processed_count", 0);
         updateTelemetry(ns, "good_count", 0);
         updateTelemetry(ns, "ng_count", 0);
-        updateTelemetry(ns, "t_in_cycle_sec", 0.0);
+        updateObservedTelemetry(ns, "t_in_cycle_sec", () -> 0.0);
         updateMetricTelemetry(ns);
     }
 }
@@ -1,6 +1,7 @@
 package com.synclab.miloserver.machine.mainFactory.cylindricalLine.electrodeUnit2nd;
 
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.TagClass;
 import com.synclab.miloserver.opcua.UnitLogic;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 
@@ -10,6 +11,10 @@ public class ElectrodeUnit01 extends UnitLogic {
 
     private double mixPhase = 0.0;
 
+    // ProcessMeasurementStore 열 (serial 당 한 행)
+    private static final String[] MEASUREMENT_COLUMNS = {
+            "mix_viscosity", "coating_thickness", "oven_temperature", "calender_pressure", "slit_width_dev_um"
+    };
     private static final double[] STAGE_DURATIONS_SEC = {2.0, 3.0, 3.0, 2.0, 2.0};
     private static final double TOTAL_CYCLE_TIME_SEC = 12.0;
     private static final double TIME_ACCELERATION = 5.0;
@@ -73,27 +78,27 @@ public class ElectrodeUnit01 extends UnitLogic {
 
     @Override
     public void setupVariables(MultiMachineNameSpace ns) {
-        telemetryNodes.put("mix_viscosity", ns.addVariableNode(machineFolder, name + ".mix_viscosity", 0.0));
-        telemetryNodes.put("slurry_temperature", ns.addVariableNode(machineFolder, name + ".slurry_temperature", 25.0));
-        telemetryNodes.put("coating_thickness", ns.addVariableNode(machineFolder, name + ".coating_thickness", 0.0));
-        telemetryNodes.put("oven_temperature", ns.addVariableNode(machineFolder, name + ".oven_temperature", 0.0));
-        telemetryNodes.put("calender_pressure", ns.addVariableNode(machineFolder, name + ".calender_pressure", 0.0));
-        telemetryNodes.put("slitting_accuracy", ns.addVariableNode(machineFolder, name + ".slitting_accuracy", 0.0));
-
-        telemetryNodes.put("viscosity_cP", ns.addVariableNode(machineFolder, name + ".viscosity_cP", 0.0));
-        telemetryNodes.put("coat_thickness_um", ns.addVariableNode(machineFolder, name + ".coat_thickness_um", 0.0));
-        telemetryNodes.put("oven_temp_c", ns.addVariableNode(machineFolder, name + ".oven_temp_c", 0.0));
-        telemetryNodes.put("calender_pressure_MPa", ns.addVariableNode(machineFolder, name + ".calender_pressure_MPa", 0.0));
-        telemetryNodes.put("slit_width_dev_um", ns.addVariableNode(machineFolder, name + ".slit_width_dev_um", 0.0));
-        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", ""));
-        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true));
-        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0));
-        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC));
-        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0));
-        telemetryNodes.put("processed_count", ns.addVariableNode(machineFolder, name + ".processed_count", 0));
-        telemetryNodes.put("good_count", ns.addVariableNode(machineFolder, name + ".good_count", 0));
-        telemetryNodes.put("ng_count", ns.addVariableNode(machineFolder, name + ".ng_count", 0));
-        telemetryNodes.put("throughput_upm", ns.addVariableNode(machineFolder, name + ".throughput_upm", 0.0));
+        telemetryNodes.put("mix_viscosity", ns.addVariableNode(machineFolder, name + ".mix_viscosity", 0.0, TagClass.FAST));
+        telemetryNodes.put("slurry_temperature", ns.addVariableNode(machineFolder, name + ".slurry_temperature", 25.0, TagClass.FAST));
+        telemetryNodes.put("coating_thickness", ns.addVariableNode(machineFolder, name + ".coating_thickness", 0.0, TagClass.FAST));
+        telemetryNodes.put("oven_temperature", ns.addVariableNode(machineFolder, name + ".oven_temperature", 0.0, TagClass.FAST));
+        telemetryNodes.put("calender_pressure", ns.addVariableNode(machineFolder, name + ".calender_pressure", 0.0, TagClass.FAST));
+        telemetryNodes.put("slitting_accuracy", ns.addVariableNode(machineFolder, name + ".slitting_accuracy", 0.0, TagClass.FAST));
+
+        telemetryNodes.put("viscosity_cP", ns.addVariableNode(machineFolder, name + ".viscosity_cP", 0.0, TagClass.FAST));
+        telemetryNodes.put("coat_thickness_um", ns.addVariableNode(machineFolder, name + ".coat_thickness_um", 0.0, TagClass.FAST));
+        telemetryNodes.put("oven_temp_c", ns.addVariableNode(machineFolder, name + ".oven_temp_c", 0.0, TagClass.FAST));
+        telemetryNodes.put("calender_pressure_MPa", ns.addVariableNode(machineFolder, name + ".calender_pressure_MPa", 0.0, TagClass.FAST));
+        telemetryNodes.put("slit_width_dev_um", ns.addVariableNode(machineFolder, name + ".slit_width_dev_um", 0.0, TagClass.FAST));
+        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", "", TagClass.EVENT));
+        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true, TagClass.EVENT));
+        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0, TagClass.EVENT));
+        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC, TagClass.SLOW));
+        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0, TagClass.FAST));
+        registerLazyTelemetry(ns, "processed_count", TagClass.NORMAL, () -> processedSerialCount);
+        registerLazyTelemetry(ns, "good_count", TagClass.NORMAL, () -> okCount);
+        registerLazyTelemetry(ns, "ng_count", TagClass.NORMAL, () -> ngCount);
+        registerLazyTelemetry(ns, "throughput_upm", TagClass.NORMAL, this::currentThroughputUpm);
     }
 
     @Override
@@ -120,7 +125,7 @@ public class ElectrodeUnit01 extends UnitLogic {
                 handleExecute(ns);
                 break;
             case "COMPLETING":
-                updateTelemetry(ns, "calender_pressure", 0.0);
+                updateObservedTelemetry(ns, "calender_pressure", () -> 0.0);
                 if (timeInState(2000)) {
                     onOrderCompleted(ns);
                 }
@@ -150,9 +155,9 @@ public class ElectrodeUnit01 extends UnitLogic {
     private void simulateIdle(MultiMachineNameSpace ns) {
         mixPhase += 0.1;
         double viscosityIdle = 1100 + Math.sin(mixPhase) * 40 + (Math.random() - 0.5) * 10;
-        updateTelemetry(ns, "mix_viscosity", viscosityIdle);
-        updateTelemetry(ns, "slurry_temperature", 25 + (Math.random() - 0.5) * 0.5);
-        updateTelemetry(ns, "oven_temperature", 155 + (Math.random() - 0.5));
+        updateObservedTelemetry(ns, "mix_viscosity", () -> viscosityIdle);
+        updateObservedTelemetry(ns, "slurry_temperature", () -> 25 + (Math.random() - 0.5) * 0.5);
+        updateObservedTelemetry(ns, "oven_temperature", () -> 155 + (Math.random() - 0.5));
         applyIdleDrift(ns);
     }
 
@@ -184,7 +189,7 @@ public class ElectrodeUnit01 extends UnitLogic {
                 break;
             }
         }
-        updateTelemetry(ns, "t_in_cycle_sec", Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
+        updateObservedTelemetry(ns, "t_in_cycle_sec", () -> Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
     }
 
     private boolean prepareCurrentSerial(MultiMachineNameSpace ns) {
@@ -209,6 +214,8 @@ public class ElectrodeUnit01 extends UnitLogic {
     private void concludeSerialCycle(MultiMachineNameSpace ns) {
         sampleProcessMetrics();
         updateMetricTelemetry(ns);
+        recordProcessMeasurements(ns, MEASUREMENT_COLUMNS,
+                viscosityCp, coatingThicknessUm, ovenTempC, calenderPressureMpa, slitWidthDevUm);
         cycleElapsed = 0.0;
 
         boolean viscosityOk = viscosityCp >= 900 && viscosityCp <= 1300;
@@ -304,16 +311,16 @@ public class ElectrodeUnit01 extends UnitLogic {
     }
 
     private void updateMetricTelemetry(MultiMachineNameSpace ns) {
-        updateTelemetry(ns, "viscosity_cP", viscosityCp);
-        updateTelemetry(ns, "coat_thickness_um", coatingThicknessUm);
-        updateTelemetry(ns, "oven_temp_c", ovenTempC);
-        updateTelemetry(ns, "calender_pressure_MPa", calenderPressureMpa);
-        updateTelemetry(ns, "slit_width_dev_um", slitWidthDevUm);
-        updateTelemetry(ns, "mix_viscosity", viscosityCp);
-        updateTelemetry(ns, "coating_thickness", coatingThicknessUm);
-        updateTelemetry(ns, "oven_temperature", ovenTempC);
-        updateTelemetry(ns, "calender_pressure", calenderPressureMpa);
-        updateTelemetry(ns, "slitting_accuracy", Math.abs(slitWidthDevUm));
+        updateObservedTelemetry(ns, "viscosity_cP", () -> viscosityCp);
+        updateObservedTelemetry(ns, "coat_thickness_um", () -> coatingThicknessUm);
+        updateObservedTelemetry(ns, "oven_temp_c", () -> ovenTempC);
+        updateObservedTelemetry(ns, "calender_pressure_MPa", () -> calenderPressureMpa);
+        updateObservedTelemetry(ns, "slit_width_dev_um", () -> slitWidthDevUm);
+        updateObservedTelemetry(ns, "mix_viscosity", () -> viscosityCp);
+        updateObservedTelemetry(ns, "coating_thickness", () -> coatingThicknessUm);
+        updateObservedTelemetry(ns, "oven_temperature", () -> ovenTempC);
+        updateObservedTelemetry(ns, "calender_pressure", () -> calenderPressureMpa);
+        updateObservedTelemetry(ns, "slitting_accuracy", () -> Math.abs(slitWidthDevUm));
     }
 
     private void updateProcessCountersTelemetry(MultiMachineNameSpace ns) {
@@ -322,10 +329,13 @@ public class ElectrodeUnit01 extends UnitLogic {
         updateTelemetry(ns, "ng_count", ngCount);
     }
 
-    private void updateThroughputTelemetry(MultiMachineNameSpace ns) {
+    private double currentThroughputUpm() {
         double minutes = totalElapsedSeconds / 60.0;
-        double throughput = minutes <= 0.0 ? 0.0 : okCount / minutes;
-        updateTelemetry(ns, "throughput_upm", throughput);
+        return minutes <= 0.0 ? 0.0 : okCount / minutes;
+    }
+
+    private void updateThroughputTelemetry(MultiMachineNameSpace ns) {
+        updateTelemetry(ns, "throughput_upm", currentThroughputUpm());
         updateTelemetry(ns, "cycle_time_sec", TOTAL_CYCLE_TIME_SEC);
     }
 
@@ -1,6 +1,7 @@
 package com.synclab.miloserver.machine.mainFactory.cylindricalLine.finalInspection;
 
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.TagClass;
 import com.synclab.miloserver.opcua.UnitLogic;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 
@@ -8,6 +9,10 @@ import java.util.concurrent.ThreadLocalRandom;
 
 public class FinalInspection02 extends UnitLogic {
 
+    // ProcessMeasurementStore 열 (serial 당 한 행)
+    private static final String[] MEASUREMENT_COLUMNS = {
+            "vision_score", "electrical_resistance", "safety_passed", "function_passed"
+    };
     private static final double[] STAGE_DURATIONS_SEC = {2.0, 2.0, 2.0};
     private static final double TOTAL_CYCLE_TIME_SEC = 6.0;
     private static final int SIMULATION_SPEED = 5;
@@ -72,19 +77,19 @@ public class FinalInspection02 extends UnitLogic {
 
     @Override
     public void setupVariables(MultiMachineNameSpace ns) {
-        telemetryNodes.put("vision_score", ns.addVariableNode(machineFolder, name + ".vision_score", 0.0));
-        telemetryNodes.put("electrical_resistance", ns.addVariableNode(machineFolder, name + ".electrical_resistance", 0.0));
-        telemetryNodes.put("safety_passed", ns.addVariableNode(machineFolder, name + ".safety_passed", true));
-        telemetryNodes.put("function_passed", ns.addVariableNode(machineFolder, name + ".function_passed", true));
-        telemetryNodes.put("lot_verified", ns.addVariableNode(machineFolder, name + ".lot_verified", ""));
-        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", ""));
-        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true));
-        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0));
-        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC));
-        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0));
-        telemetryNodes.put("processed_count", ns.addVariableNode(machineFolder, name + ".processed_count", 0));
-        telemetryNodes.put("good_count", ns.addVariableNode(machineFolder, name + ".good_count", 0));
-        telemetryNodes.put("ng_count", ns.addVariableNode(machineFolder, name + ".ng_count", 0));
+        telemetryNodes.put("vision_score", ns.addVariableNode(machineFolder, name + ".vision_score", 0.0, TagClass.FAST));
+        telemetryNodes.put("electrical_resistance", ns.addVariableNode(machineFolder, name + ".electrical_resistance", 0.0, TagClass.FAST));
+        telemetryNodes.put("safety_passed", ns.addVariableNode(machineFolder, name + ".safety_passed", true, TagClass.EVENT));
+        telemetryNodes.put("function_passed", ns.addVariableNode(machineFolder, name + ".function_passed", true, TagClass.EVENT));
+        telemetryNodes.put("lot_verified", ns.addVariableNode(machineFolder, name + ".lot_verified", "", TagClass.EVENT));
+        telemetryNodes.put("current_serial", ns.addVariableNode(machineFolder, name + ".current_serial", "", TagClass.EVENT));
+        telemetryNodes.put("serial_ok", ns.addVariableNode(machineFolder, name + ".serial_ok", true, TagClass.EVENT));
+        telemetryNodes.put("ng_type", ns.addVariableNode(machineFolder, name + ".ng_type", 0, TagClass.EVENT));
+        telemetryNodes.put("cycle_time_sec", ns.addVariableNode(machineFolder, name + ".cycle_time_sec", TOTAL_CYCLE_TIME_SEC, TagClass.SLOW));
+        telemetryNodes.put("t_in_cycle_sec", ns.addVariableNode(machineFolder, name + ".t_in_cycle_sec", 0.0, TagClass.FAST));
+        registerLazyTelemetry(ns, "processed_count", TagClass.NORMAL, () -> processedSerialCount);
+        registerLazyTelemetry(ns, "good_count", TagClass.NORMAL, () -> okCount);
+        registerLazyTelemetry(ns, "ng_count", TagClass.NORMAL, () -> ngCount);
     }
 
     @Override
@@ -168,7 +173,7 @@ public class FinalInspection02 extends UnitLogic {
                 }
             }
 
-            updateTelemetry(ns, "t_in_cycle_sec", Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
+            updateObservedTelemetry(ns, "t_in_cycle_sec", () -> Math.min(cycleElapsed, TOTAL_CYCLE_TIME_SEC));
         }
     }
 
@@ -194,6 +199,8 @@ public class FinalInspection02 extends UnitLogic {
     private void concludeSerialCycle(MultiMachineNameSpace ns) {
         sampleProcessMetrics();
         updateMetricTelemetry(ns);
+        recordProcessMeasurements(ns, MEASUREMENT_COLUMNS,
+                visionScore, electricalResistance, safetyPassed ? 1.0 : 0.0, functionPassed ? 1.0 : 0.0);
 
         boolean visionOk = visionScore >= 93.0;
         boolean resistanceOk = electricalResistance >= 2.6 && electricalResistance <= 3.6;
@@ -278,8 +285,8 @@ public class FinalInspection02 extends UnitLogic {
     }
 
     private void updateMetricTelemetry(MultiMachineNameSpace ns) {
-        updateTelemetry(ns, "vision_score", visionScore);
-        updateTelemetry(ns, "electrical_resistance", electricalResistance);
+        updateObservedTelemetry(ns, "vision_score", () -> visionScore);
+        updateObservedTelemetry(ns, "electrical_resistance", () -> electricalResistance);
         updateTelemetry(ns, "safety_passed", safetyPassed);
         updateTelemetry(ns, "function_passed", functionPassed);
         updateTelemetry(ns, "lot_verified", lotCode);
@@ -312,7 +319,7 @@ public class FinalInspection02 extends UnitLogic {
         updateTelemetry(ns, "processed_count", 0);
         updateTelemetry(ns, "good_count", 0);
         updateTelemetry(ns, "ng_count", 0);
-        updateTelemetry(ns, "t_in_cycle_sec", 0.0);
+        updateObservedTelemetry(ns, "t_in_cycle_sec", () -> 0.0);
         updateMetricTelemetry(ns);
     }
 }
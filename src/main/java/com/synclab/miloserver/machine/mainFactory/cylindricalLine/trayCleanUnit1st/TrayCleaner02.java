@@ -1,6 +1,7 @@
 package com.synclab.miloserver.machine.mainFactory.cylindricalLine.trayCleanUnit1st;
 
 import com.synclab.miloserver.opcua.MultiMachineNameSpace;
+import com.synclab.miloserver.opcua.TagClass;
 import com.synclab.miloserver.opcua.UnitLogic;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 
@@ -68,21 +69,20 @@ public class TrayCleaner02 extends UnitLogic {
 
     @Override
     public void setupVariables(MultiMachineNameSpace ns) {
-        telemetryNodes.put("conveyor_id", ns.addVariableNode(machineFolder, name + ".conveyor_id", "CV_01_BRANCH_B"));
-        telemetryNodes.put("source_unit", ns.addVariableNode(machineFolder, name + ".source_unit", "LOAD_UNIT"));
-        telemetryNodes.put("target_unit", ns.addVariableNode(machineFolder, name + ".target_unit", "ELECTRODE_UNIT"));
-        telemetryNodes.put("direction", ns.addVariableNode(machineFolder, name + ".direction", "FWD"));
-        telemetryNodes.put("branch_state", ns.addVariableNode(machineFolder, name + ".branch_state", "RIGHT"));
-        telemetryNodes.put("occupied", ns.addVariableNode(machineFolder, name + ".occupied", false));
-        telemetryNodes.put("tray_id", ns.addVariableNode(machineFolder, name + ".tray_id", ""));
-        telemetryNodes.put("speed", ns.addVariableNode(machineFolder, name + ".speed", 0.0));
-        telemetryNodes.put("jam_alarm", ns.addVariableNode(machineFolder, name + ".jam_alarm", false));
-        telemetryNodes.put("sensor_status", ns.addVariableNode(machineFolder, name + ".sensor_status", "{}"));
-        telemetryNodes.put("transfer_time", ns.addVariableNode(machineFolder, name + ".transfer_time", 0.0));
-        telemetryNodes.put("surface_cleanliness", ns.addVariableNode(machineFolder, name + ".surface_cleanliness", 0.0));
-        telemetryNodes.put("static_level", ns.addVariableNode(machineFolder, name + ".static_level", 0.0));
-        telemetryNodes.put("air_pressure", ns.addVariableNode(machineFolder, name + ".air_pressure", 0.0));
-        telemetryNodes.put("tray_tag_valid", ns.addVariableNode(machineFolder, name + ".tray_tag_valid", false));
+        telemetryNodes.put("conveyor_id", ns.addVariableNode(machineFolder, name + ".conveyor_id", "CV_01_BRANCH_B", TagClass.CONSTANT));
+        telemetryNodes.put("source_unit", ns.addVariableNode(machineFolder, name + ".source_unit", "LOAD_UNIT", TagClass.CONSTANT));
+        telemetryNodes.put("target_unit", ns.addVariableNode(machineFolder, name + ".target_unit", "ELECTRODE_UNIT", TagClass.CONSTANT));
+        telemetryNodes.put("direction", ns.addVariableNode(machineFolder, name + ".direction", "FWD", TagClass.EVENT));
+        telemetryNodes.put("branch_state", ns.addVariableNode(machineFolder, name + ".branch_state", "RIGHT", TagClass.EVENT));
+        telemetryNodes.put("occupied", ns.addVariableNode(machineFolder, name + ".occupied", false, TagClass.EVENT));
+        telemetryNodes.put("speed", ns.addVariableNode(machineFolder, name + ".speed", 0.0, TagClass.FAST));
+        telemetryNodes.put("jam_alarm", ns.addVariableNode(machineFolder, name + ".jam_alarm", false, TagClass.EVENT));
+        telemetryNodes.put("sensor_status", ns.addVariableNode(machineFolder, name + ".sensor_status", "{}", TagClass.EVENT));
+        telemetryNodes.put("transfer_time", ns.addVariableNode(machineFolder, name + ".transfer_time", 0.0, TagClass.FAST));
+        telemetryNodes.put("surface_cleanliness", ns.addVariableNode(machineFolder, name + ".surface_cleanliness", 0.0, TagClass.FAST));
+        telemetryNodes.put("static_level", ns.addVariableNode(machineFolder, name + ".static_level", 0.0, TagClass.FAST));
+        telemetryNodes.put("air_pressure", ns.addVariableNode(machineFolder, name + ".air_pressure", 0.0, TagClass.FAST));
+        telemetryNodes.put("tray_tag_valid", ns.addVariableNode(machineFolder, name + ".tray_tag_valid", false, TagClass.EVENT));
     }
 
     @Override
@@ -154,8 +154,8 @@ public class TrayCleaner02 extends UnitLogic {
         }
         double idlePressure = 5.1 + Math.sin(idlePressurePhase) * 0.3 + (Math.random() - 0.5) * 0.06;
         double idleStatic = 0.024 + Math.abs(Math.sin(idlePressurePhase / 2)) * 0.02;
-        updateTelemetry(ns, "air_pressure", idlePressure);
-        updateTelemetry(ns, "static_level", idleStatic);
+        updateObservedTelemetry(ns, "air_pressure", () -> idlePressure);
+        updateObservedTelemetry(ns, "static_level", () -> idleStatic);
         updateTelemetry(ns, "occupied", false);
         updateTelemetry(ns, "tray_tag_valid", false);
         applyIdleDrift(ns);
@@ -176,8 +176,8 @@ public class TrayCleaner02 extends UnitLogic {
         cleaningElapsed += 1.0;
         transferSpeedMps = 0.24 + (Math.random() - 0.5) * 0.07;
         transferTimeSec = CLEANING_DURATION_SEC + (Math.random() - 0.5);
-        updateTelemetry(ns, "speed", transferSpeedMps);
-        updateTelemetry(ns, "transfer_time", transferTimeSec);
+        updateObservedTelemetry(ns, "speed", () -> transferSpeedMps);
+        updateObservedTelemetry(ns, "transfer_time", () -> transferTimeSec);
 
         if (cleaningElapsed >= CLEANING_DURATION_SEC) {
             concludeCleaning(ns);
@@ -188,11 +188,11 @@ public class TrayCleaner02 extends UnitLogic {
         cleaningActive = true;
         cleaningElapsed = 0.0;
         sampleCleaningMetrics();
-        updateTelemetry(ns, "surface_cleanliness", surfaceCleanliness);
-        updateTelemetry(ns, "static_level", staticLevel);
-        updateTelemetry(ns, "air_pressure", airPressureBar);
-        updateTelemetry(ns, "speed", transferSpeedMps);
-        updateTelemetry(ns, "transfer_time", transferTimeSec);
+        updateObservedTelemetry(ns, "surface_cleanliness", () -> surfaceCleanliness);
+        updateObservedTelemetry(ns, "static_level", () -> staticLevel);
+        updateObservedTelemetry(ns, "air_pressure", () -> airPressureBar);
+        updateObservedTelemetry(ns, "speed", () -> transferSpeedMps);
+        updateObservedTelemetry(ns, "transfer_time", () -> transferTimeSec);
     }
 
     private void configureAlarms() {
@@ -287,10 +287,10 @@ public class TrayCleaner02 extends UnitLogic {
         trayNgType = 0;
         updateTelemetry(ns, "occupied", false);
         updateTelemetry(ns, "tray_tag_valid", false);
-        updateTelemetry(ns, "speed", 0.0);
-        updateTelemetry(ns, "transfer_time", 0.0);
-        updateTelemetry(ns, "surface_cleanliness", 0.0);
-        updateTelemetry(ns, "static_level", 0.0);
-        updateTelemetry(ns, "air_pressure", 0.0);
+        updateObservedTelemetry(ns, "speed", () -> 0.0);
+        updateObservedTelemetry(ns, "transfer_time", () -> 0.0);
+        updateObservedTelemetry(ns, "surface_cleanliness", () -> 0.0);
+        updateObservedTelemetry(ns, "static_level", () -> 0.0);
+        updateObservedTelemetry(ns, "air_pressure", () -> 0.0);
     }
 }
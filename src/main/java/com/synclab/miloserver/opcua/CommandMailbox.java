@@ -0,0 +1,96 @@
+package com.synclab.miloserver.opcua;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 설비 하나의 .command 대기열.
+ * OPC UA/REST 쓰기 스레드는 offer 로 순번만 받고 바로 돌아가며, 실제 명령은 설비 시뮬레이션 스레드가
+ * tick 경계에서 drain 으로 꺼내 적용한다. 일반 lane 이 가득 차면 offer 가 거부된다(backpressure).
+ * STOP 은 거부하지 않는다. 대기 중인 STOP 하나에 합쳐져 먼저 적용되고, 그보다 먼저 쌓인 일반 명령은 적용하지 않고 버린다.
+ * Method 호출처럼 결과를 기다리는 쪽은 submit 으로 받은 Command 의 reply 를 기다린다.
+ */
+final class CommandMailbox {
+
+    /**
+     * action 이 있으면(Method 호출) text 대신 action 을 실행하고, 없으면 text 를 onCommand 로 해석한다.
+     * reply 는 적용 결과(STOP 에 밀려 버려지면 Bad_RequestCancelledByRequest)로 완료된다. 합쳐진 STOP 들은 같은 reply 를 공유한다.
+     */
+    record Command(long seq, String text, boolean priority,
+                   Supplier<StatusCode> action, CompletableFuture<StatusCode> reply) {
+    }
+
+    private final ArrayBlockingQueue<Command> normal;
+    // 아직 적용되지 않은 STOP 과, 그 STOP 이 무효화할 일반 명령의 마지막 순번 (this 로 보호)
+    private Command pendingStop;
+    private long stopCutoff;
+    private long lastSeq = 0L;
+
+    CommandMailbox(int capacity) {
+        this.normal = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * 명령을 대기열에 넣고 순번을 반환한다. 일반 lane 이 가득 차면 -1.
+     * 순번 발급과 enqueue 를 한 번에 해서 대기열 순서가 곧 순번 순서가 되도록 한다.
+     * 이미 대기 중인 STOP 이 있으면 새 STOP 은 그 STOP 의 순번을 받고, 지금까지 쌓인 일반 명령까지 무효화 범위를 넓힌다.
+     */
+    long offer(String text, boolean urgent) {
+        Command command = submit(text, urgent, null);
+        return command == null ? -1L : command.seq();
+    }
+
+    /** offer 와 같지만 대기열에 들어간(또는 합쳐진) Command 를 반환한다. 일반 lane 이 가득 차면 null. */
+    synchronized Command submit(String text, boolean urgent, Supplier<StatusCode> action) {
+        if (urgent) {
+            if (pendingStop == null) {
+                pendingStop = new Command(++lastSeq, text, true, action, new CompletableFuture<>());
+            }
+            stopCutoff = lastSeq;
+            return pendingStop;
+        }
+        Command command = new Command(lastSeq + 1, text, false, action, new CompletableFuture<>());
+        if (!normal.offer(command)) {
+            return null;
+        }
+        lastSeq = command.seq();
+        return command;
+    }
+
+    /**
+     * 대기 중인 STOP 부터 적용한다. STOP 보다 먼저 들어온 일반 명령은 superseded 로 넘기고 적용하지 않는다.
+     * 설비 시뮬레이션 스레드 전용이다.
+     */
+    void drain(Consumer<Command> apply, Consumer<Command> superseded) {
+        Command urgent;
+        long cutoff;
+        synchronized (this) {
+            urgent = pendingStop;
+            cutoff = stopCutoff;
+            pendingStop = null;
+        }
+        if (urgent != null) {
+            Command queued;
+            while ((queued = normal.peek()) != null && queued.seq() <= cutoff) {
+                superseded.accept(normal.poll());
+            }
+            apply.accept(urgent);
+        }
+        // drain 도중 들어온 명령은 다음 tick 으로 미뤄 tick 길이를 대기열 크기로 제한한다.
+        for (int budget = normal.size(); budget > 0; budget--) {
+            Command command = normal.poll();
+            if (command == null) {
+                break;
+            }
+            apply.accept(command);
+        }
+    }
+
+    synchronized boolean hasPending() {
+        return !normal.isEmpty() || pendingStop != null;
+    }
+}
@@ -0,0 +1,123 @@
+package com.synclab.miloserver.opcua;
+
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.api.methods.AbstractMethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+
+/**
+ * 설비/라인 폴더 아래 붙는 명령 Method 노드(StartOrder, Ack, Stop, Reset).
+ * 문자열 .command 쓰기와 같은 동작을 하지만 입력 인자는 타입이 정해져 있고,
+ * 명령이 거부되면 Call 결과가 Bad StatusCode(Bad_InvalidArgument, Bad_OutOfRange, Bad_InvalidState)로 돌아간다.
+ * <pre>
+ * F0001/CL0001/ElectrodeUnit01/StartOrder(orderNo: String, qty: Int32, itemCode: String, ppm: Int32)
+ * F0001/CL0001/StartOrder(...)   라인 (ppm 이 0 이면 설비 기본 PPM)
+ * </pre>
+ * 설비 대상 호출은 .command 와 같은 command mailbox 에 들어가 tick 경계에서 적용되고, 라인 대상 호출은 라인 이벤트 루프에 들어간다.
+ * 어느 쪽이든 호출 스레드는 적용 결과를 기다릴 뿐(최대 수 초) tick 을 막지 않는다.
+ */
+public final class CommandMethods {
+
+    public static final String START_ORDER = "StartOrder";
+    public static final String ACK = "Ack";
+    public static final String STOP = "Stop";
+    public static final String RESET = "Reset";
+
+    private static final Argument[] START_ORDER_INPUTS = {
+            argument("orderNo", Identifiers.String, "작업지시 번호"),
+            argument("qty", Identifiers.Int32, "목표 수량 (> 0)"),
+            argument("itemCode", Identifiers.String, "품목 코드 (빈 문자열이면 유지)"),
+            argument("ppm", Identifiers.Int32, "목표 PPM (0 이면 기본값)")
+    };
+    private static final Argument[] NO_ARGUMENTS = new Argument[0];
+    private static final Variant[] NO_OUTPUTS = new Variant[0];
+
+    /** Method 호출 대상. 반환한 StatusCode 가 Bad 이면 Call 결과로 그대로 전달된다. */
+    public interface Target {
+        StatusCode startOrderCommand(String orderNo, int targetQty, String itemCode, int ppm);
+
+        StatusCode ackCommand();
+
+        StatusCode stopCommand();
+
+        StatusCode resetCommand();
+    }
+
+    @FunctionalInterface
+    interface Invoker {
+        StatusCode invoke(Variant[] inputs);
+    }
+
+    private CommandMethods() {
+    }
+
+    /** qualifiedPrefix 는 같은 폴더의 변수 노드와 같은 browse name 접두어(설비 이름 또는 라인 이름)이다. */
+    static void register(MultiMachineNameSpace ns, UaFolderNode folder, String qualifiedPrefix, Target target) {
+        ns.addMethodNode(folder, qualifiedPrefix + "." + START_ORDER, "작업지시 시작", START_ORDER_INPUTS,
+                inputs -> target.startOrderCommand(
+                        stringInput(inputs[0]),
+                        intInput(inputs[1]),
+                        stringInput(inputs[2]),
+                        intInput(inputs[3])));
+        ns.addMethodNode(folder, qualifiedPrefix + "." + ACK, "완료 작업지시 MES 확인", NO_ARGUMENTS,
+                inputs -> target.ackCommand());
+        ns.addMethodNode(folder, qualifiedPrefix + "." + STOP, "정지 요청", NO_ARGUMENTS,
+                inputs -> target.stopCommand());
+        ns.addMethodNode(folder, qualifiedPrefix + "." + RESET, "작업지시 초기화", NO_ARGUMENTS,
+                inputs -> target.resetCommand());
+    }
+
+    private static Argument argument(String name, NodeId dataType, String description) {
+        return new Argument(name, dataType, ValueRanks.Scalar, null, LocalizedText.english(description));
+    }
+
+    private static String stringInput(Variant input) {
+        Object value = input.getValue();
+        return value == null ? "" : value.toString().trim();
+    }
+
+    private static int intInput(Variant input) {
+        Object value = input.getValue();
+        return value instanceof Number number ? number.intValue() : 0;
+    }
+
+    /** 입력 개수/타입 검사는 AbstractMethodInvocationHandler 가 먼저 수행한다. */
+    static final class Handler extends AbstractMethodInvocationHandler {
+        private final Argument[] inputArguments;
+        private final Invoker invoker;
+
+        Handler(UaMethodNode node, Argument[] inputArguments, Invoker invoker) {
+            super(node);
+            this.inputArguments = inputArguments;
+            this.invoker = invoker;
+        }
+
+        @Override
+        public Argument[] getInputArguments() {
+            return inputArguments;
+        }
+
+        @Override
+        public Argument[] getOutputArguments() {
+            return NO_ARGUMENTS;
+        }
+
+        @Override
+        protected Variant[] invoke(InvocationContext context, Variant[] inputs) throws UaException {
+            StatusCode result = invoker.invoke(inputs);
+            if (result.isBad()) {
+                System.out.printf("[CommandMethods] %s rejected: %s%n",
+                        MultiMachineNameSpace.tagPath(getNode().getNodeId()), result);
+                throw new UaException(result);
+            }
+            return NO_OUTPUTS;
+        }
+    }
+}
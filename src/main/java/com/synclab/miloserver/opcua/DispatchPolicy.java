@@ -0,0 +1,123 @@
+package com.synclab.miloserver.opcua;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * stage 안의 병렬 설비 중 다음 tray 를 받을 설비를 고르는 규칙.
+ * 후보는 항상 ready 집합(IDLE, ACK 대기 아님, tray 없음)이며 라인 이벤트 루프 스레드에서만 호출된다.
+ * <pre>
+ * ROUND_ROBIN                   등록 순서대로 돌아가며 배정
+ * SHORTEST_EXPECTED_COMPLETION  tray 수량 × 예상 단위 시간(실측 cycle 평균, 없으면 60 / PPM)이 가장 짧은 설비
+ * LEAST_RECENTLY_USED           마지막 배정 시각이 가장 오래된 설비
+ * </pre>
+ * 라인 기본값은 milo.line.dispatch.policy(.&lt;lineName&gt;) 로, 실행 중에는 라인 command "POLICY:&lt;name&gt;" 으로 바꾼다.
+ */
+enum DispatchPolicy {
+
+    ROUND_ROBIN {
+        @Override
+        UnitLogic select(Collection<UnitLogic> ready, List<UnitLogic> stageMachines, UnitLogic lastAssigned,
+                         int trayQty, Map<UnitLogic, MachineLoad> loads) {
+            int start = lastAssigned == null ? 0 : stageMachines.indexOf(lastAssigned) + 1;
+            for (int i = 0; i < stageMachines.size(); i++) {
+                UnitLogic candidate = stageMachines.get((start + i) % stageMachines.size());
+                if (ready.contains(candidate)) {
+                    return candidate;
+                }
+            }
+            return ready.iterator().next();
+        }
+    },
+    SHORTEST_EXPECTED_COMPLETION {
+        @Override
+        UnitLogic select(Collection<UnitLogic> ready, List<UnitLogic> stageMachines, UnitLogic lastAssigned,
+                         int trayQty, Map<UnitLogic, MachineLoad> loads) {
+            UnitLogic best = null;
+            double bestSeconds = Double.MAX_VALUE;
+            for (UnitLogic candidate : ready) {
+                MachineLoad load = loads.get(candidate);
+                double seconds = load == null ? Double.MAX_VALUE : trayQty * load.expectedSecondsPerUnit();
+                if (best == null || seconds < bestSeconds) {
+                    best = candidate;
+                    bestSeconds = seconds;
+                }
+            }
+            return best;
+        }
+    },
+    LEAST_RECENTLY_USED {
+        @Override
+        UnitLogic select(Collection<UnitLogic> ready, List<UnitLogic> stageMachines, UnitLogic lastAssigned,
+                         int trayQty, Map<UnitLogic, MachineLoad> loads) {
+            UnitLogic best = null;
+            long oldest = Long.MAX_VALUE;
+            for (UnitLogic candidate : ready) {
+                MachineLoad load = loads.get(candidate);
+                long assignedAt = load == null ? Long.MIN_VALUE : load.lastAssignedNanos;
+                if (best == null || assignedAt < oldest) {
+                    best = candidate;
+                    oldest = assignedAt;
+                }
+            }
+            return best;
+        }
+    };
+
+    static final DispatchPolicy DEFAULT = parse(System.getProperty("milo.line.dispatch.policy"), LEAST_RECENTLY_USED);
+
+    /** ready 가 비어 있지 않을 때만 호출한다. */
+    abstract UnitLogic select(Collection<UnitLogic> ready,
+                              List<UnitLogic> stageMachines,
+                              UnitLogic lastAssigned,
+                              int trayQty,
+                              Map<UnitLogic, MachineLoad> loads);
+
+    /** 대소문자/하이픈을 무시한다. 알 수 없는 이름이면 fallback. */
+    static DispatchPolicy parse(String name, DispatchPolicy fallback) {
+        if (name == null || name.isBlank()) {
+            return fallback;
+        }
+        String normalized = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+        for (DispatchPolicy policy : values()) {
+            if (policy.name().equals(normalized)) {
+                return policy;
+            }
+        }
+        return fallback;
+    }
+
+    /** 설비별 배정/가동 이력. 라인 이벤트 루프 스레드 전용. */
+    static final class MachineLoad {
+        private static final double CYCLE_SMOOTHING = 0.3;
+
+        int ppm;
+        long lastAssignedNanos = Long.MIN_VALUE;
+        long busyNanos = 0L;
+        // 실측 단위 시간(초)의 지수 평균. 아직 완료한 tray 가 없으면 0
+        double secondsPerUnit = 0.0;
+
+        MachineLoad(int ppm) {
+            this.ppm = ppm;
+        }
+
+        double expectedSecondsPerUnit() {
+            if (secondsPerUnit > 0.0) {
+                return secondsPerUnit;
+            }
+            return ppm > 0 ? 60.0 / ppm : Double.MAX_VALUE;
+        }
+
+        void recordCycle(long elapsedNanos, int units) {
+            if (units <= 0 || elapsedNanos <= 0) {
+                return;
+            }
+            double observed = elapsedNanos / 1_000_000_000.0 / units;
+            secondsPerUnit = secondsPerUnit <= 0.0
+                    ? observed
+                    : secondsPerUnit + CYCLE_SMOOTHING * (observed - secondsPerUnit);
+        }
+    }
+}
@@ -1,9 +1,6 @@
 package com.synclab.miloserver.opcua;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -91,15 +88,13 @@ public class EnvironmentProbe {
     }
 
     private String createPayload(double temperature, double humidity) {
-        BigDecimal roundedTemp = BigDecimal.valueOf(temperature).setScale(2, RoundingMode.HALF_UP);
-        BigDecimal roundedHum = BigDecimal.valueOf(humidity).setScale(2, RoundingMode.HALF_UP);
-        long timestamp = Instant.now().toEpochMilli();
-        return String.format(
-                "{\"factory_code\":\"%s\",\"temperature\":%s,\"humidity\":%s,\"timestamp\":%d}",
-                factoryCode,
-                roundedTemp.toPlainString(),
-                roundedHum.toPlainString(),
-                timestamp
-        );
+        return JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("factory_code", factoryCode)
+                .field("temperature", temperature, 2)
+                .field("humidity", humidity, 2)
+                .field("timestamp", System.currentTimeMillis())
+                .endObject()
+                .toJson();
     }
 }
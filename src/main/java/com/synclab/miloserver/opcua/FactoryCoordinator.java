@@ -0,0 +1,58 @@
+package com.synclab.miloserver.opcua;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 한 공장 안 라인들 사이의 작업 공유 (milo.factory.work.sharing=true 일 때만 생성).
+ * 각 라인 이벤트 루프가 stage 별 여유 설비 수(대기 tray 가 없고 ready 인 설비)를 알려 두면,
+ * tray 가 밀린 라인은 같은 stage 번호/설비 유형의 여유가 있는 형제 라인을 골라 tray 를 빌려준다.
+ * 빌려준 tray 는 그 stage 가공이 끝나면 원래 라인으로 돌아가 다음 stage 로 진행한다.
+ * 라인 상태는 각 라인 이벤트 루프가 소유하므로 여기서는 여유 수치만 보관하고 라인 사이 전달은 이벤트로 한다.
+ */
+final class FactoryCoordinator {
+
+    static final boolean ENABLED = Boolean.getBoolean("milo.factory.work.sharing");
+
+    // 라인 → stage 번호 → 여유
+    private final Map<ProductionLineController, Map<Integer, StageCapacity>> capacities = new LinkedHashMap<>();
+
+    private record StageCapacity(String unitType, int idleMachines) {
+    }
+
+    synchronized void register(ProductionLineController line) {
+        capacities.putIfAbsent(line, new HashMap<>());
+    }
+
+    /** 라인 이벤트 루프에서 호출한다. */
+    synchronized void publishIdle(ProductionLineController line, int stageNo, String unitType, int idleMachines) {
+        capacities.computeIfAbsent(line, key -> new HashMap<>())
+                .put(stageNo, new StageCapacity(unitType, idleMachines));
+    }
+
+    /**
+     * requester 를 제외하고 같은 stage/설비 유형에 여유가 있는 라인을 하나 골라 여유를 하나 차감한다.
+     * 차감은 해당 라인이 다음에 여유를 다시 알릴 때까지 유지되어 같은 설비에 tray 가 겹쳐 몰리지 않는다.
+     */
+    synchronized ProductionLineController reserve(ProductionLineController requester, int stageNo, String unitType) {
+        ProductionLineController best = null;
+        int bestIdle = 0;
+        for (Map.Entry<ProductionLineController, Map<Integer, StageCapacity>> entry : capacities.entrySet()) {
+            if (entry.getKey() == requester) {
+                continue;
+            }
+            StageCapacity capacity = entry.getValue().get(stageNo);
+            if (capacity != null && capacity.idleMachines() > bestIdle
+                    && Objects.equals(capacity.unitType(), unitType)) {
+                best = entry.getKey();
+                bestIdle = capacity.idleMachines();
+            }
+        }
+        if (best != null) {
+            capacities.get(best).put(stageNo, new StageCapacity(unitType, bestIdle - 1));
+        }
+        return best;
+    }
+}
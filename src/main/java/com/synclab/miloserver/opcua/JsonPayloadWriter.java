@@ -0,0 +1,269 @@
+package com.synclab.miloserver.opcua;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * ng_event_payload, alarm_event_payload, order_summary_payload 등 telemetry JSON payload 전용 경량 writer.
+ * 스레드마다 하나의 StringBuilder 를 재사용하고(thread-confined), 숫자는 String.format 없이 직접 기록하며(반올림 경계 값만 BigDecimal),
+ * 문자열은 RFC 8259 규칙에 따라 완전히 escape 한다.
+ *
+ * <pre>
+ * String payload = JsonPayloadWriter.acquire()
+ *         .beginObject()
+ *         .field("order_no", orderNo)
+ *         .field("ng_qty", ngQty)
+ *         .endObject()
+ *         .toJson();
+ * </pre>
+ * acquire() 로 얻은 writer 는 toJson() 을 호출하기 전까지 다른 payload 생성 코드로 넘기지 않는다.
+ */
+public final class JsonPayloadWriter {
+
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_DEPTH = 63;
+    private static final int MAX_FIXED_SCALE = 9;
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<JsonPayloadWriter> LOCAL = ThreadLocal.withInitial(JsonPayloadWriter::new);
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+    // depth 별 "이미 원소를 하나 이상 썼는가" 비트
+    private long elementWritten = 0L;
+    private int depth = 0;
+    private boolean afterName = false;
+
+    private JsonPayloadWriter() {
+    }
+
+    /** 현재 스레드의 writer 를 비운 상태로 반환한다. */
+    public static JsonPayloadWriter acquire() {
+        JsonPayloadWriter writer = LOCAL.get();
+        writer.reset();
+        return writer;
+    }
+
+    private void reset() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        } else {
+            buffer.setLength(0);
+        }
+        elementWritten = 0L;
+        depth = 0;
+        afterName = false;
+    }
+
+    public JsonPayloadWriter beginObject() {
+        beforeValue();
+        buffer.append('{');
+        push();
+        return this;
+    }
+
+    public JsonPayloadWriter endObject() {
+        pop();
+        buffer.append('}');
+        return this;
+    }
+
+    public JsonPayloadWriter beginArray() {
+        beforeValue();
+        buffer.append('[');
+        push();
+        return this;
+    }
+
+    public JsonPayloadWriter endArray() {
+        pop();
+        buffer.append(']');
+        return this;
+    }
+
+    public JsonPayloadWriter name(String name) {
+        separate();
+        buffer.append('"');
+        appendEscaped(buffer, name);
+        buffer.append('"').append(':');
+        afterName = true;
+        return this;
+    }
+
+    /** null 은 빈 문자열("")로 기록한다. 기존 payload 들이 null 대신 ""를 내보내던 규약을 따른다. */
+    public JsonPayloadWriter value(CharSequence value) {
+        beforeValue();
+        buffer.append('"');
+        appendEscaped(buffer, value);
+        buffer.append('"');
+        return this;
+    }
+
+    public JsonPayloadWriter value(long value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    public JsonPayloadWriter value(boolean value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    /** 소수점 이하 scale 자리로 HALF_UP 반올림해 기록한다(BigDecimal.setScale 대체). */
+    public JsonPayloadWriter value(double value, int scale) {
+        beforeValue();
+        appendFixed(buffer, value, scale);
+        return this;
+    }
+
+    public JsonPayloadWriter nullValue() {
+        beforeValue();
+        buffer.append("null");
+        return this;
+    }
+
+    public JsonPayloadWriter field(String name, CharSequence value) {
+        return name(name).value(value);
+    }
+
+    public JsonPayloadWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    public JsonPayloadWriter field(String name, boolean value) {
+        return name(name).value(value);
+    }
+
+    public JsonPayloadWriter field(String name, double value, int scale) {
+        return name(name).value(value, scale);
+    }
+
+    public JsonPayloadWriter nullField(String name) {
+        return name(name).nullValue();
+    }
+
+    public String toJson() {
+        return buffer.toString();
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        separate();
+    }
+
+    private void separate() {
+        if (depth == 0) {
+            return;
+        }
+        long bit = 1L << (depth - 1);
+        if ((elementWritten & bit) != 0) {
+            buffer.append(',');
+        } else {
+            elementWritten |= bit;
+        }
+    }
+
+    private void push() {
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting too deep");
+        }
+        depth++;
+        elementWritten &= ~(1L << (depth - 1));
+    }
+
+    private void pop() {
+        if (depth == 0) {
+            throw new IllegalStateException("Unbalanced JSON end");
+        }
+        depth--;
+        afterName = false;
+    }
+
+    /**
+     * RFC 8259 escape: 따옴표, 역슬래시, U+0000~U+001F 제어 문자.
+     */
+    public static void appendEscaped(StringBuilder out, CharSequence value) {
+        try {
+            appendEscaped((Appendable) out, value);
+        } catch (IOException ex) {
+            // StringBuilder 는 IOException 을 던지지 않는다.
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /** Writer 등 스트리밍 출력용 escape (OrderSummaryChunks 의 시리얼 배열 직렬화에서 사용). */
+    public static void appendEscaped(Appendable out, CharSequence value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                out.append(c);
+            } else {
+                appendEscapedChar(out, c);
+            }
+        }
+    }
+
+    private static void appendEscapedChar(Appendable out, char c) throws IOException {
+        switch (c) {
+            case '"' -> out.append('\\').append('"');
+            case '\\' -> out.append('\\').append('\\');
+            case '\b' -> out.append('\\').append('b');
+            case '\f' -> out.append('\\').append('f');
+            case '\n' -> out.append('\\').append('n');
+            case '\r' -> out.append('\\').append('r');
+            case '\t' -> out.append('\\').append('t');
+            default -> out.append('\\').append('u').append('0').append('0')
+                    .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+        }
+    }
+
+    /**
+     * 고정 소수점 기록. BigDecimal.valueOf(value).setScale(scale, HALF_UP) 과 같은 결과를 내되,
+     * 반올림 경계(…5) 근처 값만 BigDecimal 로 계산한다. NaN/Infinity 는 JSON 에 표현할 수 없으므로 null 로 기록한다.
+     */
+    static void appendFixed(StringBuilder out, double value, int scale) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+            return;
+        }
+        int sanitizedScale = Math.max(0, Math.min(MAX_FIXED_SCALE, scale));
+        long factor = POW10[sanitizedScale];
+        double magnitude = Math.abs(value);
+        if (magnitude >= (double) (Long.MAX_VALUE / 10) / factor) {
+            out.append(value);
+            return;
+        }
+        double product = magnitude * factor;
+        long scaled = Math.round(product);
+        double remainder = product - Math.floor(product);
+        if (Math.abs(remainder - 0.5) <= Math.max(1e-6, 8 * Math.ulp(product))) {
+            // 반올림 경계 근처는 2진 오차로 방향이 바뀔 수 있으므로 BigDecimal.valueOf(10진 표기) 기준으로 자른다.
+            scaled = BigDecimal.valueOf(magnitude).setScale(sanitizedScale, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+        if (value < 0 && scaled != 0) {
+            out.append('-');
+        }
+        out.append(scaled / factor);
+        if (sanitizedScale > 0) {
+            out.append('.');
+            long fraction = scaled % factor;
+            for (long p = factor / 10; p > 1 && fraction < p; p /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.synclab.miloserver.opcua;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 라인 흐름 분석. ProductionLineController 이벤트 루프가 stage 의 대기/가공/막힘 tray 수가 바뀔 때마다
+ * 직전 값 × 경과 시간을 누적(시간 가중 면적)하므로 이벤트당 O(1) 이고, 지표는 snapshot 시점에만 나눗셈으로 만든다.
+ * <pre>
+ * utilization   가공 면적 / (설비 수 × 경과 시간)
+ * avg_queue     대기 면적 / 경과 시간 (시간 가중 평균 대기 tray 수 L)
+ * avg_wait_sec  대기 면적 / 도착 tray 수 (Little: W = L / λ)
+ * blocked_ratio 막힘 면적 / (설비 수 × 경과 시간)
+ * bottleneck    가동(가공) 비율이 가장 높은 stage, 같으면 평균 대기가 긴 stage (active period 기준)
+ * </pre>
+ * 창은 라인이 비어 있다가 작업지시를 받을 때 다시 시작한다. 이벤트 루프 스레드 전용이며 REST 는 snapshot 만 읽는다.
+ */
+public final class LineAnalytics {
+
+    private final Map<Integer, StageFlow> stages = new TreeMap<>();
+    private long windowStart = System.nanoTime();
+    private long completedUnits = 0L;
+
+    private static final class StageFlow {
+        final int stageNo;
+        int machines;
+        int queued;
+        int busy;
+        int blocked;
+        long lastChange;
+        // tray·ns 단위 면적
+        double queueArea;
+        double busyArea;
+        double blockedArea;
+        long arrivals;
+
+        StageFlow(int stageNo, long now) {
+            this.stageNo = stageNo;
+            this.lastChange = now;
+        }
+
+        void advance(long now) {
+            long dt = now - lastChange;
+            if (dt > 0) {
+                queueArea += (double) queued * dt;
+                busyArea += (double) busy * dt;
+                blockedArea += (double) blocked * dt;
+                lastChange = now;
+            }
+        }
+    }
+
+    void registerMachine(int stageNo) {
+        stages.computeIfAbsent(stageNo, no -> new StageFlow(no, System.nanoTime())).machines++;
+    }
+
+    /** 라인이 새로 시작할 때 누적을 비운다. 현재 tray 수는 유지한다. */
+    void reset(long now) {
+        windowStart = now;
+        completedUnits = 0L;
+        for (StageFlow flow : stages.values()) {
+            flow.lastChange = now;
+            flow.queueArea = 0.0;
+            flow.busyArea = 0.0;
+            flow.blockedArea = 0.0;
+            flow.arrivals = 0L;
+        }
+    }
+
+    void stageChanged(int stageNo, int queued, int busy, int blocked, long now) {
+        StageFlow flow = stages.get(stageNo);
+        if (flow == null) {
+            return;
+        }
+        flow.advance(now);
+        flow.queued = queued;
+        flow.busy = busy;
+        flow.blocked = blocked;
+    }
+
+    void trayArrived(int stageNo) {
+        StageFlow flow = stages.get(stageNo);
+        if (flow != null) {
+            flow.arrivals++;
+        }
+    }
+
+    /** 마지막 stage 를 통과한 OK 수량 */
+    void unitsCompleted(int units) {
+        completedUnits += Math.max(0, units);
+    }
+
+    Snapshot snapshot(long now) {
+        double elapsed = Math.max(1L, now - windowStart);
+        double elapsedSec = elapsed / 1_000_000_000.0;
+        List<StageSnapshot> stageSnapshots = new ArrayList<>(stages.size());
+        int bottleneck = 0;
+        double bottleneckUtilization = 0.0;
+        double bottleneckQueue = 0.0;
+        for (StageFlow flow : stages.values()) {
+            flow.advance(now);
+            double capacity = Math.max(1, flow.machines) * elapsed;
+            double utilization = Math.min(1.0, flow.busyArea / capacity);
+            double avgQueue = flow.queueArea / elapsed;
+            double avgWaitSec = flow.arrivals == 0 ? 0.0 : flow.queueArea / flow.arrivals / 1_000_000_000.0;
+            double blockedRatio = Math.min(1.0, flow.blockedArea / capacity);
+            stageSnapshots.add(new StageSnapshot(flow.stageNo, flow.machines, flow.queued, utilization,
+                    avgQueue, avgWaitSec, blockedRatio, flow.arrivals));
+            if (utilization > bottleneckUtilization
+                    || (utilization > 0.0 && utilization == bottleneckUtilization && avgQueue > bottleneckQueue)) {
+                bottleneck = flow.stageNo;
+                bottleneckUtilization = utilization;
+                bottleneckQueue = avgQueue;
+            }
+        }
+        double throughputUpm = completedUnits * 60.0 / elapsedSec;
+        double cycleTimeSec = completedUnits == 0 ? 0.0 : elapsedSec / completedUnits;
+        return new Snapshot(System.currentTimeMillis(), elapsedSec, completedUnits, throughputUpm, cycleTimeSec,
+                bottleneck, Collections.unmodifiableList(stageSnapshots));
+    }
+
+    public static final class Snapshot {
+        private final long capturedAt;
+        private final double windowSec;
+        private final long completedUnits;
+        private final double throughputUpm;
+        private final double cycleTimeSec;
+        private final int bottleneckStage;
+        private final List<StageSnapshot> stages;
+
+        private Snapshot(long capturedAt,
+                         double windowSec,
+                         long completedUnits,
+                         double throughputUpm,
+                         double cycleTimeSec,
+                         int bottleneckStage,
+                         List<StageSnapshot> stages) {
+            this.capturedAt = capturedAt;
+            this.windowSec = windowSec;
+            this.completedUnits = completedUnits;
+            this.throughputUpm = throughputUpm;
+            this.cycleTimeSec = cycleTimeSec;
+            this.bottleneckStage = bottleneckStage;
+            this.stages = stages;
+        }
+
+        static Snapshot empty() {
+            return new Snapshot(System.currentTimeMillis(), 0.0, 0L, 0.0, 0.0, 0, List.of());
+        }
+
+        public long getCapturedAt() {
+            return capturedAt;
+        }
+
+        public double getWindowSec() {
+            return windowSec;
+        }
+
+        public long getCompletedUnits() {
+            return completedUnits;
+        }
+
+        /** 마지막 stage OK 수량 기준 분당 처리량 */
+        public double getThroughputUpm() {
+            return throughputUpm;
+        }
+
+        /** 라인 출력 기준 유효 cycle time (초/개) */
+        public double getCycleTimeSec() {
+            return cycleTimeSec;
+        }
+
+        /** 0 이면 아직 가동한 stage 가 없다. */
+        public int getBottleneckStage() {
+            return bottleneckStage;
+        }
+
+        public List<StageSnapshot> getStages() {
+            return stages;
+        }
+    }
+
+    public static final class StageSnapshot {
+        private final int stageNo;
+        private final int machines;
+        private final int queued;
+        private final double utilization;
+        private final double avgQueue;
+        private final double avgWaitSec;
+        private final double blockedRatio;
+        private final long arrivals;
+
+        private StageSnapshot(int stageNo,
+                              int machines,
+                              int queued,
+                              double utilization,
+                              double avgQueue,
+                              double avgWaitSec,
+                              double blockedRatio,
+                              long arrivals) {
+            this.stageNo = stageNo;
+            this.machines = machines;
+            this.queued = queued;
+            this.utilization = utilization;
+            this.avgQueue = avgQueue;
+            this.avgWaitSec = avgWaitSec;
+            this.blockedRatio = blockedRatio;
+            this.arrivals = arrivals;
+        }
+
+        public int getStageNo() {
+            return stageNo;
+        }
+
+        public int getMachines() {
+            return machines;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public double getUtilization() {
+            return utilization;
+        }
+
+        public double getAvgQueue() {
+            return avgQueue;
+        }
+
+        public double getAvgWaitSec() {
+            return avgWaitSec;
+        }
+
+        public double getBlockedRatio() {
+            return blockedRatio;
+        }
+
+        public long getArrivals() {
+            return arrivals;
+        }
+    }
+}
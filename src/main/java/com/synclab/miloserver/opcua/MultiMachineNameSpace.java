@@ -8,8 +8,11 @@ import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.DataItem;
 import org.eclipse.milo.opcua.sdk.server.api.ManagedNamespaceWithLifecycle;
 import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.api.NodeManager;
 import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
@@ -23,7 +26,9 @@ import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
 
 import com.synclab.miloserver.machine.mainFactory.cylindricalLine.assemblyUnit3rd.AssemblyUnit01;
 import com.synclab.miloserver.machine.mainFactory.cylindricalLine.assemblyUnit3rd.AssemblyUnit02;
@@ -45,9 +50,25 @@ import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 /**
  * 공장/라인/설비 계층 구조와 각 UnitLogic의 telemetry 노드를 한 번에 구성하는 핵심 네임스페이스.
@@ -58,13 +79,49 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
     private static MultiMachineNameSpace instance;
     private final OpcUaServer server;
     private final SubscriptionModel subscriptionModel;
-    private final AtomicInteger nodeCounter = new AtomicInteger(1);
     private final UaFolderNode rootFolder;
-    private final List<UnitLogic> machines = new ArrayList<>();
-    private final List<EnvironmentProbe> environmentProbes = new ArrayList<>();
-    private final List<ProductionLineController> lineControllers = new ArrayList<>();
+    private final List<UnitLogic> machines = new CopyOnWriteArrayList<>();
+    private final List<EnvironmentProbe> environmentProbes = new CopyOnWriteArrayList<>();
+    private final List<ProductionLineController> lineControllers = new CopyOnWriteArrayList<>();
     private final Map<String, ProductionLineController> lineControllersByKey = new ConcurrentHashMap<>();
     private final Map<String, UaVariableNode> commandNodes = new ConcurrentHashMap<>();
+    // TagClass 의 publish 빈도 제한 대상(coalesced) 노드만 등록된다.
+    private final Map<NodeId, PublishGate> publishGates = new ConcurrentHashMap<>();
+    private final Queue<PublishGate> deferredPublishes = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService publishFlusher =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "telemetry-publish-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final long PUBLISH_FLUSH_INTERVAL_MS = 100L;
+    // TagClass.CONSTANT 노드: 캐시된 DataValue 와 이를 구독 중인 Value data item 목록
+    private final Map<NodeId, ConstantTag> constantTags = new ConcurrentHashMap<>();
+    // 노드별로 Value 를 샘플링 중인 monitored item 수와, telemetry 노드 → 소유 설비 매핑
+    private final Map<NodeId, AtomicInteger> observedItemCounts = new ConcurrentHashMap<>();
+    private final Set<MonitoredItem> observingItems = ConcurrentHashMap.newKeySet();
+    private final Map<NodeId, UnitLogic> telemetryOwners = new ConcurrentHashMap<>();
+    // 읽기 시점에 계산하는 lazy 노드 (값 변화 통지가 없어 SSE 는 frame 마다 직접 읽는다)
+    private final Set<NodeId> lazyNodes = ConcurrentHashMap.newKeySet();
+    // 공장 단위 병렬 구성: 스레드별 일괄 등록 대기 노드/참조
+    private final ThreadLocal<AddressSpaceBatch> activeBatch = new ThreadLocal<>();
+    // 경로 기반 NodeId 중복 검사용 (구성 시점)
+    private final Set<NodeId> allocatedNodeIds = ConcurrentHashMap.newKeySet();
+    private static final char PATH_SEPARATOR = '/';
+    // 변수 노드 canonical path(factory.line.machine.tag) 인덱스
+    private final TagRegistry tagRegistry = new TagRegistry();
+    // 설비 serial 별 공정 측정값 (설비 유형 × 작업지시)
+    private final ProcessMeasurementStore measurementStore = new ProcessMeasurementStore();
+    // 라인/설비 상태 파일 저장·복원 (milo.snapshot.file)
+    private final SimulationSnapshotStore snapshotStore = new SimulationSnapshotStore(this);
+    // 설비 tick 은 read lock, bulk snapshot/write 는 write lock: 어떤 설비도 tick 도중이 아닌 시점의 값을 한 번에 읽고 쓴다.
+    private final ReentrantReadWriteLock tickLock = new ReentrantReadWriteLock();
+    // updateValue 로 실제 반영된 값 변화 구독자 (SSE 스트림 등)
+    private final List<ValueChangeListener> valueChangeListeners = new CopyOnWriteArrayList<>();
+    // 서버 내부(REST 등) 읽기/쓰기용 세션 없는 AttributeContext
+    private final AttributeContext internalContext;
+    private volatile long addressSpaceBuildMillis = -1L;
+    private final AtomicInteger addressSpaceNodeCount = new AtomicInteger();
 
     private enum LineVariant {
         CYLINDRICAL,
@@ -146,7 +203,21 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
         super(server, namespaceUri);
         this.server = server;
         this.subscriptionModel = new SubscriptionModel(server, this);
+        this.internalContext = new AttributeContext(server);
         getLifecycleManager().addLifecycle(subscriptionModel);
+        getLifecycleManager().addStartupTask(() -> publishFlusher.scheduleWithFixedDelay(
+                this::flushDeferredPublishes,
+                PUBLISH_FLUSH_INTERVAL_MS,
+                PUBLISH_FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS
+        ));
+        getLifecycleManager().addShutdownTask(publishFlusher::shutdownNow);
+        getLifecycleManager().addShutdownTask(() -> {
+            // 마지막 snapshot 은 라인 이벤트 루프가 있어야 읽을 수 있으므로 task 실행 순서에 기대지 않고 루프를 멈추기 직전에 저장한다.
+            snapshotStore.shutdown();
+            lineControllers.forEach(ProductionLineController::shutdown);
+        });
+        getLifecycleManager().addShutdownTask(measurementStore::close);
 //        instance = this;
 
         UShort nsIdx = getNamespaceIndex();
@@ -161,11 +232,29 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
 
         // Node 등록
         getNodeContext().getNodeManager().addNode(rootFolder);
+        allocatedNodeIds.add(rootFolder.getNodeId());
 
     }
 
-    public synchronized int nextNodeId() {
-        return nodeCounter.getAndIncrement();
+    /**
+     * 부모 경로 + browse name 의 마지막 토큰으로 문자열 NodeId 를 만든다.
+     * 예) Machines/F0001/CL0001/ElectrodeUnit01 아래 "ElectrodeUnit01.state" → "F0001/CL0001/ElectrodeUnit01/state"
+     * 구성 순서나 태그 추가와 무관하게 같은 경로는 항상 같은 NodeId 가 되므로, 클라이언트가 재기동 후에도 핸들을 재사용할 수 있다.
+     * 같은 경로가 두 번 만들어지면 IllegalStateException 으로 구성을 중단한다.
+     */
+    public NodeId pathNodeId(UaFolderNode parent, String browseName) {
+        String segment = browseName.substring(browseName.lastIndexOf('.') + 1);
+        if (segment.isEmpty() || segment.indexOf(PATH_SEPARATOR) >= 0) {
+            throw new IllegalArgumentException("Invalid browse name for NodeId path: " + browseName);
+        }
+        String path = parent == rootFolder
+                ? segment
+                : parent.getNodeId().getIdentifier() + String.valueOf(PATH_SEPARATOR) + segment;
+        NodeId nodeId = new NodeId(getNamespaceIndex(), path);
+        if (!allocatedNodeIds.add(nodeId)) {
+            throw new IllegalStateException("Duplicate NodeId path: " + path + " (browse name " + browseName + ")");
+        }
+        return nodeId;
     }
 
     public void publishInitial(UaVariableNode node) {
@@ -215,23 +304,171 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 ))
         );
 
-        for (FactoryProfile factory : factories) {
-            initializeFactory(factory);
-        }
+        long started = System.nanoTime();
+        buildFactoriesInParallel(factories);
+        addressSpaceBuildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        // 재기동이면 initializeNodes 가 끝나기(준비 완료) 전에 작업지시/tray/카운터를 되살린다.
+        snapshotStore.restore();
+        snapshotStore.startPeriodic();
 
         environmentProbes.forEach(EnvironmentProbe::start);
 
-        System.out.println("[MultiMachineNameSpace] Machines initialized successfully.");
+        System.out.printf("[MultiMachineNameSpace] Machines initialized successfully: factories=%d, machines=%d, nodes=%d, build=%d ms%n",
+                factories.size(),
+                machines.size(),
+                addressSpaceNodeCount.get(),
+                addressSpaceBuildMillis);
         System.out.println("[MultiMachineNameSpace] ObjectsFolder initialized successfully.");
         System.out.println("[DEBUG] namespace index: " + getNamespaceIndex());
 
     }
 
+    /**
+     * 공장마다 별도 스레드에서 노드를 만든다. NodeId 는 경로 기반(pathNodeId)이라 실행 순서와 무관하게 같은 값이 나오고,
+     * 노드/참조는 공장 구성이 끝난 뒤 NodeManager 에 한 번에 등록된다.
+     */
+    private void buildFactoriesInParallel(List<FactoryProfile> factories) {
+        int threads = Math.max(1, Math.min(factories.size(), Runtime.getRuntime().availableProcessors()));
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService builders = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "address-space-builder-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<CompletableFuture<Void>> builds = new ArrayList<>(factories.size());
+            for (FactoryProfile factory : factories) {
+                builds.add(CompletableFuture.runAsync(() -> buildFactory(factory), builders));
+            }
+            CompletableFuture.allOf(builds.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("Address space build failed", ex.getCause());
+        } finally {
+            builders.shutdown();
+        }
+    }
+
+    private void buildFactory(FactoryProfile factoryProfile) {
+        AddressSpaceBatch batch = new AddressSpaceBatch();
+        activeBatch.set(batch);
+        try {
+            initializeFactory(factoryProfile);
+        } finally {
+            activeBatch.remove();
+        }
+        batch.commit();
+    }
+
+    public TagRegistry getTagRegistry() {
+        return tagRegistry;
+    }
+
+    public ProcessMeasurementStore getMeasurementStore() {
+        return measurementStore;
+    }
+
+    public SimulationSnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    public List<ProductionLineController> getLineControllers() {
+        return lineControllers;
+    }
+
+    /** NodeId 경로 "F0001/CL0001/ElectrodeUnit01/state" → TagRegistry 경로 "F0001.CL0001.ElectrodeUnit01.state" */
+    public static String tagPath(NodeId nodeId) {
+        return String.valueOf(nodeId.getIdentifier()).replace(PATH_SEPARATOR, TagRegistry.SEPARATOR);
+    }
+
+    /**
+     * 서버 내부(REST/SSE) 읽기용 현재 Value. lazy/CONSTANT 노드는 AttributeDelegate 가 값을 만들므로
+     * node.getValue() 가 아니라 getAttribute 경로로 읽는다.
+     * 구독이 없어 계산을 미뤄 둔(elided) telemetry 는 지금 계산하고, publish 간격 때문에 미뤄 둔 값이 있으면 그 값을 돌려준다.
+     */
+    public DataValue readValue(UaVariableNode node) {
+        UnitLogic owner = telemetryOwners.get(node.getNodeId());
+        if (owner != null) {
+            owner.materializeElidedTelemetry(this, node.getNodeId());
+        }
+        PublishGate gate = publishGates.get(node.getNodeId());
+        if (gate != null) {
+            Optional<Object> pending = gate.pending();
+            if (pending.isPresent()) {
+                return new DataValue(new Variant(pending.get()), StatusCode.GOOD, DateTime.now(), DateTime.now());
+            }
+        }
+        return node.getAttribute(internalContext, AttributeId.Value);
+    }
+
+    /** 읽기 시점에 값을 계산하는 lazy 노드인지. ValueChangeListener 로 변화가 전달되지 않는다. */
+    public boolean isLazy(UaVariableNode node) {
+        return lazyNodes.contains(node.getNodeId());
+    }
+
+    /**
+     * monitored item 이 아닌 구독자(SSE 스트림 등)가 Value 를 받기 시작/그만둘 때 호출한다.
+     * OPC 구독과 같은 관측 수로 세므로 설비가 생략하던 telemetry 를 다시 계산한다.
+     */
+    public void observe(NodeId nodeId, boolean observing) {
+        adjustObservation(nodeId, observing ? 1 : -1, observing);
+    }
+
+    /**
+     * 외부(REST) 쓰기. OPC UA Write 와 같은 setAttribute 경로를 타므로 command 노드의 delegate 도 그대로 동작한다.
+     */
+    public void writeAttributeValue(UaVariableNode node, Object value) throws UaException {
+        node.setAttribute(
+                internalContext,
+                AttributeId.Value,
+                new DataValue(new Variant(value), StatusCode.GOOD, DateTime.now(), DateTime.now())
+        );
+        // 게이트/캐시가 직접 쓴 값을 모르면 이후 같은 값 갱신을 "변화 없음" 으로 버린다.
+        ConstantTag constant = constantTags.get(node.getNodeId());
+        if (constant != null) {
+            constant.update(node, value);
+        }
+        PublishGate gate = publishGates.get(node.getNodeId());
+        if (gate != null) {
+            gate.written(value, System.currentTimeMillis());
+        }
+        fireValueChanged(node, value);
+    }
+
+    /** 설비 simulation tick 한 번을 실행한다. bulk snapshot/write 와는 서로 배타적이다. */
+    public void runTick(Runnable tick) {
+        tickLock.readLock().lock();
+        try {
+            tick.run();
+        } finally {
+            tickLock.readLock().unlock();
+        }
+    }
+
+    /** 진행 중인 tick 이 끝나기를 기다린 뒤, 새 tick 이 시작되지 않는 동안 action 을 실행한다. */
+    public <T> T betweenTicks(Supplier<T> action) {
+        tickLock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            tickLock.writeLock().unlock();
+        }
+    }
+
+    public long getAddressSpaceBuildMillis() {
+        return addressSpaceBuildMillis;
+    }
+
+    public int getAddressSpaceNodeCount() {
+        return addressSpaceNodeCount.get();
+    }
+
     private void initializeFactory(FactoryProfile factoryProfile) {
         UaFolderNode factoryFolder = addFolder(rootFolder, factoryProfile.factoryCode);
         registerEnvironmentProbe(factoryProfile, factoryFolder);
+        FactoryCoordinator coordinator = FactoryCoordinator.ENABLED ? new FactoryCoordinator() : null;
         for (LineProfile profile : factoryProfile.lines) {
-            initializeLine(factoryFolder, factoryProfile.factoryCode, profile);
+            initializeLine(factoryFolder, factoryProfile.factoryCode, profile, coordinator);
         }
     }
 
@@ -246,7 +483,10 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
         environmentProbes.add(probe);
     }
 
-    private void initializeLine(UaFolderNode factoryFolder, String factoryCode, LineProfile profile) {
+    private void initializeLine(UaFolderNode factoryFolder,
+                                String factoryCode,
+                                LineProfile profile,
+                                FactoryCoordinator coordinator) {
         UaFolderNode lineFolder = addFolder(factoryFolder, profile.lineCode);
         ProductionLineController lineController = new ProductionLineController(
                 this,
@@ -254,6 +494,9 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 lineFolder
         );
         registerLineController(factoryCode, profile.lineCode, lineController);
+        if (coordinator != null) {
+            lineController.joinFactory(coordinator);
+        }
 
         registerLineMachines(profile, lineFolder, lineController);
     }
@@ -560,9 +803,70 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
         return profile.legacyMachineNames ? baseName : profile.lineId + "." + baseName;
     }
 
-    /** 변수 노드 생성 */
+    /** 변수 노드 생성 (TagClass.EVENT) */
     public UaVariableNode addVariableNode(UaFolderNode parent, String name, Object initialValue) {
-        NodeId nodeId = new NodeId(getNamespaceIndex(), nextNodeId());
+        return addVariableNode(parent, name, initialValue, TagClass.EVENT);
+    }
+
+    /** 변수 노드 생성. tagClass 에 따라 MinimumSamplingInterval 과 publish 빈도 제한이 정해진다. */
+    public UaVariableNode addVariableNode(UaFolderNode parent, String name, Object initialValue, TagClass tagClass) {
+        EnumSet<AccessLevel> accessLevel = tagClass.isConstant()
+                ? EnumSet.of(AccessLevel.CurrentRead)
+                : EnumSet.of(AccessLevel.CurrentRead, AccessLevel.CurrentWrite);
+        UaVariableNode node = buildVariableNode(parent, name, initialValue, tagClass, accessLevel);
+        if (tagClass.isCoalesced()) {
+            publishGates.put(node.getNodeId(), new PublishGate(node, tagClass.getMinPublishIntervalMs(), initialValue));
+        } else if (tagClass.isConstant()) {
+            registerConstantTag(node);
+        }
+        return node;
+
+//        getNodeContext().getNodeManager().addNode(node);
+
+//        parent.addReference(new Reference(
+//                parent.getNodeId(),
+//                Identifiers.Organizes,
+//                node.getNodeId().expanded(),
+//                true
+//        ));
+
+//        System.out.println("[DEBUG] " + name + " DT=" + node.getDataType() +
+//                " Value=" + node.getValue().getValue() +
+//                " SC=" + node.getValue().getStatusCode());
+
+    }
+
+    /**
+     * 읽기 시점에 값을 계산하는 lazy 변수 노드 생성.
+     * 값은 epoch(설비 tick/변경 카운터)가 바뀔 때만 다시 계산되어, 같은 epoch 안의 읽기/샘플링은 같은 DataValue 를 공유한다.
+     * updateValue 대상이 아니며, 구독자가 샘플링할 때만 값이 만들어진다.
+     */
+    public UaVariableNode addLazyVariableNode(UaFolderNode parent,
+                                              String name,
+                                              TagClass tagClass,
+                                              LongSupplier epoch,
+                                              Supplier<Object> source) {
+        UaVariableNode node = buildVariableNode(parent, name, source.get(), tagClass, EnumSet.of(AccessLevel.CurrentRead));
+        LazyValue lazyValue = new LazyValue(epoch, source);
+        lazyNodes.add(node.getNodeId());
+        node.setAttributeDelegate(new AttributeDelegate() {
+            @Override
+            public DataValue getAttribute(AttributeContext context, UaNode node, AttributeId attributeId) {
+                if (attributeId == AttributeId.Value) {
+                    return lazyValue.get();
+                }
+                return AttributeDelegate.super.getAttribute(context, node, attributeId);
+            }
+        });
+        return node;
+    }
+
+    private UaVariableNode buildVariableNode(UaFolderNode parent,
+                                             String name,
+                                             Object initialValue,
+                                             TagClass tagClass,
+                                             EnumSet<AccessLevel> accessLevel) {
+        NodeId nodeId = pathNodeId(parent, name);
 
         UaVariableNode node = UaVariableNode.builder(getNodeContext())
                 .setNodeId(nodeId)
@@ -570,9 +874,9 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 .setDisplayName(LocalizedText.english(name))
                 .setTypeDefinition(Identifiers.BaseDataVariableType)
                 .setValueRank(ValueRanks.Scalar)
-                .setMinimumSamplingInterval(100.0)
-                .setAccessLevel(AccessLevel.toValue(EnumSet.of(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
-                .setUserAccessLevel(AccessLevel.toValue(EnumSet.of(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
+                .setMinimumSamplingInterval(tagClass.getMinimumSamplingInterval())
+                .setAccessLevel(AccessLevel.toValue(accessLevel))
+                .setUserAccessLevel(AccessLevel.toValue(accessLevel))
                 .setDataType(dataTypeIdFor(initialValue))                    // ← 지정
                 .setValue(new DataValue(new Variant(initialValue)))
                 .build();
@@ -580,42 +884,317 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
         // 초기값
         node.setValue(new DataValue(new Variant(initialValue), StatusCode.GOOD, DateTime.now(), DateTime.now()));
 
-        getNodeContext().getNodeManager().addNode(node);
-        parent.addReference(new Reference(parent.getNodeId(), Identifiers.Organizes, node.getNodeId().expanded(), true));
+        addChildNode(parent, node);
         publishInitial(node);
-        System.out.printf("[Telemetry-Init] %s = %s%n", name, String.valueOf(initialValue));
         return node;
+    }
 
-//        getNodeContext().getNodeManager().addNode(node);
-
-//        parent.addReference(new Reference(
-//                parent.getNodeId(),
-//                Identifiers.Organizes,
-//                node.getNodeId().expanded(),
-//                true
-//        ));
-
-//        System.out.println("[DEBUG] " + name + " DT=" + node.getDataType() +
-//                " Value=" + node.getValue().getValue() +
-//                " SC=" + node.getValue().getStatusCode());
+    /** 1차원 배열 변수 노드 생성 (IndexRange 부분 읽기 대상) */
+    public UaVariableNode addArrayVariableNode(UaFolderNode parent, String name, NodeId dataType, Object[] initialValue) {
+        UaVariableNode node = UaVariableNode.builder(getNodeContext())
+                .setNodeId(pathNodeId(parent, name))
+                .setBrowseName(new QualifiedName(getNamespaceIndex(), name))
+                .setDisplayName(LocalizedText.english(name))
+                .setTypeDefinition(Identifiers.BaseDataVariableType)
+                .setValueRank(ValueRanks.OneDimension)
+                .setArrayDimensions(new UInteger[]{uint(0)})
+                .setMinimumSamplingInterval(100.0)
+                .setAccessLevel(AccessLevel.toValue(EnumSet.of(AccessLevel.CurrentRead)))
+                .setUserAccessLevel(AccessLevel.toValue(EnumSet.of(AccessLevel.CurrentRead)))
+                .setDataType(dataType)
+                .setValue(new DataValue(new Variant(initialValue), StatusCode.GOOD, DateTime.now(), DateTime.now()))
+                .build();
 
+        addChildNode(parent, node);
+        return node;
     }
 
     public UaFolderNode addFolder(UaFolderNode parent, String folderName) {
         UaFolderNode folder = new UaFolderNode(
                 getNodeContext(),
-                new NodeId(getNamespaceIndex(), nextNodeId()),
+                pathNodeId(parent, folderName),
                 new QualifiedName(getNamespaceIndex(), folderName),
                 LocalizedText.english(folderName)
         );
-        getNodeContext().getNodeManager().addNode(folder);
-        parent.addReference(new Reference(parent.getNodeId(), Identifiers.Organizes, folder.getNodeId().expanded(), true));
+        addChildNode(parent, folder);
         return folder;
     }
 
+    /**
+     * 명령 Method 노드를 부모 폴더 아래 HasComponent 로 붙인다. 입력 인자 property 는 Milo 가 노드 생성 시 함께 등록한다.
+     * name 은 변수 노드와 같은 규칙의 browse name(예: "ElectrodeUnit01.StartOrder")이다.
+     */
+    UaMethodNode addMethodNode(UaFolderNode parent,
+                               String name,
+                               String description,
+                               Argument[] inputArguments,
+                               CommandMethods.Invoker invoker) {
+        UaMethodNode node = UaMethodNode.builder(getNodeContext())
+                .setNodeId(pathNodeId(parent, name))
+                .setBrowseName(new QualifiedName(getNamespaceIndex(), name))
+                .setDisplayName(LocalizedText.english(name))
+                .setDescription(LocalizedText.english(description))
+                .setExecutable(true)
+                .setUserExecutable(true)
+                .build();
+        CommandMethods.Handler handler = new CommandMethods.Handler(node, inputArguments, invoker);
+        if (inputArguments.length > 0) {
+            node.setInputArguments(inputArguments);
+        }
+        node.setInvocationHandler(handler);
+        addChildNode(parent, node, Identifiers.HasComponent);
+        return node;
+    }
+
+    /** 부모 폴더 아래 Organizes 로 노드를 붙인다. 병렬 구성 중이면 공장 batch 에 모아 두었다가 한 번에 등록한다. */
+    private void addChildNode(UaFolderNode parent, UaNode node) {
+        addChildNode(parent, node, Identifiers.Organizes);
+    }
+
+    private void addChildNode(UaFolderNode parent, UaNode node, NodeId referenceTypeId) {
+        Reference reference = new Reference(parent.getNodeId(), referenceTypeId, node.getNodeId().expanded(), true);
+        addressSpaceNodeCount.incrementAndGet();
+        if (node instanceof UaVariableNode variableNode) {
+            tagRegistry.register(tagPath(node.getNodeId()), variableNode);
+        }
+        AddressSpaceBatch batch = activeBatch.get();
+        if (batch != null) {
+            batch.add(node, reference);
+            return;
+        }
+        getNodeContext().getNodeManager().addNode(node);
+        parent.addReference(reference);
+    }
+
+    /** 공장 하나를 구성하는 동안 모아 두는 등록 대기 목록 (구성 스레드 전용) */
+    private final class AddressSpaceBatch {
+        private final List<UaNode> nodes = new ArrayList<>();
+        private final List<Reference> references = new ArrayList<>();
+
+        private void add(UaNode node, Reference reference) {
+            nodes.add(node);
+            references.add(reference);
+        }
+
+        private void commit() {
+            NodeManager<UaNode> nodeManager = getNodeContext().getNodeManager();
+            nodes.forEach(nodeManager::addNode);
+            references.forEach(reference -> nodeManager.addReferences(reference, getServer().getNamespaceTable()));
+        }
+    }
+
+    private void registerConstantTag(UaVariableNode node) {
+        ConstantTag constant = new ConstantTag(node.getValue());
+        constantTags.put(node.getNodeId(), constant);
+        node.setAttributeDelegate(new AttributeDelegate() {
+            @Override
+            public DataValue getAttribute(AttributeContext context, UaNode node, AttributeId attributeId) {
+                if (attributeId == AttributeId.Value) {
+                    return constant.value;
+                }
+                return AttributeDelegate.super.getAttribute(context, node, attributeId);
+            }
+        });
+    }
+
+    /**
+     * 노드 값이 실제로 바뀔 때 호출되는 리스너. TagClass 의 publish 제한(PublishGate)을 거친 뒤의 값이 전달되며,
+     * 설비 tick 스레드에서 호출되므로 구현은 짧게 끝나야 한다. lazy 노드는 읽기 시점에 계산되므로 전달되지 않는다.
+     */
+    @FunctionalInterface
+    public interface ValueChangeListener {
+        void onValueChanged(UaVariableNode node, Object value);
+    }
+
+    public void addValueChangeListener(ValueChangeListener listener) {
+        valueChangeListeners.add(listener);
+    }
+
+    public void removeValueChangeListener(ValueChangeListener listener) {
+        valueChangeListeners.remove(listener);
+    }
+
+    private void fireValueChanged(UaVariableNode node, Object value) {
+        if (valueChangeListeners.isEmpty()) {
+            return;
+        }
+        for (ValueChangeListener listener : valueChangeListeners) {
+            listener.onValueChanged(node, value);
+        }
+    }
+
     /** 값 갱신 및 구독자 알림 */
     public void updateValue(UaVariableNode node, Object newValue) {
+        ConstantTag constant = constantTags.get(node.getNodeId());
+        if (constant != null) {
+            if (constant.update(node, newValue)) {
+                fireValueChanged(node, newValue);
+            }
+            return;
+        }
+        PublishGate gate = publishGates.get(node.getNodeId());
+        if (gate != null) {
+            gate.offer(newValue, System.currentTimeMillis());
+            return;
+        }
+        writeValue(node, newValue);
+    }
+
+    private void writeValue(UaVariableNode node, Object newValue) {
         node.setValue(new DataValue(new Variant(newValue), StatusCode.GOOD, DateTime.now(), DateTime.now()));
+        fireValueChanged(node, newValue);
+    }
+
+    private void flushDeferredPublishes() {
+        long now = System.currentTimeMillis();
+        int pending = deferredPublishes.size();
+        for (int i = 0; i < pending; i++) {
+            PublishGate gate = deferredPublishes.poll();
+            if (gate == null) {
+                break;
+            }
+            if (!gate.flush(now)) {
+                deferredPublishes.add(gate);
+            }
+        }
+    }
+
+    /**
+     * TagClass.CONSTANT 노드의 캐시. 값이 바뀌는 일은 드물지만, 바뀌면 캐시를 교체하고 구독 중인 item 에 직접 통지한다.
+     */
+    private static final class ConstantTag {
+        private volatile DataValue value;
+        private final Set<DataItem> items = ConcurrentHashMap.newKeySet();
+
+        private ConstantTag(DataValue value) {
+            this.value = value;
+        }
+
+        private synchronized boolean update(UaVariableNode node, Object newValue) {
+            if (Objects.equals(value.getValue().getValue(), newValue)) {
+                return false;
+            }
+            value = new DataValue(new Variant(newValue), StatusCode.GOOD, DateTime.now(), DateTime.now());
+            node.setValue(value);
+            items.forEach(item -> item.setValue(value));
+            return true;
+        }
+    }
+
+    /** lazy 노드의 epoch 단위 memo */
+    private static final class LazyValue {
+        private final LongSupplier epoch;
+        private final Supplier<Object> source;
+        private long memoEpoch = Long.MIN_VALUE;
+        private DataValue memo;
+
+        private LazyValue(LongSupplier epoch, Supplier<Object> source) {
+            this.epoch = epoch;
+            this.source = source;
+        }
+
+        private synchronized DataValue get() {
+            long current = epoch.getAsLong();
+            if (memo == null || current != memoEpoch) {
+                memo = new DataValue(new Variant(source.get()), StatusCode.GOOD, DateTime.now(), DateTime.now());
+                memoEpoch = current;
+            }
+            return memo;
+        }
+    }
+
+    private ConstantTag constantTagFor(MonitoredItem item) {
+        if (!AttributeId.Value.uid().equals(item.getReadValueId().getAttributeId())) {
+            return null;
+        }
+        return constantTags.get(item.getReadValueId().getNodeId());
+    }
+
+    /** CONSTANT 노드의 Value item 은 캐시 값으로 1회 통지하고, 나머지만 SubscriptionModel 로 넘긴다. */
+    private List<DataItem> withoutConstantItems(List<DataItem> items, boolean notify) {
+        List<DataItem> sampled = new ArrayList<>(items.size());
+        for (DataItem item : items) {
+            ConstantTag constant = constantTagFor(item);
+            if (constant == null) {
+                sampled.add(item);
+            } else if (notify) {
+                constant.items.add(item);
+                if (item.isSamplingEnabled()) {
+                    item.setValue(constant.value);
+                }
+            }
+        }
+        return sampled;
+    }
+
+    /**
+     * 최소 publish 간격 안에 들어온 갱신은 마지막 값만 보관했다가 flusher 가 간격이 지난 뒤 반영한다.
+     * 값이 바뀌지 않은 갱신은 DataValue 를 새로 만들지 않는다.
+     */
+    private final class PublishGate {
+        private final UaVariableNode node;
+        private final long minIntervalMs;
+        private Object lastPublished;
+        private long lastPublishedAt = 0L;
+        private Object pendingValue;
+        private boolean deferred = false;
+
+        private PublishGate(UaVariableNode node, long minIntervalMs, Object initialValue) {
+            this.node = node;
+            this.minIntervalMs = minIntervalMs;
+            this.lastPublished = initialValue;
+        }
+
+        private synchronized void offer(Object value, long now) {
+            if (!deferred && Objects.equals(lastPublished, value)) {
+                return;
+            }
+            if (!deferred && now - lastPublishedAt >= minIntervalMs) {
+                publish(value, now);
+                return;
+            }
+            pendingValue = value;
+            if (!deferred) {
+                deferred = true;
+                deferredPublishes.add(this);
+            }
+        }
+
+        /** publish 간격 때문에 아직 노드에 쓰지 않은 값 */
+        private synchronized Optional<Object> pending() {
+            return deferred && pendingValue != null ? Optional.of(pendingValue) : Optional.empty();
+        }
+
+        private synchronized boolean flush(long now) {
+            if (!deferred) {
+                return true;
+            }
+            if (now - lastPublishedAt < minIntervalMs) {
+                return false;
+            }
+            deferred = false;
+            Object value = pendingValue;
+            pendingValue = null;
+            if (!Objects.equals(lastPublished, value)) {
+                publish(value, now);
+            }
+            return true;
+        }
+
+        /** 게이트를 거치지 않고 노드에 직접 쓴 값. 미뤄 둔 값은 이 값으로 대체되어 flush 때 다시 쓰지 않는다. */
+        private synchronized void written(Object value, long now) {
+            lastPublished = value;
+            lastPublishedAt = now;
+            if (deferred) {
+                pendingValue = value;
+            }
+        }
+
+        private void publish(Object value, long now) {
+            lastPublished = value;
+            lastPublishedAt = now;
+            writeValue(node, value);
+        }
     }
 
     public List<UnitLogic> getMachines() {
@@ -624,6 +1203,7 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
 
     private void registerMachine(UnitLogic machine, ProductionLineController lineController) {
         machines.add(machine);
+        machine.telemetryNodes.values().forEach(node -> telemetryOwners.put(node.getNodeId(), machine));
         registerCommandNode(machine.machineFolder, machine);
         if (lineController != null) {
             lineController.registerMachine(machine);
@@ -634,7 +1214,7 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
     private void registerCommandNode(UaFolderNode folder, UnitLogic machine) {
         String browseName = ".command";
         UaVariableNode commandNode = UaVariableNode.builder(getNodeContext())
-                .setNodeId(new NodeId(getNamespaceIndex(), nextNodeId()))
+                .setNodeId(pathNodeId(folder, machine.getName() + browseName))
                 .setBrowseName(new QualifiedName(getNamespaceIndex(), machine.getName() + browseName))
                 .setDisplayName(LocalizedText.english(machine.getName() + " Command"))
                 .setTypeDefinition(Identifiers.BaseDataVariableType)
@@ -646,25 +1226,62 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 .setValue(new DataValue(new Variant(""), StatusCode.GOOD, DateTime.now(), DateTime.now()))
                 .build();
 
-        // Gateway → CtrlLine → Milo Server 명령 흐름이 이 delegate를 통해 OPC Write → onCommand()로 전달된다.
+        // Gateway → CtrlLine → Milo Server 명령 흐름이 이 delegate를 통해 OPC Write → 설비 mailbox → onCommand()로 전달된다.
+        // 쓰기 스레드는 대기열에 넣기만 하고, 대기열이 가득 차면 Write 결과가 Bad_ResourceUnavailable 이 된다.
         commandNode.setAttributeDelegate(new AttributeDelegate() {
             @Override
             public void setAttribute(AttributeContext context, org.eclipse.milo.opcua.sdk.core.nodes.Node node, AttributeId attributeId, DataValue value) throws UaException {
-                AttributeDelegate.super.setAttribute(context, node, attributeId, value);
-
                 if (attributeId == AttributeId.Value) {
                     Variant raw = value.getValue();
                     String command = raw != null && raw.getValue() != null ? raw.getValue().toString().trim() : "";
                     if (!command.isEmpty()) {
-                        machine.onCommand(MultiMachineNameSpace.this, command);
+                        StatusCode accepted = machine.submitCommand(MultiMachineNameSpace.this, command);
+                        if (accepted.isBad()) {
+                            throw new UaException(accepted);
+                        }
                     }
                 }
+                AttributeDelegate.super.setAttribute(context, node, attributeId, value);
             }
         });
 
-        getNodeContext().getNodeManager().addNode(commandNode);
-        folder.addReference(new Reference(folder.getNodeId(), Identifiers.Organizes, commandNode.getNodeId().expanded(), true));
+        addChildNode(folder, commandNode);
         commandNodes.put(machine.getName(), commandNode);
+        CommandMethods.register(this, folder, machine.getName(), machine.commandTarget(this));
+    }
+
+    /** Value 를 샘플링(Sampling/Reporting) 중인 monitored item 이 하나 이상 있는지 여부 */
+    public boolean isObserved(UaVariableNode node) {
+        AtomicInteger count = observedItemCounts.get(node.getNodeId());
+        return count != null && count.get() > 0;
+    }
+
+    public int getObservedItemCount(NodeId nodeId) {
+        AtomicInteger count = observedItemCounts.get(nodeId);
+        return count == null ? 0 : count.get();
+    }
+
+    private void trackObservation(MonitoredItem item, boolean observing) {
+        if (!AttributeId.Value.uid().equals(item.getReadValueId().getAttributeId())) {
+            return;
+        }
+        boolean changed = observing ? observingItems.add(item) : observingItems.remove(item);
+        if (!changed) {
+            return;
+        }
+        adjustObservation(item.getReadValueId().getNodeId(), observing ? 1 : -1, observing);
+    }
+
+    private void adjustObservation(NodeId nodeId, int delta, boolean observing) {
+        int count = observedItemCounts.computeIfAbsent(nodeId, id -> new AtomicInteger()).addAndGet(delta);
+        UnitLogic owner = telemetryOwners.get(nodeId);
+        if (owner != null) {
+            owner.onObservationChanged(delta, observing && count == 1);
+            if (observing && count == 1) {
+                // 관측 전까지 생략해 둔 값을 바로 만들어, 첫 샘플부터 최신 값을 보게 한다.
+                owner.materializeElidedTelemetry(this, nodeId);
+            }
+        }
     }
 
     /* ---------- MonitoredItemServices 구현 ---------- */
@@ -675,13 +1292,14 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 item.getId(),
                 item.getSamplingInterval()
         ));
-        subscriptionModel.onDataItemsCreated(items);
+        items.forEach(item -> trackObservation(item, item.isSamplingEnabled()));
+        subscriptionModel.onDataItemsCreated(withoutConstantItems(items, true));
     }
 
     @Override
     public void onDataItemsModified(List<DataItem> items) {
         System.out.println("[SubscriptionModel] onDataItemsModified: " + items.size());
-        subscriptionModel.onDataItemsModified(items);
+        subscriptionModel.onDataItemsModified(withoutConstantItems(items, false));
     }
 
     @Override
@@ -690,7 +1308,17 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 "[SubscriptionModel] onDataItemsDeleted: id=%s%n",
                 item.getId()
         ));
-        subscriptionModel.onDataItemsDeleted(items);
+        List<DataItem> sampled = new ArrayList<>(items.size());
+        for (DataItem item : items) {
+            trackObservation(item, false);
+            ConstantTag constant = constantTagFor(item);
+            if (constant == null) {
+                sampled.add(item);
+            } else {
+                constant.items.remove(item);
+            }
+        }
+        subscriptionModel.onDataItemsDeleted(sampled);
     }
 
     @Override
@@ -700,7 +1328,18 @@ public class MultiMachineNameSpace extends ManagedNamespaceWithLifecycle {
                 item.getId(),
                 item.isSamplingEnabled()
         ));
-        subscriptionModel.onMonitoringModeChanged(items);
+        List<MonitoredItem> sampled = new ArrayList<>(items.size());
+        for (MonitoredItem item : items) {
+            trackObservation(item, item.isSamplingEnabled());
+            ConstantTag constant = constantTagFor(item);
+            if (constant == null) {
+                sampled.add(item);
+            } else if (item.isSamplingEnabled() && item instanceof DataItem dataItem) {
+                // Disabled → Sampling/Reporting 전환 시 최신 캐시 값을 다시 한 번 통지
+                dataItem.setValue(constant.value);
+            }
+        }
+        subscriptionModel.onMonitoringModeChanged(sampled);
     }
 
 }
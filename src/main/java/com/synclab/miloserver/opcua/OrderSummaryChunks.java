@@ -0,0 +1,164 @@
+package com.synclab.miloserver.opcua;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * order_summary_payload 의 양품 시리얼 목록(JSON 배열 → gzip → Base64)을 고정 길이 청크로 나눈 결과.
+ * 시리얼을 스트리밍으로 압축/인코딩하므로 대형 오더에서도 전체 문자열을 한 번에 만들지 않으며,
+ * 클라이언트는 order_summary_chunk_data 배열을 IndexRange 로 한 칸씩 읽어 이어 붙인 뒤 crc32 로 검증한다.
+ */
+public final class OrderSummaryChunks {
+
+    public static final int DEFAULT_CHUNK_CHARS = 16 * 1024;
+    public static final String ENCODING = "gzip+base64";
+
+    private static final OrderSummaryChunks EMPTY = new OrderSummaryChunks(new String[0], 0L, 0L, DEFAULT_CHUNK_CHARS);
+
+    private final String[] chunks;
+    private final long crc32;
+    private final long totalLength;
+    private final int chunkChars;
+
+    private OrderSummaryChunks(String[] chunks, long crc32, long totalLength, int chunkChars) {
+        this.chunks = chunks;
+        this.crc32 = crc32;
+        this.totalLength = totalLength;
+        this.chunkChars = chunkChars;
+    }
+
+    public static OrderSummaryChunks empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 시리얼 컬렉션을 JSON 배열로 직렬화해 gzip 압축 후 Base64 청크로 분할한다.
+     * crc32 는 gzip 바이트(Base64 디코딩 결과)에 대해 계산된다.
+     */
+    public static OrderSummaryChunks encode(Collection<String> serials, int chunkChars) {
+        if (serials == null || serials.isEmpty()) {
+            return EMPTY;
+        }
+        int sanitizedChunkChars = Math.max(4, chunkChars - chunkChars % 4);
+        ChunkingOutputStream chunker = new ChunkingOutputStream(sanitizedChunkChars);
+        CRC32 crc = new CRC32();
+        try (OutputStream base64 = Base64.getEncoder().wrap(chunker);
+             CheckedOutputStream checked = new CheckedOutputStream(base64, crc);
+             GZIPOutputStream gzip = new GZIPOutputStream(checked, 8192);
+             Writer json = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), 8192)) {
+            json.write('[');
+            boolean first = true;
+            for (String serial : serials) {
+                if (!first) {
+                    json.write(',');
+                }
+                first = false;
+                json.write('"');
+                JsonPayloadWriter.appendEscaped(json, serial);
+                json.write('"');
+            }
+            json.write(']');
+        } catch (IOException ex) {
+            return EMPTY;
+        }
+        return new OrderSummaryChunks(chunker.toChunks(), crc.getValue(), chunker.totalLength(), sanitizedChunkChars);
+    }
+
+    public String[] chunks() {
+        return chunks;
+    }
+
+    public int count() {
+        return chunks.length;
+    }
+
+    public long crc32() {
+        return crc32;
+    }
+
+    public String crc32Hex() {
+        return chunks.length == 0 ? "" : String.format("%08x", crc32);
+    }
+
+    public long totalLength() {
+        return totalLength;
+    }
+
+    public int chunkChars() {
+        return chunkChars;
+    }
+
+    /** 청크가 하나뿐이면 기존 good_serials_gzip 필드에 그대로 실어 보낼 수 있다. */
+    public String inlineValue() {
+        return chunks.length == 1 ? chunks[0] : "";
+    }
+
+    /**
+     * Base64 인코더 출력(ASCII)을 chunkChars 단위 문자열로 잘라 모은다.
+     */
+    private static final class ChunkingOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private final List<String> chunks = new ArrayList<>();
+        private int position = 0;
+        private long totalLength = 0L;
+
+        private ChunkingOutputStream(int chunkChars) {
+            this.buffer = new byte[chunkChars];
+        }
+
+        @Override
+        public void write(int b) {
+            buffer[position++] = (byte) b;
+            totalLength++;
+            if (position == buffer.length) {
+                flushChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+                totalLength += n;
+                if (position == buffer.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (position > 0) {
+                flushChunk();
+            }
+        }
+
+        private void flushChunk() {
+            chunks.add(new String(buffer, 0, position, StandardCharsets.US_ASCII));
+            position = 0;
+        }
+
+        private String[] toChunks() {
+            return chunks.toArray(new String[0]);
+        }
+
+        private long totalLength() {
+            return totalLength;
+        }
+    }
+}
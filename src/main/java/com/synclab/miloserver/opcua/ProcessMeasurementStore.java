@@ -0,0 +1,583 @@
+package com.synclab.miloserver.opcua;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * serial 별 공정 측정값 저장소. 설비가 concludeSerialCycle 에서 뽑은 값(점도, 코팅 두께 ...)을
+ * 설비 유형 × 작업지시 테이블에 한 행씩 붙인다.
+ * <pre>
+ * 테이블   측정 항목마다 double[] 열, CHUNK_ROWS 행 단위 chunk 로 늘어난다. serial 은 접두어를 테이블에 한 번 두고
+ *          번호만 long[] 열에, 설비는 short[] id, 기록 시각은 long[] 열에 둔다.
+ * 통계     항목별 count / min / max / 합을 append 때 갱신 (조회 O(항목 수))
+ * spill    milo.measurement.spill.dir 를 주면 메모리에 milo.measurement.resident.chunks 개를 넘는 오래된 chunk 의
+ *          모든 열을 테이블별 임시 파일로 옮기고, 테이블마다 하나의 mapping(필요할 때 두 배로 다시 map)으로 읽는다.
+ *          spill 디렉터리가 없거나 spill 이 실패하면 그 chunk 를 버린다 (행 수/통계는 유지). 어느 쪽이든 테이블이
+ *          메모리에 두는 행은 resident.chunks × CHUNK_ROWS 를 넘지 않는다.
+ * 보존     작업지시는 최근 기록 순으로 milo.measurement.retained.orders 개만 보관하고, 그보다 오래된(끝난) 작업지시
+ *          테이블은 spill 파일과 함께 버린다.
+ * </pre>
+ * 설비 tick 스레드가 쓰고 REST 가 읽으므로 테이블 단위로 동기화한다. CSV 내보내기는 chunk 하나씩 잠근다.
+ */
+public final class ProcessMeasurementStore {
+
+    static final int CHUNK_ROWS = Math.max(64, Integer.getInteger("milo.measurement.chunk.rows", 4096));
+    private static final int RESIDENT_CHUNKS = Math.max(1, Integer.getInteger("milo.measurement.resident.chunks", 16));
+    private static final String SPILL_DIR = System.getProperty("milo.measurement.spill.dir", "");
+    private static final int RETAINED_ORDERS = Math.max(1, Integer.getInteger("milo.measurement.retained.orders", 32));
+
+    // 형식이 다른 serial 의 번호 열 표시
+    private static final long IRREGULAR_SERIAL = -1L;
+
+    private final Map<TableKey, Table> tables = new ConcurrentHashMap<>();
+    private final int retainedOrders;
+    private final int residentChunks;
+    // null 이면 spill 하지 않는다
+    private final Path spillDir;
+    private volatile boolean closed = false;
+
+    public ProcessMeasurementStore() {
+        this(RETAINED_ORDERS, RESIDENT_CHUNKS, SPILL_DIR.isBlank() ? null : Path.of(SPILL_DIR));
+    }
+
+    ProcessMeasurementStore(int retainedOrders, int residentChunks, Path spillDir) {
+        this.retainedOrders = Math.max(1, retainedOrders);
+        this.residentChunks = Math.max(1, residentChunks);
+        this.spillDir = spillDir;
+    }
+
+    private record TableKey(String unitType, String orderNo) {
+    }
+
+    /** values 는 columns 순서. 테이블의 열 구성은 처음 붙인 행을 따른다. */
+    void append(String unitType, String orderNo, String machine, String serial, String[] columns, double[] values) {
+        if (closed) {
+            return;
+        }
+        TableKey key = new TableKey(unitType == null ? "" : unitType, orderNo == null ? "" : orderNo);
+        Table table = tables.get(key);
+        if (table == null) {
+            table = tables.computeIfAbsent(key, k -> new Table(k, columns, residentChunks, spillDir));
+            evictOldOrders(key.orderNo());
+        }
+        table.append(machine, serial, values, System.currentTimeMillis());
+    }
+
+    /** 새 작업지시 테이블이 생길 때 호출한다. 마지막 기록이 가장 오래된 작업지시부터 retainedOrders 개가 남을 때까지 버린다. */
+    private synchronized void evictOldOrders(String currentOrder) {
+        Map<String, Long> lastAppend = new HashMap<>();
+        for (Table table : tables.values()) {
+            lastAppend.merge(table.key.orderNo(), table.lastAppendAt, Math::max);
+        }
+        if (lastAppend.size() <= retainedOrders) {
+            return;
+        }
+        List<String> oldest = new ArrayList<>(lastAppend.keySet());
+        oldest.remove(currentOrder);
+        oldest.sort(Comparator.comparing(lastAppend::get));
+        for (String orderNo : oldest.subList(0, Math.min(oldest.size(), lastAppend.size() - retainedOrders))) {
+            tables.values().removeIf(table -> {
+                if (!table.key.orderNo().equals(orderNo)) {
+                    return false;
+                }
+                table.close();
+                return true;
+            });
+        }
+    }
+
+    /** namespace 종료 시 spill 파일을 닫는다. 이후 기록은 무시한다. */
+    public void close() {
+        closed = true;
+        tables.values().forEach(Table::close);
+    }
+
+    public List<TableSummary> summaries() {
+        List<TableSummary> summaries = new ArrayList<>(tables.size());
+        for (Table table : tables.values()) {
+            summaries.add(table.summary());
+        }
+        summaries.sort(Comparator.comparing(TableSummary::getUnitType).thenComparing(TableSummary::getOrderNo));
+        return summaries;
+    }
+
+    /** 테이블이 없으면 null */
+    public List<Row> read(String unitType, String orderNo, int offset, int limit) {
+        Table table = tables.get(new TableKey(unitType, orderNo));
+        return table == null ? null : table.read(Math.max(0, offset), Math.max(0, limit));
+    }
+
+    public boolean contains(String unitType, String orderNo) {
+        return tables.containsKey(new TableKey(unitType, orderNo));
+    }
+
+    /** serial,machine,recorded_at,&lt;측정 항목...&gt; CSV. 테이블이 없으면 false */
+    public boolean exportCsv(String unitType, String orderNo, Writer out) throws IOException {
+        Table table = tables.get(new TableKey(unitType, orderNo));
+        if (table == null) {
+            return false;
+        }
+        table.exportCsv(out);
+        return true;
+    }
+
+    private static final class Table {
+        private final TableKey key;
+        private final String[] columns;
+        private final int residentChunks;
+        private final Path spillDir;
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final List<String> machines = new ArrayList<>();
+        private final Map<String, Short> machineIds = new HashMap<>();
+        private final long[] counts;
+        private final double[] sums;
+        private final double[] mins;
+        private final double[] maxs;
+        private long rows = 0L;
+        private volatile long lastAppendAt = System.currentTimeMillis();
+        // 아직 메모리에 있는 가장 오래된 chunk. 그 앞은 spill 했거나(spill 불가 시) 버린 chunk 다.
+        private int firstResident = 0;
+        private int droppedChunks = 0;
+        // serial 은 "접두어 + 번호" 로 보고 번호만 long 열에 둔다. 접두어/자릿수는 첫 행에서 정한다.
+        private String serialPrefix;
+        // 0 이면 0 을 채우지 않은 번호
+        private int serialWidth;
+        private FileChannel spill;
+        // spill 파일 앞부분 전체를 덮는 하나의 mapping. 모자라면 더 크게 다시 map 한다.
+        private ByteBuffer spillMap;
+        private int spillOffset = 0;
+        private boolean spillDisabled;
+
+        Table(TableKey key, String[] columns, int residentChunks, Path spillDir) {
+            this.key = key;
+            this.columns = columns.clone();
+            this.residentChunks = residentChunks;
+            this.spillDir = spillDir;
+            this.spillDisabled = spillDir == null;
+            this.counts = new long[columns.length];
+            this.sums = new double[columns.length];
+            this.mins = new double[columns.length];
+            this.maxs = new double[columns.length];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        }
+
+        synchronized void append(String machine, String serial, double[] values, long now) {
+            Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || chunk.size == CHUNK_ROWS) {
+                chunk = new Chunk(columns.length);
+                chunks.add(chunk);
+                releaseOldChunks();
+            }
+            int row = chunk.size;
+            for (int column = 0; column < columns.length; column++) {
+                double value = column < values.length ? values[column] : Double.NaN;
+                chunk.values[column][row] = value;
+                if (!Double.isNaN(value)) {
+                    counts[column]++;
+                    sums[column] += value;
+                    mins[column] = Math.min(mins[column], value);
+                    maxs[column] = Math.max(maxs[column], value);
+                }
+            }
+            long serialNumber = serialNumber(serial);
+            if (serialNumber == IRREGULAR_SERIAL) {
+                chunk.irregularSerial(row, serial);
+            }
+            chunk.serials[row] = serialNumber;
+            chunk.machines[row] = machineId(machine);
+            chunk.recordedAt[row] = now;
+            chunk.size++;
+            rows++;
+            lastAppendAt = now;
+        }
+
+        synchronized TableSummary summary() {
+            List<ColumnStats> stats = new ArrayList<>(columns.length);
+            for (int column = 0; column < columns.length; column++) {
+                boolean empty = counts[column] == 0;
+                stats.add(new ColumnStats(columns[column],
+                        empty ? 0.0 : sums[column] / counts[column],
+                        empty ? 0.0 : mins[column],
+                        empty ? 0.0 : maxs[column]));
+            }
+            return new TableSummary(key.unitType(), key.orderNo(), rows, firstResident - droppedChunks, droppedChunks,
+                    Collections.unmodifiableList(stats));
+        }
+
+        /** 버린 chunk 의 행은 건너뛴다. */
+        synchronized List<Row> read(int offset, int limit) {
+            List<Row> result = new ArrayList<>((int) Math.min(limit, Math.max(0, rows - offset)));
+            for (long index = offset; index < rows && result.size() < limit; index++) {
+                Chunk chunk = chunks.get((int) (index / CHUNK_ROWS));
+                if (chunk.dropped) {
+                    index = (index / CHUNK_ROWS + 1) * CHUNK_ROWS - 1;
+                    continue;
+                }
+                int row = (int) (index % CHUNK_ROWS);
+                Map<String, Double> values = new LinkedHashMap<>();
+                for (int column = 0; column < columns.length; column++) {
+                    values.put(columns[column], chunk.value(spillMap, column, row));
+                }
+                result.add(new Row(serial(chunk, row), machines.get(chunk.machine(spillMap, row)),
+                        chunk.recordedAt(spillMap, row), values));
+            }
+            return result;
+        }
+
+        void exportCsv(Writer out) throws IOException {
+            StringBuilder text = new StringBuilder("serial,machine,recorded_at");
+            for (String column : columns) {
+                text.append(',').append(column);
+            }
+            out.write(text.append('\n').toString());
+            for (int index = 0; ; index++) {
+                text.setLength(0);
+                synchronized (this) {
+                    if (index >= chunks.size()) {
+                        break;
+                    }
+                    Chunk chunk = chunks.get(index);
+                    for (int row = 0; row < chunk.size && !chunk.dropped; row++) {
+                        text.append(serial(chunk, row)).append(',')
+                                .append(machines.get(chunk.machine(spillMap, row))).append(',')
+                                .append(chunk.recordedAt(spillMap, row));
+                        for (int column = 0; column < columns.length; column++) {
+                            text.append(',').append(chunk.value(spillMap, column, row));
+                        }
+                        text.append('\n');
+                    }
+                }
+                out.write(text.toString());
+            }
+            out.flush();
+        }
+
+        private short machineId(String machine) {
+            Short id = machineIds.get(machine);
+            if (id == null) {
+                id = (short) machines.size();
+                machineIds.put(machine, id);
+                machines.add(machine);
+            }
+            return id;
+        }
+
+        /** 접두어와 번호 형식이 첫 행과 같으면 번호, 아니면 IRREGULAR_SERIAL (문자열은 chunk 에 따로 둔다) */
+        private long serialNumber(String serial) {
+            if (serial == null) {
+                return IRREGULAR_SERIAL;
+            }
+            if (serialPrefix == null) {
+                int digitsAt = serial.length();
+                while (digitsAt > 0 && Character.isDigit(serial.charAt(digitsAt - 1))) {
+                    digitsAt--;
+                }
+                String digits = serial.substring(digitsAt);
+                serialPrefix = serial.substring(0, digitsAt);
+                serialWidth = digits.length() > 1 && digits.charAt(0) == '0' ? digits.length() : 0;
+            }
+            if (!serial.startsWith(serialPrefix) || serial.length() == serialPrefix.length()) {
+                return IRREGULAR_SERIAL;
+            }
+            String digits = serial.substring(serialPrefix.length());
+            long number;
+            try {
+                number = Long.parseLong(digits);
+            } catch (NumberFormatException ex) {
+                return IRREGULAR_SERIAL;
+            }
+            // 부호/자릿수가 달라 되살린 문자열이 원래와 다르면 번호로 두지 않는다.
+            return number >= 0 && formatSerialNumber(number).equals(digits) ? number : IRREGULAR_SERIAL;
+        }
+
+        private String serial(Chunk chunk, int row) {
+            long number = chunk.serialNumber(spillMap, row);
+            return number == IRREGULAR_SERIAL ? chunk.irregularSerials.get(row) : serialPrefix + formatSerialNumber(number);
+        }
+
+        private String formatSerialNumber(long number) {
+            String digits = Long.toString(number);
+            return digits.length() >= serialWidth ? digits : "0".repeat(serialWidth - digits.length()) + digits;
+        }
+
+        /**
+         * 가득 찬 chunk 가 residentChunks 를 넘으면 가장 오래된 chunk 의 열을 모두 파일로 옮긴다.
+         * spill 할 수 없으면(디렉터리 미지정, 실패) 그 chunk 를 버려 테이블 메모리가 residentChunks 를 넘지 않게 한다.
+         */
+        private void releaseOldChunks() {
+            // 마지막 chunk 는 쓰는 중이므로 제외
+            while (chunks.size() - 1 - firstResident > residentChunks) {
+                Chunk oldest = chunks.get(firstResident);
+                if (!spillDisabled) {
+                    spillChunk(oldest);
+                }
+                if (spillDisabled) {
+                    oldest.drop();
+                    droppedChunks++;
+                }
+                firstResident++;
+            }
+        }
+
+        private void spillChunk(Chunk chunk) {
+            int bytes = Chunk.spillBytes(columns.length);
+            try {
+                ensureSpillCapacity((long) spillOffset + bytes);
+                ByteBuffer target = spillMap.duplicate();
+                int position = spillOffset;
+                for (double[] column : chunk.values) {
+                    target.position(position);
+                    target.asDoubleBuffer().put(column);
+                    position += CHUNK_ROWS * Double.BYTES;
+                }
+                target.position(position);
+                target.asLongBuffer().put(chunk.serials);
+                position += CHUNK_ROWS * Long.BYTES;
+                target.position(position);
+                target.asLongBuffer().put(chunk.recordedAt);
+                position += CHUNK_ROWS * Long.BYTES;
+                target.position(position);
+                target.asShortBuffer().put(chunk.machines);
+                chunk.spilled(spillOffset);
+                spillOffset += bytes;
+            } catch (IOException | IllegalStateException ex) {
+                System.err.printf("[ProcessMeasurementStore] Spill disabled for %s/%s: %s%n",
+                        key.unitType(), key.orderNo(), ex.getMessage());
+                spillDisabled = true;
+            }
+        }
+
+        /**
+         * 테이블마다 자기만의 임시 파일을 만들어(이름 충돌로 다른 테이블의 mapped 파일을 자르지 않는다)
+         * 필요한 크기의 두 배로 다시 map 한다. 이전 mapping 은 더 이상 참조되지 않아 GC 가 해제한다.
+         */
+        private void ensureSpillCapacity(long required) throws IOException {
+            if (spillMap != null && spillMap.capacity() >= required) {
+                return;
+            }
+            long limit = Integer.MAX_VALUE;
+            if (required > limit) {
+                throw new IllegalStateException("spill file exceeds " + limit + " bytes");
+            }
+            if (spill == null) {
+                Files.createDirectories(spillDir);
+                String prefix = (key.unitType() + "-" + key.orderNo()).replaceAll("[^A-Za-z0-9_.-]", "_") + "-";
+                Path file = Files.createTempFile(spillDir, prefix, ".measurements");
+                spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            long current = spillMap == null ? 0L : spillMap.capacity();
+            long size = Math.min(limit, Math.max(required, current * 2));
+            spillMap = spill.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+        }
+
+        /** spill 파일을 닫고 지운다. 이미 옮긴 값은 mapping 이 살아 있는 동안 계속 읽을 수 있다. */
+        synchronized void close() {
+            spillDisabled = true;
+            if (spill == null) {
+                return;
+            }
+            try {
+                spill.close();
+            } catch (IOException ex) {
+                System.err.printf("[ProcessMeasurementStore] Failed to close spill for %s/%s: %s%n",
+                        key.unitType(), key.orderNo(), ex.getMessage());
+            }
+            spill = null;
+        }
+    }
+
+    /**
+     * 행 열은 모두 기본형 배열이다. 파일로 옮긴 뒤에는 배열이 null 이고 테이블 mapping 의 spilledAt(byte) 부터
+     * [측정값 열 × CHUNK_ROWS double][serial 번호 long][기록 시각 long][설비 short] 순서로 읽는다.
+     * 형식이 다른 serial 만 irregularSerials 에 문자열로 남는다.
+     */
+    private static final class Chunk {
+        final int columns;
+        double[][] values;
+        long[] serials = new long[CHUNK_ROWS];
+        long[] recordedAt = new long[CHUNK_ROWS];
+        short[] machines = new short[CHUNK_ROWS];
+        Map<Integer, String> irregularSerials = Map.of();
+        int spilledAt = -1;
+        boolean dropped = false;
+        int size = 0;
+
+        Chunk(int columns) {
+            this.columns = columns;
+            this.values = new double[columns][CHUNK_ROWS];
+        }
+
+        static int spillBytes(int columns) {
+            return CHUNK_ROWS * (columns * Double.BYTES + Long.BYTES * 2 + Short.BYTES);
+        }
+
+        void irregularSerial(int row, String serial) {
+            if (irregularSerials.isEmpty()) {
+                irregularSerials = new HashMap<>();
+            }
+            irregularSerials.put(row, serial);
+        }
+
+        void spilled(int offset) {
+            spilledAt = offset;
+            values = null;
+            serials = null;
+            recordedAt = null;
+            machines = null;
+        }
+
+        void drop() {
+            dropped = true;
+            values = null;
+            serials = null;
+            recordedAt = null;
+            machines = null;
+            irregularSerials = Map.of();
+        }
+
+        // spill 영역에서 측정값 열 다음 행 열이 시작하는 byte 위치
+        private int rowColumnsAt() {
+            return spilledAt + columns * CHUNK_ROWS * Double.BYTES;
+        }
+
+        double value(ByteBuffer spillMap, int column, int row) {
+            return values != null ? values[column][row]
+                    : spillMap.getDouble(spilledAt + (column * CHUNK_ROWS + row) * Double.BYTES);
+        }
+
+        long serialNumber(ByteBuffer spillMap, int row) {
+            return serials != null ? serials[row] : spillMap.getLong(rowColumnsAt() + row * Long.BYTES);
+        }
+
+        long recordedAt(ByteBuffer spillMap, int row) {
+            return recordedAt != null ? recordedAt[row]
+                    : spillMap.getLong(rowColumnsAt() + (CHUNK_ROWS + row) * Long.BYTES);
+        }
+
+        short machine(ByteBuffer spillMap, int row) {
+            return machines != null ? machines[row]
+                    : spillMap.getShort(rowColumnsAt() + CHUNK_ROWS * Long.BYTES * 2 + row * Short.BYTES);
+        }
+    }
+
+    public static final class Row {
+        private final String serial;
+        private final String machine;
+        private final long recordedAt;
+        private final Map<String, Double> values;
+
+        private Row(String serial, String machine, long recordedAt, Map<String, Double> values) {
+            this.serial = serial;
+            this.machine = machine;
+            this.recordedAt = recordedAt;
+            this.values = values;
+        }
+
+        public String getSerial() {
+            return serial;
+        }
+
+        public String getMachine() {
+            return machine;
+        }
+
+        /** epoch ms */
+        public long getRecordedAt() {
+            return recordedAt;
+        }
+
+        public Map<String, Double> getValues() {
+            return values;
+        }
+    }
+
+    public static final class TableSummary {
+        private final String unitType;
+        private final String orderNo;
+        private final long rows;
+        private final int spilledChunks;
+        private final int droppedChunks;
+        private final List<ColumnStats> columns;
+
+        private TableSummary(String unitType, String orderNo, long rows, int spilledChunks, int droppedChunks,
+                             List<ColumnStats> columns) {
+            this.unitType = unitType;
+            this.orderNo = orderNo;
+            this.rows = rows;
+            this.spilledChunks = spilledChunks;
+            this.droppedChunks = droppedChunks;
+            this.columns = columns;
+        }
+
+        public String getUnitType() {
+            return unitType;
+        }
+
+        public String getOrderNo() {
+            return orderNo;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public int getSpilledChunks() {
+            return spilledChunks;
+        }
+
+        /** spill 할 수 없어 버린 chunk 수. 행 수와 통계에는 남아 있다. */
+        public int getDroppedChunks() {
+            return droppedChunks;
+        }
+
+        public List<ColumnStats> getColumns() {
+            return columns;
+        }
+    }
+
+    public static final class ColumnStats {
+        private final String name;
+        private final double mean;
+        private final double min;
+        private final double max;
+
+        private ColumnStats(String name, double mean, double min, double max) {
+            this.name = name;
+            this.mean = mean;
+            this.min = min;
+            this.max = max;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
@@ -5,30 +5,59 @@ import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 트레이/시리얼 기반의 병렬 파이프라인 컨트롤러.
+ * 라인마다 이벤트 루프 스레드 하나가 모든 상태를 소유한다. 설비 tick 스레드와 명령(REST/OPC)은
+ * 불변 이벤트를 큐에 넣기만 하므로 라인 monitor 를 두고 경쟁하거나 설비 monitor 와 잠금 순서가 엇갈리지 않는다.
+ * 처리량은 controller_events_per_sec / controller_queue_depth 태그로 확인한다.
  */
-public class ProductionLineController {
+public class ProductionLineController implements CommandMethods.Target {
     private static final Logger log = LoggerFactory.getLogger(ProductionLineController.class);
 
     private static final int TRAY_CAPACITY = 36;
     private static final int STAGE_TRAY_CLEAN = 1;
     private static final int STAGE_ELECTRODE = 2;
+    private static final long METRIC_WINDOW_MS = 1000L;
+    private static final long COMMAND_REPLY_TIMEOUT_MS = 5000L;
+    // stage 입력 버퍼(대기 tray) 기본 용량. milo.line.buffer.capacity.<stageNo> 로 stage 별 지정
+    private static final int DEFAULT_BUFFER_CAPACITY = Integer.getInteger("milo.line.buffer.capacity", 4);
+    // 라인 안에 동시에 존재할 수 있는 tray 수 (CONWIP). 0 이면 stage 버퍼 용량만 적용
+    private static final int LINE_WIP_LIMIT = Integer.getInteger("milo.line.wip.limit", 0);
+    // ACK 전까지 라인이 붙잡고 있을 수 있는 작업지시 수 (실행 중 + 대기 + ACK 대기)
+    private static final int ORDER_QUEUE_CAPACITY = Integer.getInteger("milo.line.order.queue.capacity", 8);
 
     private final MultiMachineNameSpace namespace;
     private final String lineName;
@@ -43,46 +72,121 @@ public class ProductionLineController {
     private final Map<UnitLogic, Integer> machineOkCounts = new HashMap<>();
     private final Map<UnitLogic, Integer> machineNgCounts = new HashMap<>();
     private final Map<UnitLogic, String> machineStates = new HashMap<>();
+    private final Set<UnitLogic> ackPendingMachines = new HashSet<>();
+    private final Map<UnitLogic, DispatchPolicy.MachineLoad> machineLoads = new HashMap<>();
+    // 다음 stage 버퍼가 가득 차 완료한 tray 를 내보내지 못하고 들고 있는 설비
+    private final Set<UnitLogic> blockedMachines = new HashSet<>();
 
     private final Map<String, UaVariableNode> nodes = new HashMap<>();
 
+    // WIP 카운터. tray 가 큐에 들어가고/배정되고/막히고/완료될 때마다 증감해 tray 를 훑지 않고 유지한다.
+    // wip = 대기(막힌 tray 포함) + 배정된 tray 의 계획 수량
+    private int queuedUnits = 0;
+    private int queuedTrays = 0;
+    private int assignedUnits = 0;
+    private boolean wipDirty = false;
+
+    // 라인 order_* 태그에 보이는 값. 가장 먼저 접수되어 아직 ACK 되지 않은 작업지시를 따른다.
     private String orderStatus = "IDLE";
     private String orderNo = "";
     private int targetQuantity = 0;
     private int linePpm = 0;
+    private String orderItemCode = "";
+    // EXECUTE 작업지시가 하나라도 있으면 orderActive, WAITING_ACK 작업지시가 하나라도 있으면 awaitingAck
     private boolean awaitingAck = false;
     private boolean orderActive = false;
-    private String currentOrderNo = "";
-    private int currentOrderTargetQty = 0;
-    private int currentOrderPpm = 0;
-    private String currentOrderItemCode = "";
 
-    private int finalOkTotal = 0;
+    // ACK 전 작업지시 (접수 순서). 앞 작업지시의 마지막 tray 가 TrayClean 을 떠나면 다음 작업지시 tray 가 투입된다.
+    private final Deque<LineOrder> orders = new ArrayDeque<>();
+    // 설비가 마지막으로 받은 tray 의 작업지시 (작업지시가 바뀌면 설비 order_no/item_code/PPM 을 다시 맞춘다)
+    private final Map<UnitLogic, LineOrder> machineOrders = new HashMap<>();
+
+    // 공장 작업 공유 (milo.factory.work.sharing). 빌려준 tray 는 원래 라인 tray id, 빌려온 tray 는 "원래 라인/tray id" 로 찾는다.
+    private volatile FactoryCoordinator coordinator;
+    private final Map<String, SharedTrayRef> lentTrays = new LinkedHashMap<>();
+    private final Map<String, SharedTrayRef> borrowedTrays = new LinkedHashMap<>();
+    private boolean sharedDirty = false;
+
     private long trayIdCounter = 0L;
     private long serialCounter = 1L;
     private String serialPrefix = "CC-A";
-    private String orderItemCode = "";
-    private OffsetDateTime executeStatusStartedAt;
-    private OffsetDateTime waitingAckStatusAt;
+    private DispatchPolicy dispatchPolicy;
+    // machine_utilization 의 분모 시작 시각 (작업지시 시작)
+    private long utilizationWindowStart = System.nanoTime();
+    // stage 흐름 분석 (이벤트 루프 전용). REST 는 매 metric 창마다 갱신되는 analyticsSnapshot 을 읽는다.
+    private final LineAnalytics analytics = new LineAnalytics();
+    private volatile LineAnalytics.Snapshot analyticsSnapshot = LineAnalytics.Snapshot.empty();
+    // serial 별 tray / stage 설비 / NG 이력 (작업지시가 바뀌어도 유지)
+    private final SerialGenealogyStore genealogy = new SerialGenealogyStore();
+
+    private final BlockingQueue<LineEvent> events = new LinkedBlockingQueue<>();
+    private final Thread eventLoop;
+    private volatile boolean running = true;
+    // 이벤트 루프 스레드 전용
+    private long processedEvents = 0L;
+    private volatile double eventsPerSecond = 0.0;
 
     public ProductionLineController(MultiMachineNameSpace namespace, String lineName, UaFolderNode lineFolder) {
         this.namespace = namespace;
         this.lineName = lineName;
         this.lineFolder = lineFolder;
         this.lineCode = extractLineCode(lineName);
+        this.dispatchPolicy = DispatchPolicy.parse(
+                System.getProperty("milo.line.dispatch.policy." + lineName), DispatchPolicy.DEFAULT);
         initializeNodes();
+        this.eventLoop = new Thread(this::runEventLoop, "line-controller-" + lineName);
+        this.eventLoop.setDaemon(true);
+        this.eventLoop.start();
     }
 
     private void initializeNodes() {
         nodes.put("order_no", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_no"), orderNo));
         nodes.put("order_item_code", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_item_code"), orderItemCode));
         nodes.put("order_target_qty", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_target_qty"), targetQuantity));
-        nodes.put("order_produced_qty", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_produced_qty"), 0));
+        nodes.put("order_produced_qty", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_produced_qty"), 0, TagClass.EVENT));
         nodes.put("order_status", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_status"), orderStatus));
         nodes.put("mes_ack_pending", namespace.addVariableNode(lineFolder, lineQualifiedName(".mes_ack_pending"), awaitingAck));
-        nodes.put("order_ppm", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_ppm"), linePpm));
+        nodes.put("order_ppm", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_ppm"), linePpm, TagClass.NORMAL));
         nodes.put("production_performance_payload",
                 namespace.addVariableNode(lineFolder, lineQualifiedName(".production_performance_payload"), ""));
+        // {"lent":[{"tray_id","to_line","stage"}],"borrowed":[{"tray_id","from_line","order_no","stage"}]} 형제 라인과 주고받은 tray
+        nodes.put("shared_trays", namespace.addVariableNode(lineFolder, lineQualifiedName(".shared_trays"), ""));
+        // [{"order_no","item_code","status","target_qty","produced_qty"}, ...] ACK 전 작업지시 (접수 순서)
+        nodes.put("order_queue", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_queue"), "[]"));
+        // [{"order_no","status","remaining_sec","eta"}, ...] 작업지시별 완료 예상 (remaining_sec -1 / eta "" 이면 아직 추정 불가)
+        nodes.put("order_eta", namespace.addVariableNode(lineFolder, lineQualifiedName(".order_eta"), "[]", TagClass.SLOW));
+        nodes.put("order_remaining_sec",
+                namespace.addVariableNode(lineFolder, lineQualifiedName(".order_remaining_sec"), -1.0, TagClass.SLOW));
+        nodes.put("wip_units", namespace.addVariableNode(lineFolder, lineQualifiedName(".wip_units"), 0, TagClass.NORMAL));
+        // stage 번호 n 의 대기 + 가공 중 + 막힌 tray 수가 (n - 1) 번째 원소
+        nodes.put("wip_trays", namespace.addArrayVariableNode(lineFolder, lineQualifiedName(".wip_trays"),
+                Identifiers.Int32, new Integer[0]));
+        // stage 별 IDLE / RUNNING / STARVED(투입 대기) / BLOCKED(다음 버퍼 가득 참)
+        nodes.put("stage_status", namespace.addArrayVariableNode(lineFolder, lineQualifiedName(".stage_status"),
+                Identifiers.String, new String[0]));
+        nodes.put("dispatch_policy", namespace.addVariableNode(lineFolder, lineQualifiedName(".dispatch_policy"),
+                dispatchPolicy.name()));
+        // {"설비명": 가동률(0~1), ...} 작업지시 시작 이후 tray 를 배정받아 가공한 시간 비율
+        nodes.put("machine_utilization",
+                namespace.addVariableNode(lineFolder, lineQualifiedName(".machine_utilization"), "", TagClass.SLOW));
+        nodes.put("controller_events_per_sec",
+                namespace.addVariableNode(lineFolder, lineQualifiedName(".controller_events_per_sec"), 0.0, TagClass.SLOW));
+        nodes.put("controller_queue_depth",
+                namespace.addVariableNode(lineFolder, lineQualifiedName(".controller_queue_depth"), 0, TagClass.SLOW));
+        // 흐름 분석 (작업지시 시작 이후 시간 가중 평균) → <line>.analytics.*. stage 배열은 wip_trays 와 같은 인덱스
+        UaFolderNode analyticsFolder = namespace.addFolder(lineFolder, "analytics");
+        nodes.put("analytics.throughput_upm", namespace.addVariableNode(analyticsFolder,
+                lineQualifiedName(".analytics.throughput_upm"), 0.0, TagClass.SLOW));
+        nodes.put("analytics.cycle_time_sec", namespace.addVariableNode(analyticsFolder,
+                lineQualifiedName(".analytics.cycle_time_sec"), 0.0, TagClass.SLOW));
+        nodes.put("analytics.bottleneck_stage", namespace.addVariableNode(analyticsFolder,
+                lineQualifiedName(".analytics.bottleneck_stage"), 0, TagClass.SLOW));
+        nodes.put("analytics.stage_utilization", namespace.addArrayVariableNode(analyticsFolder,
+                lineQualifiedName(".analytics.stage_utilization"), Identifiers.Double, new Double[0]));
+        nodes.put("analytics.stage_queue_avg", namespace.addArrayVariableNode(analyticsFolder,
+                lineQualifiedName(".analytics.stage_queue_avg"), Identifiers.Double, new Double[0]));
+        nodes.put("analytics.stage_wait_sec", namespace.addArrayVariableNode(analyticsFolder,
+                lineQualifiedName(".analytics.stage_wait_sec"), Identifiers.Double, new Double[0]));
 
         UaVariableNode commandNode = namespace.addVariableNode(lineFolder, lineQualifiedName(".command"), "");
         commandNode.setDisplayName(LocalizedText.english(lineName + " Command"));
@@ -110,6 +214,7 @@ public class ProductionLineController {
             }
         });
         nodes.put("command", commandNode);
+        CommandMethods.register(namespace, lineFolder, lineName, this);
     }
 
     private static String extractLineCode(String fullName) {
@@ -124,25 +229,26 @@ public class ProductionLineController {
         return lineName + suffix;
     }
 
+    /** 같은 공장의 다른 라인과 stage 여유를 주고받는다. 설비 등록 전에 호출한다. */
+    void joinFactory(FactoryCoordinator factory) {
+        factory.register(this);
+        this.coordinator = factory;
+    }
+
+    /**
+     * 설비를 라인에 붙인다. 라인 상태(stage 구성 등)는 이벤트 루프에서 반영되며,
+     * 설비가 보내는 이벤트보다 먼저 큐에 들어가므로 순서가 보장된다.
+     */
     void registerMachine(UnitLogic machine) {
-        StageState state = stages.computeIfAbsent(machine.getMachineNo(), StageState::new);
-        state.machines.add(machine);
-        if (!stageOrder.contains(state.stageNo)) {
-            stageOrder.add(state.stageNo);
-            stageOrder.sort(Integer::compareTo);
-        }
-        machineProduction.put(machine, 0);
-        machineOkCounts.put(machine, 0);
-        machineNgCounts.put(machine, 0);
-        machineStates.put(machine, machine.state);
-        machineAssignments.remove(machine);
         machine.setLineController(this);
+        post(new MachineRegistered(machine, machine.state, machine.awaitingMesAck));
     }
 
-    private synchronized void handleCommand(String command) {
+    /** 문자열 command 노드(OPC Write 스레드)는 결과를 기다리지 않고 이벤트만 넣는다. 결과는 로그로 남는다. */
+    private void handleCommand(String command) {
         String[] tokens = command.split(":");
-        String action = tokens[0].trim();
-        switch (action.toUpperCase()) {
+        String action = tokens[0].trim().toUpperCase();
+        switch (action) {
             case "START":
                 if (tokens.length < 3) {
                     System.err.printf("[%s] START requires START:<order>:<qty>[:<itemPrefix>]\n", lineName);
@@ -150,158 +256,468 @@ public class ProductionLineController {
                 }
                 try {
                     String orderId = tokens[1];
-                    Integer targetQty = Integer.parseInt(tokens[2]);
-                    String itemPrefix = tokens.length >= 4 ? tokens[3] : serialPrefix;
-                    processMesCommand(action, orderId, targetQty, itemPrefix);
+                    int targetQty = Integer.parseInt(tokens[2]);
+                    String itemPrefix = tokens.length >= 4 ? tokens[3] : null;
+                    post(new LineCommand(action, orderId, targetQty, itemPrefix, 0, null));
                 } catch (NumberFormatException ex) {
                     System.err.printf("[%s] Invalid START parameters '%s': %s\n", lineName, command, ex.getMessage());
                 }
                 break;
             case "ACK":
             case "STOP":
-                processMesCommand(action, null, null, null);
+            case "RESET":
+                post(new LineCommand(action, null, 0, null, 0, null));
+                break;
+            case "POLICY":
+                DispatchPolicy policy = tokens.length >= 2 ? DispatchPolicy.parse(tokens[1], null) : null;
+                if (policy == null) {
+                    System.err.printf("[%s] POLICY requires POLICY:<ROUND_ROBIN|SHORTEST_EXPECTED_COMPLETION|LEAST_RECENTLY_USED>%n",
+                            lineName);
+                    return;
+                }
+                post(new DispatchPolicyChanged(policy));
                 break;
             default:
                 System.err.printf("[%s] Unsupported line command '%s'%n", lineName, command);
         }
     }
 
-    public synchronized void processMesCommand(String action,
-                                               String orderId,
-                                               Integer targetQty,
-                                               String itemCode) {
+    /** REST(/machine/command) 진입점. 이벤트 루프에서 처리된 결과를 기다려 반환한다. 거부되면 Bad StatusCode. */
+    public StatusCode processMesCommand(String action,
+                                        String orderId,
+                                        Integer targetQty,
+                                        String itemCode) {
         if (action == null || action.isBlank()) {
             System.err.printf("[%s] Missing action for MES command.%n", lineName);
-            return;
+            return new StatusCode(StatusCodes.Bad_InvalidArgument);
         }
 
         String normalizedAction = action.trim().toUpperCase();
         switch (normalizedAction) {
             case "START":
-                if (orderId == null || orderId.isBlank()) {
-                    System.err.printf("[%s] START command requires orderNo.%n", lineName);
-                    return;
-                }
-                if (targetQty == null || targetQty <= 0) {
-                    System.err.printf("[%s] START command requires positive targetQty but got %s.%n",
-                            lineName, String.valueOf(targetQty));
-                    return;
-                }
-                String sanitizedItemCode = itemCode != null && !itemCode.isBlank() ? itemCode.trim() : null;
-                log.info("[{}] MES command START orderNo={} targetQty={} itemCode='{}'",
-                        lineName, orderId.trim(), targetQty, sanitizedItemCode);
-                startOrder(orderId.trim(), targetQty, sanitizedItemCode);
-                break;
             case "STOP":
-                stopLine();
-                break;
             case "ACK":
-                acknowledge();
-                break;
+            case "RESET":
+                return request(normalizedAction, orderId, targetQty == null ? 0 : targetQty, itemCode, 0);
             default:
                 System.err.printf("[%s] Unsupported MES action '%s'%n", lineName, normalizedAction);
+                return new StatusCode(StatusCodes.Bad_NotSupported);
         }
     }
 
-    private synchronized void startOrder(String orderId, int targetQty, String itemCode) {
-        if (orderActive || awaitingAck) {
-            System.err.printf("[%s] Line busy; cannot start new order.%n", lineName);
-            return;
+    @Override
+    public StatusCode startOrderCommand(String orderId, int targetQty, String itemCode, int ppm) {
+        return request("START", orderId, targetQty, itemCode, ppm);
+    }
+
+    @Override
+    public StatusCode ackCommand() {
+        return request("ACK", null, 0, null, 0);
+    }
+
+    @Override
+    public StatusCode stopCommand() {
+        return request("STOP", null, 0, null, 0);
+    }
+
+    @Override
+    public StatusCode resetCommand() {
+        return request("RESET", null, 0, null, 0);
+    }
+
+    public void onMachineProduced(UnitLogic machine, int producedQty, int targetQty) {
+        post(new MachineProduced(machine, producedQty, targetQty));
+    }
+
+    public void onMachineQualityChanged(UnitLogic machine, int okTotal, int ngTotal) {
+        post(new MachineQualityChanged(machine, okTotal, ngTotal));
+    }
+
+    public void onMachineAckPendingChanged(UnitLogic machine, boolean pending) {
+        post(new MachineAckPendingChanged(machine, pending, machine.state));
+    }
+
+    public void onMachineStateChanged(UnitLogic machine, String newState) {
+        post(new MachineStateChanged(machine, newState));
+    }
+
+    public void onMachineReset(UnitLogic machine) {
+        post(new MachineReset(machine, machine.state));
+    }
+
+    /** 마지막 metric 창에서 계산한 흐름 분석 결과 */
+    public LineAnalytics.Snapshot getAnalytics() {
+        return analyticsSnapshot;
+    }
+
+    /** serial / tray / 작업지시 추적 조회용. 조회는 어느 스레드에서나 할 수 있다. */
+    public SerialGenealogyStore getGenealogy() {
+        return genealogy;
+    }
+
+    /** 최근 1초 동안 이벤트 루프가 처리한 이벤트 수 */
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    public String getLineName() {
+        return lineName;
+    }
+
+    /** 이벤트 루프에서 라인 상태를 복사한다. 루프가 멈춰 있으면 완료되지 않는다. */
+    CompletableFuture<SimulationSnapshotStore.LineState> captureState() {
+        CompletableFuture<SimulationSnapshotStore.LineState> reply = new CompletableFuture<>();
+        post(new StateCaptureRequested(reply));
+        return reply;
+    }
+
+    /** 이벤트 루프에서 snapshot 상태를 적용한다. 이미 작업지시가 있으면 false */
+    CompletableFuture<Boolean> restoreState(SimulationSnapshotStore.LineState state) {
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        post(new StateRestoreRequested(state, reply));
+        return reply;
+    }
+
+    public void shutdown() {
+        running = false;
+        eventLoop.interrupt();
+    }
+
+    /**
+     * 이벤트 루프 스레드에서 보낸 이벤트(라인이 설비를 호출하는 도중 설비가 되돌려 보내는 통지)는 바로 처리한다.
+     * 큐에 넣으면 그 사이에 들어온 다른 이벤트보다 늦게 반영되어, 예전 synchronized 재진입과 순서가 달라진다.
+     */
+    private void post(LineEvent event) {
+        if (Thread.currentThread() == eventLoop) {
+            handle(event);
+            processedEvents++;
+        } else {
+            events.add(event);
         }
-        log.info("[{}] Starting order orderNo={} targetQty={} sanitizedItemCode='{}'",
-                lineName, orderId, targetQty, itemCode != null ? itemCode : "");
-        this.orderActive = true;
-        this.awaitingAck = false;
-        this.orderNo = orderId;
-        this.targetQuantity = targetQty;
+    }
+
+    private StatusCode request(String action, String orderId, int targetQty, String itemCode, int ppm) {
+        if (Thread.currentThread() == eventLoop) {
+            return executeCommand(new LineCommand(action, orderId, targetQty, itemCode, ppm, null));
+        }
+        CompletableFuture<StatusCode> reply = new CompletableFuture<>();
+        events.add(new LineCommand(action, orderId, targetQty, itemCode, ppm, reply));
+        try {
+            return reply.get(COMMAND_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            System.err.printf("[%s] %s not processed within %d ms%n", lineName, action, COMMAND_REPLY_TIMEOUT_MS);
+            return new StatusCode(StatusCodes.Bad_Timeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new StatusCode(StatusCodes.Bad_Shutdown);
+        } catch (ExecutionException ex) {
+            return new StatusCode(StatusCodes.Bad_InternalError);
+        }
+    }
+
+    private void runEventLoop() {
+        long windowStart = System.nanoTime();
+        long windowEvents = processedEvents;
+        while (running) {
+            LineEvent event;
+            try {
+                event = events.poll(METRIC_WINDOW_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (event != null) {
+                try {
+                    handle(event);
+                } catch (RuntimeException ex) {
+                    log.error("[{}] Line event {} failed", lineName, event.getClass().getSimpleName(), ex);
+                }
+                processedEvents++;
+                if (wipDirty) {
+                    publishWip();
+                }
+                publishIdleCapacity(false);
+            }
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed >= TimeUnit.MILLISECONDS.toNanos(METRIC_WINDOW_MS)) {
+                eventsPerSecond = (processedEvents - windowEvents) * 1_000_000_000.0 / elapsed;
+                updateNode("controller_events_per_sec", Math.round(eventsPerSecond * 10.0) / 10.0);
+                updateNode("controller_queue_depth", events.size());
+                if (orderActive) {
+                    publishUtilization(now);
+                    publishAnalytics(now);
+                }
+                if (!orders.isEmpty()) {
+                    publishEta();
+                }
+                // 형제 라인이 reserve 로 차감한 여유를 주기적으로 실제 값으로 되돌린다.
+                publishIdleCapacity(true);
+                windowStart = now;
+                windowEvents = processedEvents;
+            }
+        }
+    }
+
+    private void handle(LineEvent event) {
+        switch (event) {
+            case MachineRegistered e -> addMachine(e.machine(), e.state(), e.ackPending());
+            case MachineProduced e -> {
+                machineProduction.put(e.machine(), e.producedQty());
+                checkTrayCompletion(e.machine());
+            }
+            case MachineQualityChanged e -> {
+                machineOkCounts.put(e.machine(), e.okTotal());
+                machineNgCounts.put(e.machine(), e.ngTotal());
+                checkTrayCompletion(e.machine());
+            }
+            case MachineStateChanged e -> {
+                machineStates.put(e.machine(), e.state());
+                refreshReadiness(e.machine());
+                onStateChanged(e.machine(), e.state());
+            }
+            case MachineAckPendingChanged e -> {
+                if (e.pending()) {
+                    ackPendingMachines.add(e.machine());
+                } else {
+                    ackPendingMachines.remove(e.machine());
+                }
+                machineStates.put(e.machine(), e.pending() ? "WAIT_ACK" : e.state());
+                refreshReadiness(e.machine());
+            }
+            case MachineReset e -> {
+                MachineAssignment removed = removeAssignment(e.machine());
+                if (removed != null && removed.tray.origin != null) {
+                    returnBorrowedTray(removed.tray);
+                }
+                machineProduction.put(e.machine(), 0);
+                machineOkCounts.put(e.machine(), 0);
+                machineNgCounts.put(e.machine(), 0);
+                machineStates.put(e.machine(), e.state());
+                refreshReadiness(e.machine());
+            }
+            case SharedTrayOffered e -> acceptSharedTray(e);
+            case SharedTrayReturned e -> onSharedTrayReturned(e);
+            case StateCaptureRequested e -> {
+                try {
+                    e.reply().complete(snapshotState());
+                } catch (RuntimeException ex) {
+                    e.reply().completeExceptionally(ex);
+                }
+            }
+            case StateRestoreRequested e -> {
+                try {
+                    e.reply().complete(applySnapshot(e.state()));
+                } catch (RuntimeException ex) {
+                    e.reply().completeExceptionally(ex);
+                }
+            }
+            case DispatchPolicyChanged e -> {
+                dispatchPolicy = e.policy();
+                updateNode("dispatch_policy", dispatchPolicy.name());
+                log.info("[{}] Dispatch policy set to {}", lineName, dispatchPolicy);
+            }
+            case LineCommand e -> {
+                StatusCode result;
+                try {
+                    result = executeCommand(e);
+                } catch (RuntimeException ex) {
+                    log.error("[{}] Line command {} failed", lineName, e.action(), ex);
+                    result = new StatusCode(StatusCodes.Bad_InternalError);
+                }
+                if (e.reply() != null) {
+                    e.reply().complete(result);
+                }
+            }
+        }
+    }
+
+    private void addMachine(UnitLogic machine, String machineState, boolean ackPending) {
+        StageState state = stages.computeIfAbsent(machine.getMachineNo(),
+                stageNo -> new StageState(stageNo, bufferCapacity(stageNo)));
+        state.machines.add(machine);
+        analytics.registerMachine(state.stageNo);
+        if (!stageOrder.contains(state.stageNo)) {
+            stageOrder.add(state.stageNo);
+            stageOrder.sort(Integer::compareTo);
+        }
+        machineProduction.put(machine, 0);
+        machineOkCounts.put(machine, 0);
+        machineNgCounts.put(machine, 0);
+        machineStates.put(machine, machineState);
+        machineLoads.put(machine, new DispatchPolicy.MachineLoad(machine.getDefaultPpm()));
+        state.refreshRate(machineLoads);
+        if (ackPending) {
+            ackPendingMachines.add(machine);
+        }
+        removeAssignment(machine);
+        refreshReadiness(machine);
+    }
+
+    private StatusCode executeCommand(LineCommand command) {
+        StatusCode result = switch (command.action()) {
+            case "START" -> applyStartOrder(command.orderId(), command.targetQty(), command.itemCode(), command.ppm());
+            case "ACK" -> applyAck();
+            case "STOP" -> applyStop();
+            case "RESET" -> applyReset();
+            default -> new StatusCode(StatusCodes.Bad_NotSupported);
+        };
+        if (result.isBad()) {
+            System.err.printf("[%s] MES action %s rejected: %s%n", lineName, command.action(), result);
+        }
+        return result;
+    }
+
+    private StatusCode applyStartOrder(String orderId, int targetQty, String itemCode, int ppm) {
+        if (orderId == null || orderId.isBlank()) {
+            return new StatusCode(StatusCodes.Bad_InvalidArgument);
+        }
+        if (targetQty <= 0 || ppm < 0) {
+            return new StatusCode(StatusCodes.Bad_OutOfRange);
+        }
+        if (orders.size() >= ORDER_QUEUE_CAPACITY) {
+            // 라인 작업지시 대기열 가득 참
+            return new StatusCode(StatusCodes.Bad_InvalidState);
+        }
+        String sanitizedItemCode = itemCode != null && !itemCode.isBlank() ? itemCode.trim() : null;
+        log.info("[{}] MES command START orderNo={} targetQty={} itemCode='{}' ppm={}",
+                lineName, orderId.trim(), targetQty, sanitizedItemCode, ppm);
+        startOrder(orderId.trim(), targetQty, sanitizedItemCode, ppm);
+        return StatusCode.GOOD;
+    }
+
+    /** 완료되어 ACK 를 기다리는 작업지시 중 가장 먼저 접수된 것을 확인한다. */
+    private StatusCode applyAck() {
+        for (LineOrder order : orders) {
+            if ("WAITING_ACK".equals(order.status)) {
+                acknowledge(order);
+                return StatusCode.GOOD;
+            }
+        }
+        return new StatusCode(StatusCodes.Bad_InvalidState);
+    }
+
+    private StatusCode applyStop() {
+        stopLine();
+        return StatusCode.GOOD;
+    }
+
+    /** ACK 전 작업지시(실행 중/대기/ACK 대기)가 없을 때 라인 작업지시 태그를 비우고 IDLE 로 되돌린다. */
+    private StatusCode applyReset() {
+        if (!orders.isEmpty()) {
+            return new StatusCode(StatusCodes.Bad_InvalidState);
+        }
+        orderStatus = "IDLE";
+        orderNo = "";
+        targetQuantity = 0;
+        linePpm = 0;
+        orderItemCode = "";
+        updateLineTelemetry();
+        return StatusCode.GOOD;
+    }
+
+    /**
+     * 작업지시를 라인 대기열에 넣는다. 라인이 비어 있으면 설비/큐를 초기화하고 바로 투입하며,
+     * 앞 작업지시가 있으면 그 마지막 tray 가 TrayClean 을 떠날 때 releaseTrays 가 투입을 시작한다.
+     */
+    private void startOrder(String orderId, int targetQty, String itemCode, int ppm) {
         String sanitizedItemCode = itemCode != null ? itemCode.trim() : "";
         if (!sanitizedItemCode.isEmpty()) {
             this.serialPrefix = sanitizedItemCode;
         }
-        this.orderItemCode = sanitizedItemCode;
-        this.finalOkTotal = 0;
-        this.currentOrderNo = orderId;
-        this.currentOrderTargetQty = targetQty;
-        this.currentOrderPpm = 0;
-        this.currentOrderItemCode = sanitizedItemCode;
-        this.trayIdCounter = 0;
+        LineOrder order = new LineOrder(orderId, targetQty, sanitizedItemCode, ppm, serialPrefix);
+        // 빌려온 tray 를 가공 중이면 설비 카운터를 초기화하지 않는다.
+        boolean lineIdle = orders.isEmpty() && borrowedTrays.isEmpty();
+        orders.addLast(order);
+        log.info("[{}] Queued order orderNo={} targetQty={} sanitizedItemCode='{}' position={}",
+                lineName, orderId, targetQty, sanitizedItemCode, orders.size());
+        if (lineIdle) {
+            prepareLine(order);
+        }
+        if (!stages.containsKey(STAGE_TRAY_CLEAN)) {
+            System.err.printf("[%s] No TrayClean stage registered.%n", lineName);
+        } else {
+            // tray 는 TrayClean 버퍼에 자리가 날 때마다 releaseTrays 가 필요한 만큼만 만든다.
+            ensureUpstreamSupply();
+        }
+        refreshOrderTelemetry();
+    }
 
-        machineAssignments.clear();
+    /** 라인에 남은 작업지시가 없을 때 새 작업지시를 받기 전 설비 카운터/배정/큐를 초기화한다. */
+    private void prepareLine(LineOrder order) {
+        this.trayIdCounter = 0;
+        clearAssignments();
+        machineOrders.clear();
         machineProduction.replaceAll((m, v) -> 0);
         machineOkCounts.replaceAll((m, v) -> 0);
         machineNgCounts.replaceAll((m, v) -> 0);
         machineStates.replaceAll((m, v) -> "IDLE");
-        stages.values().forEach(StageState::clearQueue);
+        machineStates.keySet().forEach(this::refreshReadiness);
+        machineLoads.values().forEach(load -> load.busyNanos = 0L);
+        utilizationWindowStart = System.nanoTime();
+        clearQueues();
+        analytics.reset(utilizationWindowStart);
+        machines().forEach(machine -> machine.synchronizeOrderMetadata(namespace, order.orderNo, order.itemCode));
+    }
 
-        orderStatus = "PREPARING";
-        updateLineTelemetry();
-        machines().forEach(machine -> machine.synchronizeOrderMetadata(namespace, orderId, sanitizedItemCode));
-        updateNode("order_produced_qty", 0);
-        updateNode("production_performance_payload", "");
+    private void activateOrder(LineOrder order) {
+        log.info("[{}] Starting order orderNo={} targetQty={} sanitizedItemCode='{}'",
+                lineName, order.orderNo, order.targetQty, order.itemCode);
+        order.status = "EXECUTE";
+        order.executeAt = OffsetDateTime.now();
+        refreshOrderTelemetry();
+    }
 
-        StageState firstStage = stages.get(STAGE_TRAY_CLEAN);
-        if (firstStage == null) {
-            System.err.printf("[%s] No TrayClean stage registered.%n", lineName);
-            return;
-        }
-        int traysNeeded = Math.max(1, (int) Math.ceil((double) targetQty / TRAY_CAPACITY));
-        for (int i = 0; i < traysNeeded; i++) {
-            firstStage.queue.addLast(new Tray(nextTrayId(), TRAY_CAPACITY));
-        }
-        dispatchStage(STAGE_TRAY_CLEAN);
-        ensureUpstreamSupply();
-        orderStatus = "EXECUTE";
-        executeStatusStartedAt = OffsetDateTime.now();
-        waitingAckStatusAt = null;
-        updateLineTelemetry();
+    private void completeOrder(LineOrder order) {
+        log.info("[{}] Order {} completed ok={} ng={}", lineName, order.orderNo, order.finalOkTotal, order.ngTotal);
+        order.status = "WAITING_ACK";
+        order.waitingAckAt = OffsetDateTime.now();
+        refreshOrderTelemetry();
     }
 
-    private synchronized void acknowledge() {
-        if (!awaitingAck) {
-            System.err.printf("[%s] No pending ACK.%n", lineName);
+    /** 마지막 작업지시까지 확인되면 설비 작업지시 상태를 정리한다. 다른 작업지시가 남아 있으면 설비는 계속 연속 모드로 둔다. */
+    private void acknowledge(LineOrder order) {
+        orders.remove(order);
+        if (!orders.isEmpty()) {
+            refreshOrderTelemetry();
             return;
         }
         for (UnitLogic machine : machines()) {
+            if (machineAssignments.containsKey(machine)) {
+                // 형제 라인에서 빌려온 tray 가공 중
+                continue;
+            }
             machine.endContinuousOrder();
             machine.acknowledgeOrderCompletion(namespace);
             machine.resetOrderState(namespace);
         }
+        machineOrders.clear();
         awaitingAck = false;
         orderActive = false;
+        wipDirty = true;
         orderStatus = "ACKED";
         orderItemCode = "";
-        currentOrderItemCode = "";
         updateLineTelemetry();
+        publishOrderQueue();
     }
 
-    private synchronized void stopLine() {
+    private void stopLine() {
         machines().forEach(UnitLogic::requestSimulationStop);
-        machineAssignments.clear();
-        stages.values().forEach(StageState::clearQueue);
+        new ArrayList<>(borrowedTrays.values()).forEach(shared -> returnBorrowedTray(shared.tray()));
+        lentTrays.clear();
+        sharedDirty = true;
+        orders.clear();
+        machineOrders.clear();
+        clearAssignments();
+        clearQueues();
         orderStatus = "STOPPING";
         orderActive = false;
         awaitingAck = false;
         updateLineTelemetry();
+        publishOrderQueue();
     }
 
-    public synchronized void onMachineProduced(UnitLogic machine, int producedQty, int targetQty) {
-        machineProduction.put(machine, producedQty);
-        checkTrayCompletion(machine);
-    }
-
-    public synchronized void onMachineQualityChanged(UnitLogic machine, int okTotal, int ngTotal) {
-        machineOkCounts.put(machine, okTotal);
-        machineNgCounts.put(machine, ngTotal);
-        checkTrayCompletion(machine);
-    }
-
-    public synchronized void onMachineAckPendingChanged(UnitLogic machine, boolean pending) {
-        machineStates.put(machine, pending ? "WAIT_ACK" : machine.state);
-    }
-
-    public synchronized void onMachineStateChanged(UnitLogic machine, String newState) {
-        machineStates.put(machine, newState);
-        if (!orderActive) return;
+    private void onStateChanged(UnitLogic machine, String newState) {
+        if (!orderActive && machineAssignments.isEmpty()) return;
         if ("IDLE".equalsIgnoreCase(newState)) {
             MachineAssignment assignment = machineAssignments.get(machine);
             if (assignment != null) {
@@ -314,14 +730,6 @@ public class ProductionLineController {
         }
     }
 
-    public synchronized void onMachineReset(UnitLogic machine) {
-        machineAssignments.remove(machine);
-        machineProduction.put(machine, 0);
-        machineOkCounts.put(machine, 0);
-        machineNgCounts.put(machine, 0);
-        machineStates.put(machine, machine.state);
-    }
-
     private void checkTrayCompletion(UnitLogic machine) {
         MachineAssignment assignment = machineAssignments.get(machine);
         if (assignment == null) return;
@@ -334,25 +742,34 @@ public class ProductionLineController {
     }
 
     private void completeTray(UnitLogic machine) {
-        MachineAssignment assignment = machineAssignments.remove(machine);
+        MachineAssignment assignment = removeAssignment(machine);
         if (assignment == null) return;
+        machineLoads.get(machine).recordCycle(System.nanoTime() - assignment.assignedAtNanos, assignment.plannedQty);
 
         StageState stage = stages.get(assignment.stageNo);
+        stage.refreshRate(machineLoads);
         Tray tray = assignment.tray;
+        LineOrder order = tray.order;
 
         int totalOk = machineOkCounts.getOrDefault(machine, 0);
         int totalNg = machineNgCounts.getOrDefault(machine, 0);
         int okDelta = Math.max(0, totalOk - assignment.startOk);
         int ngDelta = Math.max(0, totalNg - assignment.startNg);
 
+        List<String> assignedSerials = new ArrayList<>(tray.serials);
         tray.serials.clear();
         tray.serials.addAll(machine.getTrayCompletedOkSerialsSnapshot());
         tray.rejectedSerials.clear();
         tray.rejectedSerials.addAll(machine.getTrayRejectedSerialsSnapshot());
 
         if (stage.stageNo == STAGE_TRAY_CLEAN && tray.serials.isEmpty()) {
+            // TrayClean 설비가 serial 을 돌려주지 않으면 배정 때 붙인 serial 을 이어 쓴다 (genealogy 가 끊기지 않게).
             int serialCount = Math.max(0, assignment.plannedQty - ngDelta);
-            tray.serials.addAll(generateSerials(serialCount));
+            int reused = Math.min(serialCount, assignedSerials.size());
+            tray.serials.addAll(assignedSerials.subList(0, reused));
+            if (reused < serialCount) {
+                generateSerials(tray, serialCount - reused);
+            }
         }
         tray.plannedQty = tray.serials.size();
         System.out.printf(
@@ -365,113 +782,557 @@ public class ProductionLineController {
                 okDelta,
                 ngDelta
         );
+        int countedNg = "TRAY_CLEAN".equalsIgnoreCase(String.valueOf(machine.getUnitType()).trim()) ? 0 : ngDelta;
+
+        if (tray.origin != null) {
+            // 빌려온 tray 는 이 stage 결과만 원래 라인으로 돌려보낸다.
+            borrowedTrays.remove(sharedKey(tray.origin, tray.trayId));
+            sharedDirty = true;
+            tray.origin.post(new SharedTrayReturned(tray.trayId, List.copyOf(tray.serials),
+                    List.copyOf(tray.rejectedSerials), machine.getName(), okDelta, countedNg, true));
+            releaseForeignOrder(machine);
+        } else {
+            genealogy.recordStage(stage.stageNo, machine.getName(), tray.serials, tray.rejectedSerials,
+                    System.currentTimeMillis());
+            order.ngTotal += countedNg;
+            advanceTray(stage, machine, tray, okDelta);
+        }
+        dispatchStage(stage.stageNo);
+        ensureUpstreamSupply();
+    }
 
+    /**
+     * stage 를 마친 tray 를 다음 stage 버퍼로 보내거나(가득 차면 holder 가 들고 막힘), 마지막 stage 면 작업지시 실적에 더한다.
+     * holder 는 형제 라인에서 돌아온 tray 이면 null 이다.
+     */
+    private void advanceTray(StageState stage, UnitLogic holder, Tray tray, int okDelta) {
+        LineOrder order = tray.order;
+        order.stagePassed.merge(stage.stageNo, tray.plannedQty, Integer::sum);
         int stageIndex = stageOrder.indexOf(stage.stageNo);
         if (stageIndex >= 0 && stageIndex < stageOrder.size() - 1) {
             int nextStageNo = stageOrder.get(stageIndex + 1);
             StageState next = stages.get(nextStageNo);
             if (next != null && tray.plannedQty > 0) {
-                System.out.printf("[LineController] Dispatch tray %s to stage %d queue size(before)=%d%n",
-                        tray.trayId,
-                        nextStageNo,
-                        next.queue.size());
-                next.queue.addLast(tray);
-                dispatchStage(nextStageNo);
+                if (next.hasRoom()) {
+                    enqueueTray(next, tray);
+                    dispatchStage(nextStageNo);
+                } else {
+                    blockTray(stage, holder, tray);
+                }
             } else if (next != null) {
                 System.out.printf("[LineController] Tray %s has no OK serials; skipping stage %d%n",
                         tray.trayId,
                         nextStageNo);
             }
         } else {
-            finalOkTotal += okDelta;
-            updateNode("order_produced_qty", finalOkTotal);
+            order.finalOkTotal += okDelta;
+            analytics.unitsCompleted(okDelta);
+            genealogy.markCompleted(tray.serials);
+            if (order == orders.peekFirst()) {
+                updateNode("order_produced_qty", order.finalOkTotal);
+            }
+            publishOrderQueue();
         }
 
-        boolean lineDone = finalOkTotal >= targetQuantity;
-        if (lineDone && allTraysCompleted()) {
-            awaitingAck = true;
-            orderStatus = "WAITING_ACK";
-            waitingAckStatusAt = OffsetDateTime.now();
-            updateLineTelemetry();
-            publishProductionPerformancePayload();
-        } else {
-            dispatchStage(stage.stageNo);
-            ensureUpstreamSupply();
+        if ("EXECUTE".equals(order.status) && order.finalOkTotal >= order.targetQty && order.wipUnits == 0) {
+            completeOrder(order);
         }
     }
 
-    private boolean allTraysCompleted() {
-        if (!machineAssignments.isEmpty()) {
+    /**
+     * 작업지시와 이 라인 소유 tray 를 stage 순서(막힘 → 가공 중 → 대기)로 복사한다.
+     * 가공 중/빌려준 tray 는 그 stage 대기열 tray 로 저장되고, 빌려온 tray 는 원래 라인이 저장한다.
+     * 이 라인 설비 상태도 같은 tick 사이에서 함께 읽어, 배정 시점 카운터(inFlight)가 설비 카운터보다 앞서지 않게 한다.
+     */
+    private SimulationSnapshotStore.LineState snapshotState() {
+        return namespace.betweenTicks(this::copyState);
+    }
+
+    private SimulationSnapshotStore.LineState copyState() {
+        List<SimulationSnapshotStore.OrderState> savedOrders = new ArrayList<>(orders.size());
+        Map<LineOrder, Integer> orderIndexes = new HashMap<>();
+        for (LineOrder order : orders) {
+            orderIndexes.put(order, savedOrders.size());
+            savedOrders.add(new SimulationSnapshotStore.OrderState(order.orderNo, order.targetQty, order.itemCode,
+                    order.ppm, order.serialPrefix, order.status, order.finalOkTotal, order.ngTotal,
+                    epochMillis(order.executeAt), epochMillis(order.waitingAckAt), new HashMap<>(order.stagePassed)));
+        }
+        Map<Integer, List<Tray>> assigned = new HashMap<>();
+        List<SimulationSnapshotStore.InFlight> inFlight = new ArrayList<>(machineAssignments.size());
+        for (MachineAssignment assignment : machineAssignments.values()) {
+            assigned.computeIfAbsent(assignment.stageNo, key -> new ArrayList<>()).add(assignment.tray);
+            inFlight.add(new SimulationSnapshotStore.InFlight(SimulationSnapshotStore.machineKey(assignment.machine),
+                    assignment.startProduced, assignment.startOk, assignment.startNg, assignment.plannedQty));
+        }
+        for (SharedTrayRef lent : lentTrays.values()) {
+            assigned.computeIfAbsent(lent.stageNo(), key -> new ArrayList<>()).add(lent.tray());
+        }
+        List<SimulationSnapshotStore.TrayState> trays = new ArrayList<>();
+        for (int stageNo : stageOrder) {
+            StageState stage = stages.get(stageNo);
+            for (BlockedTray blocked : stage.blocked) {
+                addTrayState(trays, orderIndexes, stageNo, SimulationSnapshotStore.TRAY_BLOCKED, blocked.tray());
+            }
+            for (Tray tray : assigned.getOrDefault(stageNo, List.of())) {
+                addTrayState(trays, orderIndexes, stageNo, SimulationSnapshotStore.TRAY_QUEUED, tray);
+            }
+            for (Tray tray : stage.queue) {
+                addTrayState(trays, orderIndexes, stageNo, SimulationSnapshotStore.TRAY_QUEUED, tray);
+            }
+        }
+        List<SimulationSnapshotStore.MachineState> machineStates = new ArrayList<>(machineLoads.size());
+        for (UnitLogic machine : machineLoads.keySet()) {
+            machineStates.add(machine.captureState());
+        }
+        return new SimulationSnapshotStore.LineState(lineName, trayIdCounter, serialCounter, serialPrefix,
+                dispatchPolicy.name(), savedOrders, trays, inFlight, machineStates);
+    }
+
+    private static void addTrayState(List<SimulationSnapshotStore.TrayState> trays,
+                                     Map<LineOrder, Integer> orderIndexes,
+                                     int stageNo,
+                                     byte kind,
+                                     Tray tray) {
+        Integer orderIndex = orderIndexes.get(tray.order);
+        if (tray.origin == null && orderIndex != null) {
+            trays.add(new SimulationSnapshotStore.TrayState(stageNo, kind, orderIndex, tray.trayId, tray.plannedQty,
+                    List.copyOf(tray.serials)));
+        }
+    }
+
+    /**
+     * 기동 직후 비어 있는 라인에 작업지시/tray/counter 를 되살리고 다시 dispatch 한다.
+     * 설비 카운터는 설비 복원 때 보낸 이벤트로 이미 반영되어 있으므로 prepareLine 처럼 0 으로 만들지 않는다.
+     */
+    private boolean applySnapshot(SimulationSnapshotStore.LineState state) {
+        if (!orders.isEmpty() || !machineAssignments.isEmpty()) {
+            System.err.printf("[%s] Snapshot ignored: line already has orders%n", lineName);
             return false;
         }
-        for (StageState state : stages.values()) {
-            if (!state.queue.isEmpty()) {
-                return false;
+        DispatchPolicy policy = DispatchPolicy.parse(state.dispatchPolicy, null);
+        if (policy != null) {
+            dispatchPolicy = policy;
+            updateNode("dispatch_policy", dispatchPolicy.name());
+        }
+        List<LineOrder> restored = new ArrayList<>(state.orders.size());
+        for (SimulationSnapshotStore.OrderState saved : state.orders) {
+            LineOrder order = new LineOrder(saved.orderNo(), saved.targetQty(), saved.itemCode(), saved.ppm(),
+                    saved.serialPrefix());
+            order.status = saved.status();
+            order.finalOkTotal = saved.finalOkTotal();
+            order.ngTotal = saved.ngTotal();
+            order.executeAt = dateTime(saved.executeAt());
+            order.waitingAckAt = dateTime(saved.waitingAckAt());
+            order.stagePassed.putAll(saved.stagePassed());
+            restored.add(order);
+            orders.addLast(order);
+        }
+        trayIdCounter = state.trayIdCounter;
+        serialCounter = state.serialCounter;
+        serialPrefix = state.serialPrefix;
+        if (orders.isEmpty()) {
+            return true;
+        }
+
+        utilizationWindowStart = System.nanoTime();
+        analytics.reset(utilizationWindowStart);
+        LineOrder head = orders.peekFirst();
+        machines().forEach(machine -> machine.synchronizeOrderMetadata(namespace, head.orderNo, head.itemCode));
+        int trays = 0;
+        for (SimulationSnapshotStore.TrayState saved : state.trays) {
+            StageState stage = stages.get(saved.stageNo());
+            if (stage == null) {
+                continue;
+            }
+            Tray tray = new Tray(saved.trayId(), saved.plannedQty(), restored.get(saved.orderIndex()));
+            tray.serials.addAll(saved.serials());
+            if (saved.kind() == SimulationSnapshotStore.TRAY_BLOCKED) {
+                blockTray(stage, null, tray);
+            } else {
+                enqueueTray(stage, tray);
             }
+            trays++;
+        }
+        refreshOrderTelemetry();
+        log.info("[{}] Restored {} orders, {} trays (serialCounter={}, trayIdCounter={})",
+                lineName, orders.size(), trays, serialCounter, trayIdCounter);
+        for (int stageNo : stageOrder) {
+            dispatchStage(stageNo);
         }
         return true;
     }
 
-    private void ensureUpstreamSupply() {
-        if (!orderActive || finalOkTotal >= targetQuantity) {
+    private static long epochMillis(OffsetDateTime time) {
+        return time == null ? -1L : time.toInstant().toEpochMilli();
+    }
+
+    private static OffsetDateTime dateTime(long epochMillis) {
+        return epochMillis < 0 ? null : OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /** stage 설비가 모두 바쁜데 tray 가 밀려 있으면 같은 공장 형제 라인의 여유 설비로 tray 를 빌려준다. */
+    private void offloadToSiblings(StageState stage) {
+        FactoryCoordinator factory = coordinator;
+        if (factory == null || !stage.ready.isEmpty() || stage.machines.isEmpty()) {
             return;
         }
-        int potential = calculateOutstandingPotential();
-        if (finalOkTotal + potential >= targetQuantity) {
+        // 빌려온 tray 는 다시 빌려주지 않는다.
+        while (!stage.queue.isEmpty() && stage.queue.peekFirst().origin == null) {
+            ProductionLineController sibling = factory.reserve(this, stage.stageNo, stage.unitType());
+            if (sibling == null) {
+                return;
+            }
+            Tray tray = pollTray(stage);
+            if (stage.stageNo == STAGE_TRAY_CLEAN && tray.serials.isEmpty()) {
+                generateSerials(tray, tray.plannedQty);
+            }
+            // 돌아올 때까지 작업지시 WIP 에 남겨 추가 투입/완료 판정이 어긋나지 않게 한다.
+            tray.order.wipUnits += tray.plannedQty;
+            lentTrays.put(tray.trayId, new SharedTrayRef(tray, stage.stageNo, sibling.lineName));
+            sharedDirty = true;
+            log.debug("[{}] Lend tray {} (serials={}) stage={} to {}",
+                    lineName, tray.trayId, tray.serials.size(), stage.stageNo, sibling.lineName);
+            LineOrder order = tray.order;
+            sibling.post(new SharedTrayOffered(this, tray.trayId, stage.stageNo, List.copyOf(tray.serials),
+                    order.orderNo, order.itemCode, order.ppm, order.serialPrefix));
+        }
+    }
+
+    /** 형제 라인이 빌려준 tray. 그 사이 여유가 없어졌으면 가공하지 않고 바로 돌려보낸다. */
+    private void acceptSharedTray(SharedTrayOffered offer) {
+        StageState stage = stages.get(offer.stageNo());
+        if (stage == null || stage.ready.isEmpty() || !stage.queue.isEmpty()) {
+            offer.origin().post(new SharedTrayReturned(offer.trayId(), offer.serials(), List.of(), "", 0, 0, false));
             return;
         }
-        StageState firstStage = stages.get(STAGE_TRAY_CLEAN);
-        if (firstStage != null) {
-            firstStage.queue.addLast(new Tray(nextTrayId(), TRAY_CAPACITY));
-            dispatchStage(STAGE_TRAY_CLEAN);
+        // 빌려온 tray 의 작업지시는 이 라인 대기열에 넣지 않고 설비 order_no/item_code/PPM 표시에만 쓴다.
+        LineOrder foreignOrder = new LineOrder(offer.orderNo(), 0, offer.itemCode(), offer.ppm(), offer.serialPrefix());
+        foreignOrder.status = "EXECUTE";
+        Tray tray = new Tray(offer.trayId(), offer.serials().size(), foreignOrder, offer.origin());
+        tray.serials.addAll(offer.serials());
+        borrowedTrays.put(sharedKey(offer.origin(), offer.trayId()),
+                new SharedTrayRef(tray, stage.stageNo, offer.origin().lineName));
+        sharedDirty = true;
+        log.debug("[{}] Borrow tray {} from {} stage={}",
+                lineName, offer.trayId(), offer.origin().lineName, stage.stageNo);
+        enqueueTray(stage, tray);
+        dispatchStage(stage.stageNo);
+    }
+
+    /**
+     * 빌려온 tray 를 돌려준 설비는 빌려준 라인의 order_no/연속 모드/목표 수량을 그대로 들고 있다.
+     * 이 라인에 자기 작업지시가 없으면 acknowledge() 와 같이 설비 작업지시 상태를 정리한다.
+     */
+    private void releaseForeignOrder(UnitLogic machine) {
+        if (!orders.isEmpty()) {
+            return;
+        }
+        machineOrders.remove(machine);
+        machine.endContinuousOrder();
+        machine.resetOrderState(namespace);
+    }
+
+    private void returnBorrowedTray(Tray tray) {
+        borrowedTrays.remove(sharedKey(tray.origin, tray.trayId));
+        sharedDirty = true;
+        tray.origin.post(new SharedTrayReturned(tray.trayId, List.copyOf(tray.serials), List.of(), "", 0, 0, false));
+    }
+
+    /** 빌려준 tray 가 돌아왔다. 가공되지 않았으면 같은 stage 에서 다시 기다리고, 가공됐으면 다음 stage 로 진행한다. */
+    private void onSharedTrayReturned(SharedTrayReturned returned) {
+        SharedTrayRef lent = lentTrays.remove(returned.trayId());
+        if (lent == null) {
+            // STOP 으로 이미 정리된 tray
+            return;
+        }
+        sharedDirty = true;
+        Tray tray = lent.tray();
+        StageState stage = stages.get(lent.stageNo());
+        tray.order.wipUnits -= tray.plannedQty;
+        if (returned.processed()) {
+            tray.serials.clear();
+            tray.serials.addAll(returned.serials());
+            tray.plannedQty = tray.serials.size();
+            tray.order.ngTotal += returned.ngDelta();
+            genealogy.recordStage(stage.stageNo, returned.machine(), returned.serials(), returned.rejectedSerials(),
+                    System.currentTimeMillis());
+            log.debug("[{}] Tray {} returned from {} stage={} serials={}",
+                    lineName, tray.trayId, lent.line(), stage.stageNo, tray.plannedQty);
+            advanceTray(stage, null, tray, returned.okDelta());
+        } else {
+            // 빌려준 사이 버퍼가 다시 찼을 수 있으나 tray 를 버릴 수 없으므로 용량을 넘더라도 다시 넣는다.
+            enqueueTray(stage, tray);
         }
+        dispatchStage(stage.stageNo);
+        ensureUpstreamSupply();
     }
 
-    private int calculateOutstandingPotential() {
-        int potential = 0;
+    private void publishIdleCapacity(boolean force) {
+        FactoryCoordinator factory = coordinator;
+        if (factory == null) {
+            return;
+        }
         for (StageState stage : stages.values()) {
-            for (Tray tray : stage.queue) {
-                potential += Math.max(0, tray.plannedQty);
+            int idle = stage.queue.isEmpty() ? stage.ready.size() : 0;
+            if (force || idle != stage.publishedIdle) {
+                stage.publishedIdle = idle;
+                factory.publishIdle(this, stage.stageNo, stage.unitType(), idle);
             }
         }
-        for (MachineAssignment assignment : machineAssignments.values()) {
-            int producedDelta = machineProduction.getOrDefault(assignment.machine, 0) - assignment.startProduced;
-            potential += Math.max(0, assignment.plannedQty - producedDelta);
+    }
+
+    private static String sharedKey(ProductionLineController origin, String trayId) {
+        return origin.lineName + "/" + trayId;
+    }
+
+    /** 불량으로 줄어든 수량까지 포함해 TrayClean 버퍼를 다시 채운다. */
+    private void ensureUpstreamSupply() {
+        if (stages.containsKey(STAGE_TRAY_CLEAN)) {
+            dispatchStage(STAGE_TRAY_CLEAN);
+        }
+    }
+
+    /**
+     * 작업지시 접수 순서대로, 목표 수량을 채우는 데 필요한 만큼만 TrayClean 버퍼에 자리가 있고
+     * 라인 WIP 한도 안일 때 새 tray 를 투입한다. 앞 작업지시가 더 필요하면 뒤 작업지시는 기다리며,
+     * 대기 중인 작업지시는 TrayClean 에 앞 작업지시 tray 가 하나도 남지 않았을 때 시작된다.
+     * 시리얼은 tray 가 설비에 배정될 때 만든다.
+     */
+    private boolean releaseTrays(StageState firstStage) {
+        boolean released = false;
+        for (LineOrder order : orders) {
+            if ("QUEUED".equals(order.status)) {
+                if (!firstStage.queue.isEmpty() || firstStage.activeTrays > 0 || !firstStage.blocked.isEmpty()) {
+                    break;
+                }
+                activateOrder(order);
+            }
+            if (!"EXECUTE".equals(order.status)) {
+                continue;
+            }
+            while (order.needsRelease()
+                    && firstStage.hasRoom()
+                    && (LINE_WIP_LIMIT <= 0 || queuedTrays + machineAssignments.size() < LINE_WIP_LIMIT)) {
+                enqueueTray(firstStage, new Tray(nextTrayId(), TRAY_CAPACITY, order));
+                released = true;
+            }
+            if (order.needsRelease()) {
+                break;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * stage 버퍼에 자리가 나면 앞 stage 에서 막혀 있던 tray 를 완료 순서대로 받아 온다.
+     * 풀려난 설비가 다시 tray 를 받을 수 있으므로 앞 stage 도 이어서 dispatch 한다 (막힘이 역방향으로 풀린다).
+     */
+    private boolean refillBuffer(StageState stage) {
+        if (stage.stageNo == STAGE_TRAY_CLEAN) {
+            return releaseTrays(stage);
+        }
+        int stageIndex = stageOrder.indexOf(stage.stageNo);
+        StageState upstream = stageIndex > 0 ? stages.get(stageOrder.get(stageIndex - 1)) : null;
+        if (upstream == null) {
+            return false;
+        }
+        boolean moved = false;
+        while (stage.hasRoom() && !upstream.blocked.isEmpty()) {
+            BlockedTray blocked = unblockTray(upstream);
+            enqueueTray(stage, blocked.tray());
+            moved = true;
+        }
+        if (moved) {
+            dispatchStage(upstream.stageNo);
+        }
+        return moved;
+    }
+
+    private void blockTray(StageState stage, UnitLogic machine, Tray tray) {
+        stage.blocked.addLast(new BlockedTray(machine, tray));
+        if (machine != null) {
+            blockedMachines.add(machine);
+            refreshReadiness(machine);
+        }
+        tray.order.wipUnits += Math.max(0, tray.plannedQty);
+        queuedUnits += Math.max(0, tray.plannedQty);
+        queuedTrays++;
+        wipDirty = true;
+        flowChanged(stage);
+        log.debug("[{}] Stage {} blocked: {} holds tray {}",
+                lineName, stage.stageNo, machine != null ? machine.getName() : "returned", tray.trayId);
+    }
+
+    private BlockedTray unblockTray(StageState stage) {
+        BlockedTray blocked = stage.blocked.pollFirst();
+        if (blocked.machine() != null) {
+            blockedMachines.remove(blocked.machine());
+            refreshReadiness(blocked.machine());
+        }
+        blocked.tray().order.wipUnits -= Math.max(0, blocked.tray().plannedQty);
+        queuedUnits -= Math.max(0, blocked.tray().plannedQty);
+        queuedTrays--;
+        wipDirty = true;
+        flowChanged(stage);
+        return blocked;
+    }
+
+    private void enqueueTray(StageState stage, Tray tray) {
+        stage.queue.addLast(tray);
+        tray.order.wipUnits += Math.max(0, tray.plannedQty);
+        queuedUnits += Math.max(0, tray.plannedQty);
+        queuedTrays++;
+        wipDirty = true;
+        analytics.trayArrived(stage.stageNo);
+        flowChanged(stage);
+    }
+
+    private Tray pollTray(StageState stage) {
+        Tray tray = stage.queue.pollFirst();
+        if (tray != null) {
+            tray.order.wipUnits -= Math.max(0, tray.plannedQty);
+            queuedUnits -= Math.max(0, tray.plannedQty);
+            queuedTrays--;
+            wipDirty = true;
+            flowChanged(stage);
+        }
+        return tray;
+    }
+
+    private void clearQueues() {
+        stages.values().forEach(StageState::clearQueue);
+        List<UnitLogic> released = new ArrayList<>(blockedMachines);
+        blockedMachines.clear();
+        released.forEach(this::refreshReadiness);
+        queuedUnits = 0;
+        queuedTrays = 0;
+        wipDirty = true;
+        stages.values().forEach(this::flowChanged);
+    }
+
+    private void addAssignment(MachineAssignment assignment) {
+        MachineAssignment previous = machineAssignments.put(assignment.machine, assignment);
+        if (previous != null) {
+            releaseAssignment(previous);
+        }
+        assignedUnits += assignment.plannedQty;
+        assignment.tray.order.wipUnits += assignment.plannedQty;
+        machineLoads.get(assignment.machine).lastAssignedNanos = assignment.assignedAtNanos;
+        StageState stage = stages.get(assignment.stageNo);
+        stage.activeTrays++;
+        flowChanged(stage);
+        wipDirty = true;
+        refreshReadiness(assignment.machine);
+    }
+
+    private MachineAssignment removeAssignment(UnitLogic machine) {
+        MachineAssignment assignment = machineAssignments.remove(machine);
+        if (assignment != null) {
+            releaseAssignment(assignment);
+            refreshReadiness(machine);
+        }
+        return assignment;
+    }
+
+    private void releaseAssignment(MachineAssignment assignment) {
+        assignedUnits -= assignment.plannedQty;
+        assignment.tray.order.wipUnits -= assignment.plannedQty;
+        machineLoads.get(assignment.machine).busyNanos += System.nanoTime() - assignment.assignedAtNanos;
+        StageState stage = stages.get(assignment.stageNo);
+        stage.activeTrays--;
+        flowChanged(stage);
+        wipDirty = true;
+    }
+
+    private void clearAssignments() {
+        long now = System.nanoTime();
+        machineAssignments.values().forEach(assignment ->
+                machineLoads.get(assignment.machine).busyNanos += now - assignment.assignedAtNanos);
+        machineAssignments.clear();
+        stages.values().forEach(stage -> {
+            stage.activeTrays = 0;
+            flowChanged(stage);
+        });
+        machineStates.keySet().forEach(this::refreshReadiness);
+        assignedUnits = 0;
+        wipDirty = true;
+    }
+
+    /** stage 의 대기/가공/막힘 tray 수가 바뀐 직후 호출한다. */
+    private void flowChanged(StageState stage) {
+        analytics.stageChanged(stage.stageNo, stage.queue.size(), stage.activeTrays, stage.blocked.size(),
+                System.nanoTime());
+    }
+
+    private void publishWip() {
+        wipDirty = false;
+        updateNode("wip_units", queuedUnits + assignedUnits);
+        int maxStage = stageOrder.isEmpty() ? 0 : stageOrder.get(stageOrder.size() - 1);
+        Integer[] trays = new Integer[maxStage];
+        Arrays.fill(trays, 0);
+        String[] status = new String[maxStage];
+        Arrays.fill(status, "");
+        boolean producing = orderActive;
+        for (StageState stage : stages.values()) {
+            trays[stage.stageNo - 1] = stage.queue.size() + stage.activeTrays + stage.blocked.size();
+            status[stage.stageNo - 1] = !stage.blocked.isEmpty() ? "BLOCKED"
+                    : stage.activeTrays > 0 ? "RUNNING"
+                    : producing ? "STARVED"
+                    : "IDLE";
+        }
+        updateNode("wip_trays", trays);
+        updateNode("stage_status", status);
+        if (sharedDirty) {
+            sharedDirty = false;
+            publishSharedTrays();
         }
-        return potential;
     }
 
+    /**
+     * 대기 tray 를 stage 의 ready 설비에 순서대로 배정하고, 비워진 버퍼만큼 앞 stage 에서 tray 를 받아 다시 배정한다.
+     * ready 집합은 상태/ACK/배정 변화 때 갱신되므로 여기서는 설비를 훑지 않는다.
+     */
     private void dispatchStage(int stageNo) {
         StageState stage = stages.get(stageNo);
         if (stage == null) return;
-        while (!stage.queue.isEmpty()) {
-            boolean anyAssigned = false;
-            System.out.printf("[LineController] Dispatch stage %d queue size=%d%n", stageNo, stage.queue.size());
-            for (UnitLogic machine : stage.machines) {
-                if (stage.queue.isEmpty()) break;
-                if (machineAssignments.containsKey(machine)) continue;
-                if (machine.awaitingMesAck) continue;
-                String stateName = machineStates.getOrDefault(machine, machine.state);
-                System.out.printf("[LineController]  machine=%s state=%s awaitingAck=%s%n",
-                        machine.getName(),
-                        stateName,
-                        machine.awaitingMesAck);
-                if (!"IDLE".equalsIgnoreCase(stateName)) continue;
-
-                Tray tray = stage.queue.pollFirst();
-                if (tray == null) break;
+        do {
+            while (!stage.queue.isEmpty() && !stage.ready.isEmpty()) {
+                UnitLogic machine = selectMachine(stage, stage.queue.peekFirst().plannedQty);
+                Tray tray = pollTray(stage);
                 assignTrayToMachine(stage.stageNo, machine, tray);
-                anyAssigned = true;
-            }
-            if (!anyAssigned) {
-                break;
             }
+            offloadToSiblings(stage);
+        } while (refillBuffer(stage));
+    }
+
+    private UnitLogic selectMachine(StageState stage, int trayQty) {
+        UnitLogic machine = dispatchPolicy.select(stage.ready, stage.machines, stage.lastAssigned, trayQty, machineLoads);
+        stage.ready.remove(machine);
+        stage.lastAssigned = machine;
+        return machine;
+    }
+
+    /** IDLE 이고 ACK 대기가 아니며 배정되거나 막힌 tray 가 없는 설비만 stage 의 ready 집합에 둔다. */
+    private void refreshReadiness(UnitLogic machine) {
+        StageState stage = stages.get(machine.getMachineNo());
+        if (stage == null) {
+            return;
+        }
+        boolean ready = !machineAssignments.containsKey(machine)
+                && !blockedMachines.contains(machine)
+                && !ackPendingMachines.contains(machine)
+                && "IDLE".equalsIgnoreCase(machineStates.get(machine));
+        if (ready) {
+            stage.ready.add(machine);
+        } else {
+            stage.ready.remove(machine);
         }
     }
 
     private void assignTrayToMachine(int stageNo, UnitLogic machine, Tray tray) {
+        LineOrder order = tray.order;
         if (stageNo == STAGE_TRAY_CLEAN && tray.serials.isEmpty()) {
-            tray.serials.addAll(generateSerials(tray.plannedQty));
+            generateSerials(tray, tray.plannedQty);
         }
         System.out.printf("[LineController] Assign tray %s (serials=%d) to %s stage=%d%n",
                 tray.trayId,
@@ -479,25 +1340,32 @@ public class ProductionLineController {
                 machine.getName(),
                 stageNo);
         machine.assignTray(namespace, tray.trayId, tray.serials);
-        if (!machine.isContinuousMode()) {
-            machine.beginContinuousOrder(namespace, currentOrderNo, tray.plannedQty, machine.getDefaultPpm(), currentOrderItemCode);
+        // 다른 작업지시의 tray 를 받으면 연속 모드 중이라도 order_no/item_code/PPM 을 tray 기준으로 바꾼다.
+        if (!machine.isContinuousMode() || machineOrders.get(machine) != order) {
+            int machinePpm = order.ppm > 0 ? order.ppm : machine.getDefaultPpm();
+            machineLoads.get(machine).ppm = machinePpm;
+            stages.get(stageNo).refreshRate(machineLoads);
+            machine.beginContinuousOrder(namespace, order.orderNo, tray.plannedQty, machinePpm, order.itemCode);
+            machineOrders.put(machine, order);
         } else {
             machine.appendOrderTarget(namespace, tray.plannedQty);
-            machine.updateOrderItemCode(namespace, currentOrderItemCode);
+            machine.updateOrderItemCode(namespace, order.itemCode);
         }
         MachineAssignment assignment = new MachineAssignment(stageNo, machine, tray,
                 machineProduction.getOrDefault(machine, 0),
                 machineOkCounts.getOrDefault(machine, 0),
                 machineNgCounts.getOrDefault(machine, 0));
-        machineAssignments.put(machine, assignment);
+        addAssignment(assignment);
     }
 
-    private List<String> generateSerials(int count) {
+    /** TrayClean 에서 tray 에 serial 을 붙이고 genealogy 에 등록한다. */
+    private void generateSerials(Tray tray, int count) {
         List<String> serials = new ArrayList<>(Math.max(0, count));
         for (int i = 0; i < count; i++) {
-            serials.add(serialPrefix + String.format("%020d", serialCounter++));
+            serials.add(tray.order.serialPrefix + String.format("%020d", serialCounter++));
         }
-        return serials;
+        tray.serials.addAll(serials);
+        genealogy.register(serials, tray.trayId, tray.order.orderNo, tray.order.serialPrefix, System.currentTimeMillis());
     }
 
     private String nextTrayId() {
@@ -522,39 +1390,199 @@ public class ProductionLineController {
         updateNode("mes_ack_pending", awaitingAck);
     }
 
-    private void publishProductionPerformancePayload() {
-        String execTime = executeStatusStartedAt == null ? "" : executeStatusStartedAt.toString();
-        String waitingTime = waitingAckStatusAt == null ? "" : waitingAckStatusAt.toString();
-        int totalNg = calculateTotalNgCount();
-        String payload = String.format(
-                "{\"order_no\":\"%s\",\"line_code\":\"%s\",\"item_code\":\"%s\",\"order_produced_qty\":%d,\"order_ng_qty\":%d,\"execute_at\":\"%s\",\"waiting_ack_at\":\"%s\"}",
-                orderNo == null ? "" : orderNo,
-                lineCode,
-                orderItemCode == null ? "" : orderItemCode,
-                finalOkTotal,
-                totalNg,
-                execTime,
-                waitingTime
-        );
-        updateNode("production_performance_payload", payload);
+    private void publishUtilization(long now) {
+        double window = Math.max(1L, now - utilizationWindowStart);
+        JsonPayloadWriter json = JsonPayloadWriter.acquire().beginObject();
+        for (int stageNo : stageOrder) {
+            for (UnitLogic machine : stages.get(stageNo).machines) {
+                long busy = machineLoads.get(machine).busyNanos;
+                MachineAssignment assignment = machineAssignments.get(machine);
+                if (assignment != null) {
+                    busy += now - assignment.assignedAtNanos;
+                }
+                json.field(machine.getName(), Math.min(1.0, busy / window), 3);
+            }
+        }
+        updateNode("machine_utilization", json.endObject().toJson());
+    }
+
+    private void publishAnalytics(long now) {
+        LineAnalytics.Snapshot snapshot = analytics.snapshot(now);
+        analyticsSnapshot = snapshot;
+        int maxStage = stageOrder.isEmpty() ? 0 : stageOrder.get(stageOrder.size() - 1);
+        Double[] utilization = new Double[maxStage];
+        Double[] queueAvg = new Double[maxStage];
+        Double[] waitSec = new Double[maxStage];
+        Arrays.fill(utilization, 0.0);
+        Arrays.fill(queueAvg, 0.0);
+        Arrays.fill(waitSec, 0.0);
+        for (LineAnalytics.StageSnapshot stage : snapshot.getStages()) {
+            utilization[stage.getStageNo() - 1] = round(stage.getUtilization(), 1000.0);
+            queueAvg[stage.getStageNo() - 1] = round(stage.getAvgQueue(), 100.0);
+            waitSec[stage.getStageNo() - 1] = round(stage.getAvgWaitSec(), 10.0);
+        }
+        updateNode("analytics.throughput_upm", round(snapshot.getThroughputUpm(), 10.0));
+        updateNode("analytics.cycle_time_sec", round(snapshot.getCycleTimeSec(), 100.0));
+        updateNode("analytics.bottleneck_stage", snapshot.getBottleneckStage());
+        updateNode("analytics.stage_utilization", utilization);
+        updateNode("analytics.stage_queue_avg", queueAvg);
+        updateNode("analytics.stage_wait_sec", waitSec);
+    }
+
+    private static double round(double value, double scale) {
+        return Math.round(value * scale) / scale;
     }
 
-    private int calculateTotalNgCount() {
-        int total = 0;
-        for (Map.Entry<UnitLogic, Integer> entry : machineNgCounts.entrySet()) {
-            UnitLogic machine = entry.getKey();
-            if (machine != null) {
-                String type = machine.getUnitType();
-                if (type != null && "TRAY_CLEAN".equalsIgnoreCase(type.trim())) {
+    /** 가장 먼저 접수된 미확인 작업지시를 라인 order_* 태그에 반영하고 orderActive/awaitingAck 를 다시 계산한다. */
+    private void refreshOrderTelemetry() {
+        orderActive = false;
+        awaitingAck = false;
+        for (LineOrder order : orders) {
+            orderActive |= "EXECUTE".equals(order.status);
+            awaitingAck |= "WAITING_ACK".equals(order.status);
+        }
+        LineOrder head = orders.peekFirst();
+        if (head != null) {
+            orderNo = head.orderNo;
+            targetQuantity = head.targetQty;
+            linePpm = head.ppm;
+            orderItemCode = head.itemCode;
+            orderStatus = "QUEUED".equals(head.status) ? "PREPARING" : head.status;
+            updateNode("order_produced_qty", head.finalOkTotal);
+            updateNode("production_performance_payload",
+                    "WAITING_ACK".equals(head.status) ? productionPerformancePayload(head) : "");
+        }
+        if (orders.isEmpty()) {
+            updateNode("order_eta", "[]");
+            updateNode("order_remaining_sec", -1.0);
+        }
+        // STARVED 판정이 orderActive 를 따른다
+        wipDirty = true;
+        updateLineTelemetry();
+        publishOrderQueue();
+    }
+
+    /**
+     * 작업지시별 남은 시간 = stage 마다 (접수 순서로 앞 작업지시까지 누적한 미통과 수량 / stage 처리율
+     * + 이후 stage 를 tray 하나가 지나가는 시간) 중 가장 큰 값.
+     * stage 처리율과 통과 수량은 tray 완료 때마다 갱신되어 있으므로 여기서는 작업지시 × stage 만큼만 계산한다.
+     * 가공 중인 tray 는 설비가 이미 생산한 수량만큼 통과한 것으로 본다.
+     */
+    private void publishEta() {
+        Map<LineOrder, Map<Integer, Integer>> inProgress = new HashMap<>();
+        for (MachineAssignment assignment : machineAssignments.values()) {
+            int produced = machineProduction.getOrDefault(assignment.machine, 0) - assignment.startProduced;
+            if (produced > 0) {
+                inProgress.computeIfAbsent(assignment.tray.order, key -> new HashMap<>())
+                        .merge(assignment.stageNo, Math.min(produced, assignment.plannedQty), Integer::sum);
+            }
+        }
+        int stageCount = stageOrder.size();
+        // tail[i] = stage i 다음부터 마지막 stage 까지 tray 하나가 걸리는 시간 (처리율을 모르는 stage 가 있으면 -1)
+        double[] tail = new double[stageCount];
+        double downstream = 0.0;
+        for (int i = stageCount - 1; i >= 0; i--) {
+            tail[i] = downstream;
+            StageState stage = stages.get(stageOrder.get(i));
+            if (downstream >= 0.0) {
+                downstream = stage.unitsPerSecond > 0.0
+                        ? downstream + TRAY_CAPACITY * stage.machines.size() / stage.unitsPerSecond
+                        : -1.0;
+            }
+        }
+        long[] cumulativeNeed = new long[stageCount];
+        OffsetDateTime now = OffsetDateTime.now();
+        JsonPayloadWriter json = JsonPayloadWriter.acquire().beginArray();
+        double headRemaining = -1.0;
+        for (LineOrder order : orders) {
+            double remaining = 0.0;
+            Map<Integer, Integer> producing = inProgress.getOrDefault(order, Map.of());
+            for (int i = 0; i < stageCount; i++) {
+                int passed = order.stagePassed.getOrDefault(stageOrder.get(i), 0)
+                        + producing.getOrDefault(stageOrder.get(i), 0);
+                cumulativeNeed[i] += Math.max(0, order.targetQty - passed);
+                if (cumulativeNeed[i] == 0 || remaining < 0.0) {
                     continue;
                 }
+                StageState stage = stages.get(stageOrder.get(i));
+                if (stage.unitsPerSecond <= 0.0 || tail[i] < 0.0) {
+                    remaining = -1.0;
+                } else {
+                    remaining = Math.max(remaining, cumulativeNeed[i] / stage.unitsPerSecond + tail[i]);
+                }
             }
-            Integer value = entry.getValue();
-            if (value != null) {
-                total += value;
+            if ("WAITING_ACK".equals(order.status)) {
+                remaining = 0.0;
             }
+            if (order == orders.peekFirst()) {
+                headRemaining = remaining;
+            }
+            String eta = remaining < 0.0 ? ""
+                    : now.plus(Duration.ofMillis(Math.round(remaining * 1000.0))).truncatedTo(ChronoUnit.SECONDS).toString();
+            json.beginObject()
+                    .field("order_no", order.orderNo)
+                    .field("status", order.status)
+                    .field("remaining_sec", remaining < 0.0 ? -1.0 : remaining, 1)
+                    .field("eta", eta)
+                    .endObject();
+        }
+        updateNode("order_eta", json.endArray().toJson());
+        updateNode("order_remaining_sec", headRemaining < 0.0 ? -1.0 : round(headRemaining, 10.0));
+    }
+
+    private void publishSharedTrays() {
+        JsonPayloadWriter json = JsonPayloadWriter.acquire().beginObject().name("lent").beginArray();
+        for (SharedTrayRef lent : lentTrays.values()) {
+            json.beginObject()
+                    .field("tray_id", lent.tray().trayId)
+                    .field("to_line", lent.line())
+                    .field("stage", lent.stageNo())
+                    .endObject();
+        }
+        json.endArray().name("borrowed").beginArray();
+        for (SharedTrayRef borrowed : borrowedTrays.values()) {
+            json.beginObject()
+                    .field("tray_id", borrowed.tray().trayId)
+                    .field("from_line", borrowed.line())
+                    .field("order_no", borrowed.tray().order.orderNo)
+                    .field("stage", borrowed.stageNo())
+                    .endObject();
         }
-        return total;
+        updateNode("shared_trays", json.endArray().endObject().toJson());
+    }
+
+    private void publishOrderQueue() {
+        JsonPayloadWriter json = JsonPayloadWriter.acquire().beginArray();
+        for (LineOrder order : orders) {
+            json.beginObject()
+                    .field("order_no", order.orderNo)
+                    .field("item_code", order.itemCode)
+                    .field("status", order.status)
+                    .field("target_qty", order.targetQty)
+                    .field("produced_qty", order.finalOkTotal)
+                    .endObject();
+        }
+        updateNode("order_queue", json.endArray().toJson());
+    }
+
+    private String productionPerformancePayload(LineOrder order) {
+        String execTime = order.executeAt == null ? "" : order.executeAt.toString();
+        String waitingTime = order.waitingAckAt == null ? "" : order.waitingAckAt.toString();
+        return JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("order_no", order.orderNo)
+                .field("line_code", lineCode)
+                .field("item_code", order.itemCode)
+                .field("order_produced_qty", order.finalOkTotal)
+                .field("order_ng_qty", order.ngTotal)
+                .field("execute_at", execTime)
+                .field("waiting_ack_at", waitingTime)
+                .endObject()
+                .toJson();
+    }
+
+    private static int bufferCapacity(int stageNo) {
+        return Math.max(1, Integer.getInteger("milo.line.buffer.capacity." + stageNo, DEFAULT_BUFFER_CAPACITY));
     }
 
     private void updateNode(String key, Object value) {
@@ -564,29 +1592,179 @@ public class ProductionLineController {
         }
     }
 
+    /** 이벤트 루프로 전달되는 불변 메시지 */
+    private sealed interface LineEvent
+            permits MachineRegistered, MachineProduced, MachineQualityChanged, MachineStateChanged,
+            MachineAckPendingChanged, MachineReset, SharedTrayOffered, SharedTrayReturned, DispatchPolicyChanged,
+            StateCaptureRequested, StateRestoreRequested, LineCommand {
+    }
+
+    private record MachineRegistered(UnitLogic machine, String state, boolean ackPending) implements LineEvent {
+    }
+
+    private record MachineProduced(UnitLogic machine, int producedQty, int targetQty) implements LineEvent {
+    }
+
+    private record MachineQualityChanged(UnitLogic machine, int okTotal, int ngTotal) implements LineEvent {
+    }
+
+    private record MachineStateChanged(UnitLogic machine, String state) implements LineEvent {
+    }
+
+    private record MachineAckPendingChanged(UnitLogic machine, boolean pending, String state) implements LineEvent {
+    }
+
+    private record MachineReset(UnitLogic machine, String state) implements LineEvent {
+    }
+
+    /** 형제 라인(origin)이 stage 가공을 맡기는 tray. 시리얼은 복사본이다. */
+    private record SharedTrayOffered(ProductionLineController origin,
+                                     String trayId,
+                                     int stageNo,
+                                     List<String> serials,
+                                     String orderNo,
+                                     String itemCode,
+                                     int ppm,
+                                     String serialPrefix) implements LineEvent {
+    }
+
+    /** processed 가 false 이면 가공하지 않고 돌려보낸 tray. machine 은 가공한 형제 라인 설비 */
+    private record SharedTrayReturned(String trayId,
+                                      List<String> serials,
+                                      List<String> rejectedSerials,
+                                      String machine,
+                                      int okDelta,
+                                      int ngDelta,
+                                      boolean processed) implements LineEvent {
+    }
+
+    private record DispatchPolicyChanged(DispatchPolicy policy) implements LineEvent {
+    }
+
+    private record StateCaptureRequested(CompletableFuture<SimulationSnapshotStore.LineState> reply)
+            implements LineEvent {
+    }
+
+    private record StateRestoreRequested(SimulationSnapshotStore.LineState state, CompletableFuture<Boolean> reply)
+            implements LineEvent {
+    }
+
+    /** reply 가 null 이면 결과를 기다리는 호출자가 없다 (문자열 command 노드) */
+    private record LineCommand(String action,
+                               String orderId,
+                               int targetQty,
+                               String itemCode,
+                               int ppm,
+                               CompletableFuture<StatusCode> reply) implements LineEvent {
+    }
+
     private static final class StageState {
         final int stageNo;
+        // 입력 버퍼(queue) 에 둘 수 있는 tray 수
+        final int capacity;
         final List<UnitLogic> machines = new ArrayList<>();
         final Deque<Tray> queue = new ArrayDeque<>();
+        // 이 stage 에서 완료됐지만 다음 stage 버퍼가 가득 차 설비에 남아 있는 tray (완료 순서)
+        final Deque<BlockedTray> blocked = new ArrayDeque<>();
+        // 이 stage 설비에 배정되어 가공 중인 tray 수
+        int activeTrays = 0;
+        // 바로 tray 를 받을 수 있는 설비 (ready 가 된 순서)
+        final Set<UnitLogic> ready = new LinkedHashSet<>();
+        // 이 stage 에서 마지막으로 tray 를 배정받은 설비 (ROUND_ROBIN 기준점)
+        UnitLogic lastAssigned;
+        // FactoryCoordinator 에 마지막으로 알린 여유 설비 수
+        int publishedIdle = -1;
+        // 설비 예상 처리율 합 (개/초). ETA 의 stage 처리율
+        double unitsPerSecond = 0.0;
 
-        StageState(int stageNo) {
+        StageState(int stageNo, int capacity) {
             this.stageNo = stageNo;
+            this.capacity = capacity;
+        }
+
+        /** 설비별 예상 단위 시간(실측 cycle 평균, 없으면 60 / PPM)의 역수 합. 모르는 설비는 빼고 모두 모르면 0 */
+        void refreshRate(Map<UnitLogic, DispatchPolicy.MachineLoad> loads) {
+            double rate = 0.0;
+            for (UnitLogic machine : machines) {
+                DispatchPolicy.MachineLoad load = loads.get(machine);
+                double seconds = load == null ? Double.MAX_VALUE : load.expectedSecondsPerUnit();
+                if (seconds > 0.0 && seconds < Double.MAX_VALUE) {
+                    rate += 1.0 / seconds;
+                }
+            }
+            unitsPerSecond = rate;
+        }
+
+        String unitType() {
+            return machines.isEmpty() ? "" : machines.get(0).getUnitType();
+        }
+
+        boolean hasRoom() {
+            return queue.size() < capacity;
         }
 
         void clearQueue() {
             queue.clear();
+            blocked.clear();
+        }
+    }
+
+    /** machine 이 null 이면 형제 라인에서 가공을 마치고 돌아왔지만 다음 버퍼가 가득 찬 tray */
+    private record BlockedTray(UnitLogic machine, Tray tray) {
+    }
+
+    /** 형제 라인과 주고받은 tray. line 은 상대 라인 이름 */
+    private record SharedTrayRef(Tray tray, int stageNo, String line) {
+    }
+
+    /** MES 작업지시 하나. status 는 QUEUED → EXECUTE → WAITING_ACK 순서로 바뀌고 ACK 되면 라인에서 빠진다. */
+    private static final class LineOrder {
+        final String orderNo;
+        final int targetQty;
+        final String itemCode;
+        final int ppm;
+        final String serialPrefix;
+        String status = "QUEUED";
+        int finalOkTotal = 0;
+        int ngTotal = 0;
+        // 라인 안(대기/가공/막힘)에 있는 이 작업지시 tray 의 계획 수량
+        int wipUnits = 0;
+        // stage 번호 → 그 stage 를 마치고 나간 수량 (ETA 의 stage 별 남은 수량)
+        final Map<Integer, Integer> stagePassed = new HashMap<>();
+        OffsetDateTime executeAt;
+        OffsetDateTime waitingAckAt;
+
+        LineOrder(String orderNo, int targetQty, String itemCode, int ppm, String serialPrefix) {
+            this.orderNo = orderNo;
+            this.targetQty = targetQty;
+            this.itemCode = itemCode;
+            this.ppm = ppm;
+            this.serialPrefix = serialPrefix;
+        }
+
+        boolean needsRelease() {
+            return finalOkTotal + wipUnits < targetQty;
         }
     }
 
     private static final class Tray {
         final String trayId;
+        final LineOrder order;
+        // 형제 라인에서 빌려온 tray 이면 원래 라인
+        final ProductionLineController origin;
         int plannedQty;
         final List<String> serials = new ArrayList<>();
         final List<String> rejectedSerials = new ArrayList<>();
 
-        Tray(String trayId, int plannedQty) {
+        Tray(String trayId, int plannedQty, LineOrder order) {
+            this(trayId, plannedQty, order, null);
+        }
+
+        Tray(String trayId, int plannedQty, LineOrder order, ProductionLineController origin) {
             this.trayId = trayId;
             this.plannedQty = plannedQty;
+            this.order = order;
+            this.origin = origin;
         }
     }
 
@@ -598,6 +1776,7 @@ public class ProductionLineController {
         final int startProduced;
         final int startOk;
         final int startNg;
+        final long assignedAtNanos = System.nanoTime();
 
         MachineAssignment(int stageNo,
                           UnitLogic machine,
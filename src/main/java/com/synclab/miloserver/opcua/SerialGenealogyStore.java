@@ -0,0 +1,422 @@
+package com.synclab.miloserver.opcua;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 라인 serial 이력(tray, stage 별 설비/완료 시각, NG 판정) 저장소.
+ * serial 은 라인 안에서 "prefix + 20자리 counter" 로 만들어지므로 (counter - 1) % capacity 를 행 번호로 쓰는 ring 이고,
+ * 각 속성은 행 번호로 인덱싱하는 원시 타입 배열(열)에 둔다. tray id / 설비 이름 / 작업지시는 사전으로 intern 한다.
+ * <pre>
+ * 행당 약 28 + stage 수 × 6 byte (+ tray/작업지시 역색인 16 byte)
+ * serial 조회  counter 파싱 → 행 하나 (행에 기록된 counter 가 같을 때만)
+ * tray / 작업지시 조회  역색인의 counter 목록
+ * </pre>
+ * 기록은 라인 이벤트 루프, 조회는 REST 스레드에서 하므로 메서드 단위로 동기화한다.
+ * milo.line.genealogy.capacity(기본 1,048,576) 개를 넘으면 가장 오래된 serial 행을 새 serial 이 덮어쓴다(evicted).
+ */
+public final class SerialGenealogyStore {
+
+    static final int CAPACITY = Math.max(1, Integer.getInteger("milo.line.genealogy.capacity", 1 << 20));
+    private static final int SERIAL_DIGITS = 20;
+    private static final int INITIAL_ROWS = 1024;
+
+    private static final byte IN_PROCESS = 0;
+    private static final byte OK = 1;
+    private static final byte NG = 2;
+
+    private final int capacity;
+    private final Dictionary trayIds = new Dictionary();
+    private final Dictionary machineNames = new Dictionary();
+    private final Dictionary orderNos = new Dictionary();
+    // 작업지시 사전 번호 → serial prefix (조회한 serial 이 그 행의 serial 인지 확인)
+    private final List<String> orderPrefixes = new ArrayList<>();
+    // tray / 작업지시별 serial counter (등록 순 = counter 순이라 덮어쓴 항목은 항상 앞쪽에 모인다)
+    private final List<CounterList> trayCounters = new ArrayList<>();
+    private final List<CounterList> orderCounters = new ArrayList<>();
+
+    private long highestCounter = 0L;
+    private long evicted = 0L;
+    // 행에 지금 기록된 serial counter (0 이면 빈 행). 조회한 serial 이 덮어쓰인 행을 가리키는지 확인한다.
+    private long[] counterColumn = new long[0];
+    private int[] trayColumn = new int[0];
+    private int[] orderColumn = new int[0];
+    private long[] createdAtColumn = new long[0];
+    private byte[] verdictColumn = new byte[0];
+    private byte[] ngStageColumn = new byte[0];
+    // [stageNo][row]. 설비는 사전 번호 + 1 (0 이면 아직 통과 전), 완료 시각은 생성 시각 기준 ms
+    private short[][] stageMachineColumns = new short[0][];
+    private int[][] stageOffsetColumns = new int[0][];
+
+    public SerialGenealogyStore() {
+        this(CAPACITY);
+    }
+
+    SerialGenealogyStore(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /** 새로 만든 serial 을 tray / 작업지시와 함께 등록한다. */
+    synchronized void register(List<String> serials, String trayId, String orderNo, String serialPrefix, long now) {
+        int tray = trayIds.intern(trayId);
+        int order = orderNos.intern(orderNo);
+        while (trayCounters.size() <= tray) {
+            trayCounters.add(new CounterList());
+        }
+        while (orderCounters.size() <= order) {
+            orderCounters.add(new CounterList());
+            orderPrefixes.add("");
+        }
+        orderPrefixes.set(order, serialPrefix);
+        for (String serial : serials) {
+            long counter = counterOf(serial);
+            if (counter <= 0) {
+                continue;
+            }
+            int row = rowIndex(counter);
+            ensureRows(row + 1);
+            if (counterColumn[row] != 0L) {
+                // 덮어쓰는 serial 은 그 tray / 작업지시 목록의 맨 앞 항목이다.
+                long oldestLive = counter - capacity + 1;
+                trayCounters.get(trayColumn[row]).dropBelow(oldestLive);
+                orderCounters.get(orderColumn[row]).dropBelow(oldestLive);
+                evicted++;
+            }
+            counterColumn[row] = counter;
+            trayColumn[row] = tray;
+            orderColumn[row] = order;
+            createdAtColumn[row] = now;
+            verdictColumn[row] = IN_PROCESS;
+            ngStageColumn[row] = 0;
+            for (int stage = 0; stage < stageMachineColumns.length; stage++) {
+                stageMachineColumns[stage][row] = 0;
+            }
+            trayCounters.get(tray).add(counter);
+            orderCounters.get(order).add(counter);
+            highestCounter = Math.max(highestCounter, counter);
+        }
+    }
+
+    /** stage 를 마친 tray 의 OK serial 은 통과 설비/시각을, rejected serial 은 NG 판정을 남긴다. */
+    synchronized void recordStage(int stageNo, String machine, List<String> okSerials, List<String> rejectedSerials,
+                                  long now) {
+        ensureStage(stageNo);
+        short machineId = (short) (machineNames.intern(machine) + 1);
+        for (String serial : okSerials) {
+            int row = rowOf(serial);
+            if (row >= 0) {
+                stageMachineColumns[stageNo][row] = machineId;
+                stageOffsetColumns[stageNo][row] = (int) Math.min(Integer.MAX_VALUE, now - createdAtColumn[row]);
+            }
+        }
+        for (String serial : rejectedSerials) {
+            int row = rowOf(serial);
+            if (row >= 0 && verdictColumn[row] != NG) {
+                stageMachineColumns[stageNo][row] = machineId;
+                stageOffsetColumns[stageNo][row] = (int) Math.min(Integer.MAX_VALUE, now - createdAtColumn[row]);
+                verdictColumn[row] = NG;
+                ngStageColumn[row] = (byte) stageNo;
+            }
+        }
+    }
+
+    /** 마지막 stage 를 OK 로 통과한 serial */
+    synchronized void markCompleted(List<String> serials) {
+        for (String serial : serials) {
+            int row = rowOf(serial);
+            if (row >= 0 && verdictColumn[row] == IN_PROCESS) {
+                verdictColumn[row] = OK;
+            }
+        }
+    }
+
+    public synchronized SerialTrace findBySerial(String serial) {
+        int row = rowOf(serial);
+        if (row < 0 || !serial.equals(serialOf(row))) {
+            return null;
+        }
+        return trace(row);
+    }
+
+    /** tray id 는 작업지시마다 다시 매겨지므로 orderNo 가 있으면 그 작업지시 tray 로 좁힌다. */
+    public synchronized List<SerialTrace> findByTray(String trayId, String orderNo) {
+        int tray = trayIds.find(trayId);
+        if (tray < 0) {
+            return List.of();
+        }
+        int order = orderNo == null || orderNo.isBlank() ? -1 : orderNos.find(orderNo);
+        if (orderNo != null && !orderNo.isBlank() && order < 0) {
+            return List.of();
+        }
+        CounterList matched = trayCounters.get(tray);
+        List<SerialTrace> traces = new ArrayList<>(matched.size());
+        for (int i = matched.head; i < matched.size; i++) {
+            int row = liveRow(matched.values[i]);
+            if (row >= 0 && trayColumn[row] == tray && (order < 0 || orderColumn[row] == order)) {
+                traces.add(trace(row));
+            }
+        }
+        return traces;
+    }
+
+    public synchronized List<SerialTrace> findByOrder(String orderNo) {
+        int order = orderNos.find(orderNo);
+        if (order < 0) {
+            return List.of();
+        }
+        CounterList matched = orderCounters.get(order);
+        List<SerialTrace> traces = new ArrayList<>(matched.size());
+        for (int i = matched.head; i < matched.size; i++) {
+            int row = liveRow(matched.values[i]);
+            if (row >= 0 && orderColumn[row] == order) {
+                traces.add(trace(row));
+            }
+        }
+        return traces;
+    }
+
+    /** 지금 보관 중인 serial 수 (최대 capacity) */
+    public synchronized int size() {
+        return (int) Math.min(highestCounter, capacity);
+    }
+
+    /** 새 serial 에 행을 내주고 지워진 serial 수 */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    private int rowOf(String serial) {
+        return liveRow(counterOf(serial));
+    }
+
+    /** counter 의 행이 아직 그 serial 을 담고 있으면 행 번호, 덮어쓰였거나 기록된 적이 없으면 -1 */
+    private int liveRow(long counter) {
+        if (counter <= 0) {
+            return -1;
+        }
+        int row = rowIndex(counter);
+        return row < counterColumn.length && counterColumn[row] == counter ? row : -1;
+    }
+
+    private int rowIndex(long counter) {
+        return (int) ((counter - 1) % capacity);
+    }
+
+    private String serialOf(int row) {
+        return orderPrefixes.get(orderColumn[row]) + String.format("%0" + SERIAL_DIGITS + "d", counterColumn[row]);
+    }
+
+    private static long counterOf(String serial) {
+        if (serial == null || serial.length() < SERIAL_DIGITS) {
+            return -1L;
+        }
+        long counter = 0L;
+        for (int i = serial.length() - SERIAL_DIGITS; i < serial.length(); i++) {
+            char c = serial.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1L;
+            }
+            counter = counter * 10 + (c - '0');
+        }
+        return counter;
+    }
+
+    private SerialTrace trace(int row) {
+        long createdAt = createdAtColumn[row];
+        List<StageTrace> stageTraces = new ArrayList<>();
+        for (int stage = 1; stage < stageMachineColumns.length; stage++) {
+            short machine = stageMachineColumns[stage][row];
+            if (machine > 0) {
+                stageTraces.add(new StageTrace(stage, machineNames.get(machine - 1),
+                        createdAt + stageOffsetColumns[stage][row]));
+            }
+        }
+        String verdict = switch (verdictColumn[row]) {
+            case OK -> "OK";
+            case NG -> "NG";
+            default -> "IN_PROCESS";
+        };
+        return new SerialTrace(serialOf(row), orderNos.get(orderColumn[row]), trayIds.get(trayColumn[row]),
+                verdict, ngStageColumn[row], createdAt, Collections.unmodifiableList(stageTraces));
+    }
+
+    private void ensureRows(int required) {
+        if (required <= trayColumn.length) {
+            return;
+        }
+        int length = Math.min(capacity, Math.max(required, Math.max(INITIAL_ROWS, trayColumn.length * 2)));
+        counterColumn = Arrays.copyOf(counterColumn, length);
+        trayColumn = Arrays.copyOf(trayColumn, length);
+        orderColumn = Arrays.copyOf(orderColumn, length);
+        createdAtColumn = Arrays.copyOf(createdAtColumn, length);
+        verdictColumn = Arrays.copyOf(verdictColumn, length);
+        ngStageColumn = Arrays.copyOf(ngStageColumn, length);
+        for (int stage = 0; stage < stageMachineColumns.length; stage++) {
+            stageMachineColumns[stage] = Arrays.copyOf(stageMachineColumns[stage], length);
+            stageOffsetColumns[stage] = Arrays.copyOf(stageOffsetColumns[stage], length);
+        }
+    }
+
+    private void ensureStage(int stageNo) {
+        if (stageNo < stageMachineColumns.length) {
+            return;
+        }
+        int previous = stageMachineColumns.length;
+        stageMachineColumns = Arrays.copyOf(stageMachineColumns, stageNo + 1);
+        stageOffsetColumns = Arrays.copyOf(stageOffsetColumns, stageNo + 1);
+        for (int stage = previous; stage <= stageNo; stage++) {
+            stageMachineColumns[stage] = new short[trayColumn.length];
+            stageOffsetColumns[stage] = new int[trayColumn.length];
+        }
+    }
+
+    /** 문자열 ↔ 사전 번호 */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int intern(String value) {
+            String key = value == null ? "" : value;
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = values.size();
+                ids.put(key, id);
+                values.add(key);
+            }
+            return id;
+        }
+
+        int find(String value) {
+            Integer id = ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        String get(int id) {
+            return values.get(id);
+        }
+    }
+
+    /** 오름차순 counter 목록. 덮어쓴 앞부분은 head 를 옮겨 버리고, 절반 이상이 버려지면 압축한다. */
+    private static final class CounterList {
+        long[] values = new long[8];
+        int head = 0;
+        int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                if (head > 0) {
+                    compact();
+                }
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+            }
+            values[size++] = value;
+        }
+
+        void dropBelow(long oldestLive) {
+            while (head < size && values[head] < oldestLive) {
+                head++;
+            }
+            if (head > 0 && head >= size - head) {
+                compact();
+            }
+        }
+
+        int size() {
+            return size - head;
+        }
+
+        private void compact() {
+            System.arraycopy(values, head, values, 0, size - head);
+            size -= head;
+            head = 0;
+        }
+    }
+
+    public static final class SerialTrace {
+        private final String serial;
+        private final String orderNo;
+        private final String trayId;
+        private final String verdict;
+        private final int ngStage;
+        private final long createdAt;
+        private final List<StageTrace> stages;
+
+        private SerialTrace(String serial,
+                            String orderNo,
+                            String trayId,
+                            String verdict,
+                            int ngStage,
+                            long createdAt,
+                            List<StageTrace> stages) {
+            this.serial = serial;
+            this.orderNo = orderNo;
+            this.trayId = trayId;
+            this.verdict = verdict;
+            this.ngStage = ngStage;
+            this.createdAt = createdAt;
+            this.stages = stages;
+        }
+
+        public String getSerial() {
+            return serial;
+        }
+
+        public String getOrderNo() {
+            return orderNo;
+        }
+
+        public String getTrayId() {
+            return trayId;
+        }
+
+        /** OK(마지막 stage 통과) / NG / IN_PROCESS */
+        public String getVerdict() {
+            return verdict;
+        }
+
+        /** NG 판정 stage. NG 가 아니면 0 */
+        public int getNgStage() {
+            return ngStage;
+        }
+
+        /** serial 생성 시각 (epoch ms) */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public List<StageTrace> getStages() {
+            return stages;
+        }
+    }
+
+    public static final class StageTrace {
+        private final int stageNo;
+        private final String machine;
+        private final long completedAt;
+
+        private StageTrace(int stageNo, String machine, long completedAt) {
+            this.stageNo = stageNo;
+            this.machine = machine;
+            this.completedAt = completedAt;
+        }
+
+        public int getStageNo() {
+            return stageNo;
+        }
+
+        public String getMachine() {
+            return machine;
+        }
+
+        /** epoch ms */
+        public long getCompletedAt() {
+            return completedAt;
+        }
+    }
+}
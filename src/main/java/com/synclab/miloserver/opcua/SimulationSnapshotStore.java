@@ -0,0 +1,672 @@
+package com.synclab.miloserver.opcua;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 라인 작업지시/tray/serial counter 와 설비 누적 카운터/NG/알람을 로컬 바이너리 파일 하나에 저장하고 기동 때 되살린다.
+ * milo.snapshot.file 을 주면 milo.snapshot.interval.sec(기본 30초)마다, 그리고 namespace 종료 때 저장한다.
+ * <pre>
+ * 헤더    magic "MSNP" | version(short) | savedAt(long) | payload 길이(int) | payload CRC32(int)
+ * payload 라인 수 | 라인 상태 ... | 설비 수 | 설비 상태 ...
+ * 문자열  UTF-8 길이(short) + byte, serial 은 작업지시 prefix 뒤 counter(long) 만 (형식이 다르면 -1 + 문자열)
+ * </pre>
+ * 파일은 임시 파일에 FileChannel 로 쓰고 force 한 뒤 이름을 바꿔(atomic move) 교체하므로 쓰다 끊겨도 이전 파일이 남는다.
+ * 라인 상태와 그 라인 설비 상태는 각 라인 이벤트 루프에서 같은 tick 사이(betweenTicks)에 함께 읽는다.
+ * 한 라인이라도 읽지 못하면 저장하지 않고 이전 파일을 그대로 둔다.
+ * 설비에서 가공 중이던 tray 는 배정 전 카운터로 되돌리고 그 stage 대기열 맨 앞에 다시 넣어 처음부터 가공한다.
+ */
+public final class SimulationSnapshotStore {
+
+    private static final int MAGIC = 0x4D534E50;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final long REPLY_TIMEOUT_MS = 5000L;
+
+    private static final String FILE = System.getProperty("milo.snapshot.file", "");
+    private static final long INTERVAL_SEC = Math.max(1, Integer.getInteger("milo.snapshot.interval.sec", 30));
+
+    static final byte TRAY_QUEUED = 0;
+    static final byte TRAY_BLOCKED = 1;
+
+    private final MultiMachineNameSpace namespace;
+    private final Path file;
+    private ScheduledExecutorService scheduler;
+
+    SimulationSnapshotStore(MultiMachineNameSpace namespace) {
+        this.namespace = namespace;
+        this.file = FILE.isBlank() ? null : Path.of(FILE);
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /** 주기 저장을 시작한다. restore 이후에 호출한다. */
+    synchronized void startPeriodic() {
+        if (file == null || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simulation-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (RuntimeException ex) {
+                System.err.printf("[SimulationSnapshot] Periodic snapshot failed: %s%n", ex);
+            }
+        }, INTERVAL_SEC, INTERVAL_SEC, TimeUnit.SECONDS);
+    }
+
+    /** 주기 저장을 멈추고 마지막으로 한 번 저장한다. 라인 이벤트 루프가 살아 있을 때 호출해야 한다. */
+    void shutdown() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        if (file != null) {
+            save();
+        }
+    }
+
+    /** 현재 상태를 파일에 쓴다. 저장한 byte 수, 비활성/실패(읽지 못한 라인 포함)면 -1 */
+    public synchronized long save() {
+        if (file == null) {
+            return -1L;
+        }
+        long started = System.nanoTime();
+        Snapshot snapshot = capture();
+        if (snapshot == null) {
+            System.err.printf("[SimulationSnapshot] Save skipped; keeping previous %s%n", file);
+            return -1L;
+        }
+        ByteBuffer[] buffers = encode(snapshot);
+        ByteBuffer body = buffers[1];
+        long bytes = buffers[0].remaining() + body.remaining();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (body.hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(false);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.err.printf("[SimulationSnapshot] Failed to write %s: %s%n", file, ex.getMessage());
+            return -1L;
+        }
+        System.out.printf("[SimulationSnapshot] Saved lines=%d machines=%d bytes=%d to %s in %d ms%n",
+                snapshot.lines.size(), snapshot.machines.size(), bytes, file,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return bytes;
+    }
+
+    /**
+     * 파일이 있으면 설비 상태를 먼저 되살리고(카운터 이벤트가 라인 큐에 먼저 들어가도록) 라인 상태를 되살린다.
+     * 라인은 각자 이벤트 루프에서 동시에 복원되고 여기서는 모두 끝날 때까지 기다린다.
+     */
+    synchronized void restore() {
+        if (file == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        Snapshot snapshot;
+        try {
+            snapshot = read();
+        } catch (NoSuchFileException ex) {
+            System.out.printf("[SimulationSnapshot] No snapshot at %s; starting clean.%n", file);
+            return;
+        } catch (IOException | RuntimeException ex) {
+            System.err.printf("[SimulationSnapshot] Ignoring unreadable snapshot %s: %s%n", file, ex.getMessage());
+            return;
+        }
+
+        Map<String, UnitLogic> machinesByKey = new HashMap<>();
+        for (UnitLogic machine : namespace.getMachines()) {
+            machinesByKey.put(machineKey(machine), machine);
+        }
+        // 설비 시뮬레이션은 이미 돌고 있으므로 tick 사이에서 한 번에 되돌려, tick 이 반쯤 복원된 상태를 보지 않게 한다.
+        int restoredMachines = namespace.betweenTicks(() -> {
+            int restored = 0;
+            for (MachineState saved : snapshot.machines) {
+                UnitLogic machine = machinesByKey.get(saved.key);
+                if (machine != null) {
+                    machine.restoreState(namespace, saved);
+                    restored++;
+                }
+            }
+            return restored;
+        });
+
+        Map<String, CompletableFuture<Boolean>> pending = new LinkedHashMap<>();
+        for (LineState saved : snapshot.lines) {
+            namespace.findLineController(saved.factoryCode(), saved.lineCode())
+                    .ifPresent(line -> pending.put(saved.lineName, line.restoreState(saved)));
+        }
+        int restoredLines = 0;
+        for (Map.Entry<String, CompletableFuture<Boolean>> entry : pending.entrySet()) {
+            try {
+                if (entry.getValue().get(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    restoredLines++;
+                }
+            } catch (Exception ex) {
+                System.err.printf("[SimulationSnapshot] Line %s not restored: %s%n", entry.getKey(), ex);
+            }
+        }
+        System.out.printf("[SimulationSnapshot] Restored lines=%d/%d machines=%d/%d saved at %s in %d ms%n",
+                restoredLines, snapshot.lines.size(), restoredMachines, snapshot.machines.size(),
+                Instant.ofEpochMilli(snapshot.savedAt),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /** 라인 상태와 그 설비 상태는 각 라인 이벤트 루프에서 함께 읽는다. 한 라인이라도 읽지 못하면 null */
+    private Snapshot capture() {
+        List<ProductionLineController> lines = namespace.getLineControllers();
+        List<CompletableFuture<LineState>> pendingLines = new ArrayList<>(lines.size());
+        for (ProductionLineController line : lines) {
+            pendingLines.add(line.captureState());
+        }
+
+        List<LineState> lineStates = new ArrayList<>(pendingLines.size());
+        List<MachineState> machines = new ArrayList<>();
+        Set<String> captured = new HashSet<>();
+        for (int i = 0; i < pendingLines.size(); i++) {
+            LineState line;
+            try {
+                line = pendingLines.get(i).get(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception ex) {
+                System.err.printf("[SimulationSnapshot] Line %s not captured: %s%n", lines.get(i).getLineName(), ex);
+                return null;
+            }
+            lineStates.add(line);
+            // 가공 중이던 tray 는 처음부터 다시 가공하므로 설비 카운터를 배정 시점으로 되돌린다.
+            Map<String, InFlight> inFlight = new HashMap<>();
+            line.inFlight.forEach(assignment -> inFlight.put(assignment.machineKey, assignment));
+            for (MachineState machine : line.machines) {
+                InFlight assignment = inFlight.get(machine.key);
+                machines.add(assignment == null ? machine : machine.rolledBack(assignment));
+                captured.add(machine.key);
+            }
+        }
+        // 라인 컨트롤러가 없는 설비
+        machines.addAll(namespace.betweenTicks(() -> {
+            List<MachineState> states = new ArrayList<>();
+            for (UnitLogic machine : namespace.getMachines()) {
+                if (!captured.contains(machineKey(machine))) {
+                    states.add(machine.captureState());
+                }
+            }
+            return states;
+        }));
+        return new Snapshot(System.currentTimeMillis(), lineStates, machines);
+    }
+
+    /** [헤더, payload] */
+    static ByteBuffer[] encode(Snapshot snapshot) {
+        Encoder payload = new Encoder();
+        payload.putInt(snapshot.lines.size());
+        for (LineState line : snapshot.lines) {
+            writeLine(payload, line);
+        }
+        payload.putInt(snapshot.machines.size());
+        for (MachineState machine : snapshot.machines) {
+            writeMachine(payload, machine);
+        }
+        ByteBuffer body = payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC)
+                .putShort(VERSION)
+                .putLong(snapshot.savedAt)
+                .putInt(body.remaining())
+                .putInt((int) crc.getValue())
+                .flip();
+        return new ByteBuffer[]{header, body};
+    }
+
+    private Snapshot read() throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("unexpected size " + size);
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 끝까지 읽는다.
+            }
+            buffer.flip();
+        }
+        return decode(buffer);
+    }
+
+    /** 헤더(magic/version/길이/CRC)를 검사하고 payload 를 읽는다. 맞지 않으면 IOException */
+    static Snapshot decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_BYTES) {
+            throw new IOException("unexpected size " + buffer.remaining());
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a simulation snapshot");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        long savedAt = buffer.getLong();
+        int length = buffer.getInt();
+        int expectedCrc = buffer.getInt();
+        if (length != buffer.remaining()) {
+            throw new IOException("truncated payload " + buffer.remaining() + "/" + length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("checksum mismatch");
+        }
+        Decoder in = new Decoder(buffer);
+        int lineCount = in.getInt();
+        List<LineState> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(readLine(in));
+        }
+        int machineCount = in.getInt();
+        List<MachineState> machines = new ArrayList<>(machineCount);
+        for (int i = 0; i < machineCount; i++) {
+            machines.add(readMachine(in));
+        }
+        return new Snapshot(savedAt, lines, machines);
+    }
+
+    private static void writeLine(Encoder out, LineState line) {
+        out.putString(line.lineName);
+        out.putLong(line.trayIdCounter);
+        out.putLong(line.serialCounter);
+        out.putString(line.serialPrefix);
+        out.putString(line.dispatchPolicy);
+        out.putInt(line.orders.size());
+        for (OrderState order : line.orders) {
+            out.putString(order.orderNo);
+            out.putInt(order.targetQty);
+            out.putString(order.itemCode);
+            out.putInt(order.ppm);
+            out.putString(order.serialPrefix);
+            out.putString(order.status);
+            out.putInt(order.finalOkTotal);
+            out.putInt(order.ngTotal);
+            out.putLong(order.executeAt);
+            out.putLong(order.waitingAckAt);
+            out.putInt(order.stagePassed.size());
+            order.stagePassed.forEach((stageNo, passed) -> {
+                out.putInt(stageNo);
+                out.putInt(passed);
+            });
+        }
+        out.putInt(line.trays.size());
+        for (TrayState tray : line.trays) {
+            String prefix = line.orders.get(tray.orderIndex).serialPrefix;
+            out.putInt(tray.stageNo);
+            out.put(tray.kind);
+            out.putInt(tray.orderIndex);
+            out.putString(tray.trayId);
+            out.putInt(tray.plannedQty);
+            out.putInt(tray.serials.size());
+            for (String serial : tray.serials) {
+                out.putSerial(prefix, serial);
+            }
+        }
+    }
+
+    private static LineState readLine(Decoder in) {
+        String lineName = in.getString();
+        long trayIdCounter = in.getLong();
+        long serialCounter = in.getLong();
+        String serialPrefix = in.getString();
+        String dispatchPolicy = in.getString();
+        int orderCount = in.getInt();
+        List<OrderState> orders = new ArrayList<>(orderCount);
+        for (int i = 0; i < orderCount; i++) {
+            String orderNo = in.getString();
+            int targetQty = in.getInt();
+            String itemCode = in.getString();
+            int ppm = in.getInt();
+            String prefix = in.getString();
+            String status = in.getString();
+            int finalOkTotal = in.getInt();
+            int ngTotal = in.getInt();
+            long executeAt = in.getLong();
+            long waitingAckAt = in.getLong();
+            int stageCount = in.getInt();
+            Map<Integer, Integer> stagePassed = new HashMap<>();
+            for (int s = 0; s < stageCount; s++) {
+                stagePassed.put(in.getInt(), in.getInt());
+            }
+            orders.add(new OrderState(orderNo, targetQty, itemCode, ppm, prefix, status, finalOkTotal, ngTotal,
+                    executeAt, waitingAckAt, stagePassed));
+        }
+        int trayCount = in.getInt();
+        List<TrayState> trays = new ArrayList<>(trayCount);
+        for (int i = 0; i < trayCount; i++) {
+            int stageNo = in.getInt();
+            byte kind = in.get();
+            int orderIndex = in.getInt();
+            String trayId = in.getString();
+            int plannedQty = in.getInt();
+            int serialCount = in.getInt();
+            String prefix = orders.get(orderIndex).serialPrefix;
+            List<String> serials = new ArrayList<>(serialCount);
+            for (int s = 0; s < serialCount; s++) {
+                serials.add(in.getSerial(prefix));
+            }
+            trays.add(new TrayState(stageNo, kind, orderIndex, trayId, plannedQty, serials));
+        }
+        return new LineState(lineName, trayIdCounter, serialCounter, serialPrefix, dispatchPolicy, orders, trays,
+                List.of(), List.of());
+    }
+
+    private static void writeMachine(Encoder out, MachineState machine) {
+        out.putString(machine.key);
+        out.putString(machine.orderNo);
+        out.putString(machine.itemCode);
+        out.putString(machine.orderStatus);
+        out.put((byte) ((machine.orderActive ? 1 : 0) | (machine.awaitingAck ? 2 : 0)));
+        out.putInt(machine.targetQty);
+        out.putInt(machine.producedQty);
+        out.putInt(machine.okCount);
+        out.putInt(machine.ngCount);
+        for (int count : machine.ngTypeCounts) {
+            out.putInt(count);
+        }
+        out.putString(machine.alarmCode);
+        out.putLong(machine.alarmOccurredAt);
+        out.putLong(machine.alarmAutoClearAt);
+    }
+
+    private static MachineState readMachine(Decoder in) {
+        String key = in.getString();
+        String orderNo = in.getString();
+        String itemCode = in.getString();
+        String orderStatus = in.getString();
+        byte flags = in.get();
+        int targetQty = in.getInt();
+        int producedQty = in.getInt();
+        int okCount = in.getInt();
+        int ngCount = in.getInt();
+        int[] ngTypeCounts = new int[MachineState.NG_TYPES];
+        for (int i = 0; i < ngTypeCounts.length; i++) {
+            ngTypeCounts[i] = in.getInt();
+        }
+        String alarmCode = in.getString();
+        long alarmOccurredAt = in.getLong();
+        long alarmAutoClearAt = in.getLong();
+        return new MachineState(key, orderNo, itemCode, orderStatus, (flags & 1) != 0, (flags & 2) != 0,
+                targetQty, producedQty, okCount, ngCount, ngTypeCounts, new int[MachineState.NG_TYPES],
+                alarmCode, alarmOccurredAt, alarmAutoClearAt);
+    }
+
+    /** 설비 폴더 NodeId 경로 (예: F0001/CL0001/TrayCleaner01). 설비 이름은 공장 사이에 겹칠 수 있다. */
+    static String machineKey(UnitLogic machine) {
+        return String.valueOf(machine.machineFolder.getNodeId().getIdentifier());
+    }
+
+    record Snapshot(long savedAt, List<LineState> lines, List<MachineState> machines) {
+    }
+
+    /**
+     * 라인 하나. inFlight 는 저장하지 않고 설비 카운터를 되돌리는 데만 쓴다.
+     * machines 는 라인 상태와 같은 tick 사이에 읽은 이 라인 설비 상태로, 파일에는 설비 목록으로 따로 저장된다.
+     */
+    static final class LineState {
+        final String lineName;
+        final long trayIdCounter;
+        final long serialCounter;
+        final String serialPrefix;
+        final String dispatchPolicy;
+        final List<OrderState> orders;
+        final List<TrayState> trays;
+        final List<InFlight> inFlight;
+        final List<MachineState> machines;
+
+        LineState(String lineName,
+                  long trayIdCounter,
+                  long serialCounter,
+                  String serialPrefix,
+                  String dispatchPolicy,
+                  List<OrderState> orders,
+                  List<TrayState> trays,
+                  List<InFlight> inFlight,
+                  List<MachineState> machines) {
+            this.lineName = lineName;
+            this.trayIdCounter = trayIdCounter;
+            this.serialCounter = serialCounter;
+            this.serialPrefix = serialPrefix;
+            this.dispatchPolicy = dispatchPolicy;
+            this.orders = orders;
+            this.trays = trays;
+            this.inFlight = inFlight;
+            this.machines = machines;
+        }
+
+        /** lineName 은 "F0001.CL0001" */
+        String factoryCode() {
+            int dot = lineName.indexOf('.');
+            return dot < 0 ? "" : lineName.substring(0, dot);
+        }
+
+        String lineCode() {
+            return lineName.substring(lineName.indexOf('.') + 1);
+        }
+    }
+
+    /** 시각은 epoch ms, 없으면 -1 */
+    record OrderState(String orderNo,
+                      int targetQty,
+                      String itemCode,
+                      int ppm,
+                      String serialPrefix,
+                      String status,
+                      int finalOkTotal,
+                      int ngTotal,
+                      long executeAt,
+                      long waitingAckAt,
+                      Map<Integer, Integer> stagePassed) {
+    }
+
+    /** kind 가 TRAY_BLOCKED 이면 stageNo 를 마치고 다음 버퍼를 기다리던 tray, 아니면 stageNo 대기열의 tray */
+    record TrayState(int stageNo, byte kind, int orderIndex, String trayId, int plannedQty, List<String> serials) {
+    }
+
+    /** 설비에 배정되어 가공 중이던 tray 의 배정 시점 카운터 */
+    record InFlight(String machineKey, int startProduced, int startOk, int startNg, int plannedQty) {
+    }
+
+    static final class MachineState {
+        static final int NG_TYPES = 4;
+
+        final String key;
+        final String orderNo;
+        final String itemCode;
+        final String orderStatus;
+        final boolean orderActive;
+        final boolean awaitingAck;
+        final int targetQty;
+        final int producedQty;
+        final int okCount;
+        final int ngCount;
+        final int[] ngTypeCounts;
+        // 가공 중 tray 의 NG 유형별 수 (되돌릴 때만 쓰고 저장하지 않는다)
+        final int[] trayNgTypeCounts;
+        // 활성 알람이 없으면 ""
+        final String alarmCode;
+        final long alarmOccurredAt;
+        final long alarmAutoClearAt;
+
+        MachineState(String key,
+                     String orderNo,
+                     String itemCode,
+                     String orderStatus,
+                     boolean orderActive,
+                     boolean awaitingAck,
+                     int targetQty,
+                     int producedQty,
+                     int okCount,
+                     int ngCount,
+                     int[] ngTypeCounts,
+                     int[] trayNgTypeCounts,
+                     String alarmCode,
+                     long alarmOccurredAt,
+                     long alarmAutoClearAt) {
+            this.key = key;
+            this.orderNo = orderNo;
+            this.itemCode = itemCode;
+            this.orderStatus = orderStatus;
+            this.orderActive = orderActive;
+            this.awaitingAck = awaitingAck;
+            this.targetQty = targetQty;
+            this.producedQty = producedQty;
+            this.okCount = okCount;
+            this.ngCount = ngCount;
+            this.ngTypeCounts = ngTypeCounts;
+            this.trayNgTypeCounts = trayNgTypeCounts;
+            this.alarmCode = alarmCode;
+            this.alarmOccurredAt = alarmOccurredAt;
+            this.alarmAutoClearAt = alarmAutoClearAt;
+        }
+
+        MachineState rolledBack(InFlight assignment) {
+            int[] counts = ngTypeCounts.clone();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.max(0, counts[i] - trayNgTypeCounts[i]);
+            }
+            return new MachineState(key, orderNo, itemCode, orderStatus, orderActive, awaitingAck,
+                    Math.max(0, targetQty - assignment.plannedQty()), assignment.startProduced(),
+                    assignment.startOk(), assignment.startNg(), counts, new int[NG_TYPES],
+                    alarmCode, alarmOccurredAt, alarmAutoClearAt);
+        }
+    }
+
+    /** 필요할 때 두 배로 늘어나는 heap ByteBuffer */
+    private static final class Encoder {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+
+        void put(byte value) {
+            ensure(Byte.BYTES).put(value);
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("String too long for snapshot: " + bytes.length + " bytes");
+            }
+            ensure(Short.BYTES + bytes.length).putShort((short) bytes.length).put(bytes);
+        }
+
+        /** prefix + 20자리 counter 이면 counter 만, 아니면 -1 뒤에 문자열 전체 */
+        void putSerial(String prefix, String serial) {
+            long counter = serialCounter(prefix, serial);
+            putLong(counter);
+            if (counter < 0) {
+                putString(serial);
+            }
+        }
+
+        ByteBuffer flip() {
+            return buffer.flip();
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer buffer;
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        byte get() {
+            return buffer.get();
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        long getLong() {
+            return buffer.getLong();
+        }
+
+        String getString() {
+            byte[] bytes = new byte[buffer.getShort()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String getSerial(String prefix) {
+            long counter = buffer.getLong();
+            return counter < 0 ? getString() : prefix + String.format("%020d", counter);
+        }
+    }
+
+    private static long serialCounter(String prefix, String serial) {
+        if (serial == null || prefix == null || serial.length() != prefix.length() + 20 || !serial.startsWith(prefix)) {
+            return -1L;
+        }
+        long counter = 0L;
+        for (int i = prefix.length(); i < serial.length(); i++) {
+            char c = serial.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1L;
+            }
+            counter = counter * 10 + (c - '0');
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,52 @@
+package com.synclab.miloserver.opcua;
+
+/**
+ * 태그별 갱신 성격(rate class).
+ * MinimumSamplingInterval 로 클라이언트 샘플링 주기를 제한하고(sampling side),
+ * 최대 publish 빈도를 넘는 갱신은 마지막 값만 남겨 뒤로 미룬다(publish side).
+ * 분류를 지정하지 않은 태그는 기존과 동일하게 EVENT 로 취급한다.
+ */
+public enum TagClass {
+    /** 매 tick 변하는 공정 값 (t_in_cycle_sec, energy_usage, 공정 측정값 등) */
+    FAST(100.0, 100L),
+    /** 카운터, OEE, NG 집계 등 같은 tick 안에서 여러 번 바뀌어도 마지막 값만 의미 있는 태그 */
+    NORMAL(500.0, 500L),
+    /** last_maintenance, cycle_time_sec 등 거의 변하지 않는 태그 */
+    SLOW(10_000.0, 10_000L),
+    /** state, order_status, payload 등 모든 변화를 그대로 내보내야 하는 태그 (coalescing 하지 않음) */
+    EVENT(100.0, 0L),
+    /**
+     * equipment_code, line_id 등 설비 식별 태그. 캐시된 DataValue 하나로 응답하며,
+     * 구독 시 최초 1회만 통지하고 SubscriptionModel 의 주기 샘플링 대상에서 제외된다.
+     */
+    CONSTANT(3_600_000.0, 0L);
+
+    private final double minimumSamplingInterval;
+    private final long minPublishIntervalMs;
+
+    TagClass(double minimumSamplingInterval, long minPublishIntervalMs) {
+        this.minimumSamplingInterval = minimumSamplingInterval;
+        this.minPublishIntervalMs = minPublishIntervalMs;
+    }
+
+    public double getMinimumSamplingInterval() {
+        return minimumSamplingInterval;
+    }
+
+    public long getMinPublishIntervalMs() {
+        return minPublishIntervalMs;
+    }
+
+    /** 초당 최대 publish 횟수. 0 이면 제한 없음. */
+    public double getMaxPublishRate() {
+        return minPublishIntervalMs <= 0 ? 0.0 : 1000.0 / minPublishIntervalMs;
+    }
+
+    public boolean isConstant() {
+        return this == CONSTANT;
+    }
+
+    public boolean isCoalesced() {
+        return minPublishIntervalMs > 0;
+    }
+}
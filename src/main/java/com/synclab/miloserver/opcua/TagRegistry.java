@@ -0,0 +1,145 @@
+package com.synclab.miloserver.opcua;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 주소공간의 모든 변수 노드를 canonical path(factory.line.machine.tag)로 찾는 전역 레지스트리.
+ * 경로 → 노드 조회는 해시 맵(O(1)), 라인/설비 단위 조회는 정렬 인덱스의 구간 조회로 처리해
+ * REST/명령/exporter 가 노드 트리를 다시 browse 하지 않도록 한다.
+ *
+ * <pre>
+ * F0001.CL0001.order_no                  라인 태그
+ * F0001.CL0001.ElectrodeUnit01.state     설비 태그
+ * F0001.Environment.environment_payload  환경 센서
+ * </pre>
+ * 경로는 NodeId 경로("F0001/CL0001/ElectrodeUnit01/state")의 구분자를 '.' 로 바꾼 것과 같다.
+ */
+public class TagRegistry {
+
+    public static final char SEPARATOR = '.';
+
+    private final Map<String, UaVariableNode> byPath = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, UaVariableNode> sortedByPath = new ConcurrentSkipListMap<>();
+
+    /** 같은 경로가 두 번 등록되면 IllegalStateException (NodeId 경로 중복 검사와 동일한 규칙) */
+    public void register(String path, UaVariableNode node) {
+        String key = path.intern();
+        if (byPath.putIfAbsent(key, node) != null) {
+            throw new IllegalStateException("Duplicate tag path: " + key);
+        }
+        sortedByPath.put(key, node);
+    }
+
+    public Optional<UaVariableNode> find(String path) {
+        if (path == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byPath.get(path));
+    }
+
+    /**
+     * prefix 자신과 그 하위 경로(prefix + ".")의 태그를 경로 순으로 반환한다.
+     * "F0001.CL0001" 은 F0001.CL0001.* 만 포함하고 F0001.CL00010.* 같은 형제 경로는 포함하지 않는다.
+     * 빈 prefix 는 전체 태그를 뜻한다.
+     */
+    public NavigableMap<String, UaVariableNode> withPrefix(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return Collections.unmodifiableNavigableMap(sortedByPath);
+        }
+        String childPrefix = prefix + SEPARATOR;
+        NavigableMap<String, UaVariableNode> children =
+                sortedByPath.subMap(childPrefix, true, childPrefix + Character.MAX_VALUE, true);
+        UaVariableNode exact = byPath.get(prefix);
+        if (exact == null) {
+            return Collections.unmodifiableNavigableMap(children);
+        }
+        NavigableMap<String, UaVariableNode> result = new TreeMap<>(children);
+        result.put(prefix, exact);
+        return Collections.unmodifiableNavigableMap(result);
+    }
+
+    /**
+     * glob 패턴에 맞는 태그를 경로 순으로 action 에 넘긴다.
+     * '*' 는 한 segment 안의 임의 문자열, '?' 는 한 글자, '**' 는 segment 구분자를 넘어서는 임의 문자열이다.
+     * 예) F0001.CL0001.*.state, F0001.**.energy_usage
+     * 첫 wildcard 앞의 고정 segment 로 정렬 인덱스 구간을 좁힌 뒤, 그 구간만 하나의 Matcher 를 재사용해 검사한다.
+     */
+    public void forEachMatching(String pattern, BiConsumer<String, UaVariableNode> action) {
+        if (pattern == null || pattern.isEmpty()) {
+            return;
+        }
+        int wildcard = firstWildcard(pattern);
+        if (wildcard < 0) {
+            UaVariableNode node = byPath.get(pattern);
+            if (node != null) {
+                action.accept(pattern, node);
+            }
+            return;
+        }
+        int prefixEnd = pattern.lastIndexOf(SEPARATOR, wildcard);
+        NavigableMap<String, UaVariableNode> candidates = sortedByPath;
+        if (prefixEnd >= 0) {
+            String fixedPrefix = pattern.substring(0, prefixEnd + 1);
+            candidates = sortedByPath.subMap(fixedPrefix, true, fixedPrefix + Character.MAX_VALUE, true);
+        }
+        Matcher matcher = compileGlob(pattern).matcher("");
+        candidates.forEach((path, node) -> {
+            if (matcher.reset(path).matches()) {
+                action.accept(path, node);
+            }
+        });
+    }
+
+    private static int firstWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 16);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+            if (!literal.isEmpty()) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '?') {
+                regex.append("[^.]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^.]*");
+            }
+        }
+        if (!literal.isEmpty()) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    public int size() {
+        return byPath.size();
+    }
+}
@@ -1,28 +1,231 @@
 package com.synclab.miloserver.opcua;
 
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
-import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
+import java.util.Set;
 
+/**
+ * REST 계층에서 쓰는 태그 읽기/쓰기 창구. 노드는 MultiMachineNameSpace 의 TagRegistry 에서
+ * canonical path(factory.line.machine.tag)로 찾고, 쓰기는 OPC UA Write 와 같은 경로로 반영한다.
+ */
 public class UaNodeManager {
-    private final Map<String, UaVariableNode> nodes = new ConcurrentHashMap<>();
+    private final MultiMachineNameSpace namespace;
 
-    public void register(String name, UaVariableNode node) {
-        nodes.put(name, node);
+    public UaNodeManager(MultiMachineNameSpace namespace) {
+        this.namespace = namespace;
     }
 
-    public Object readValue(String name) {
-        UaVariableNode node = nodes.get(name);
-        if (node == null) return null;
-        return node.getValue().getValue().getValue();
+    public Optional<UaVariableNode> find(String path) {
+        return namespace.getTagRegistry().find(path);
     }
 
-    public void writeValue(String name, Object value) {
-        UaVariableNode node = nodes.get(name);
-        if (node == null) return;
-        node.setValue(new DataValue(new Variant(value)));
+    public Object readValue(String path) {
+        return find(path)
+                .map(node -> namespace.readValue(node).getValue().getValue())
+                .orElse(null);
+    }
+
+    /** 라인/설비 경로 아래 모든 태그 값을 경로 순으로 반환한다. */
+    public Map<String, Object> readValues(String prefix) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        namespace.getTagRegistry().withPrefix(prefix).forEach((path, node) -> {
+            DataValue value = namespace.readValue(node);
+            values.put(path, value.getValue().getValue());
+        });
+        return values;
+    }
+
+    /**
+     * 없는 경로이거나 쓰기 불가(CONSTANT/lazy) 노드면 false, 값 형식이 노드 DataType 과 맞지 않으면 IllegalArgumentException,
+     * 설비 command mailbox 가 가득 차 거부되면 IllegalStateException
+     */
+    public boolean writeValue(String path, Object value) {
+        UaVariableNode node = find(path).orElse(null);
+        if (node == null || !isWritable(node)) {
+            return false;
+        }
+        try {
+            namespace.writeAttributeValue(node, coerce(node, path, value));
+            return true;
+        } catch (UaException ex) {
+            if (ex.getStatusCode().getValue() == StatusCodes.Bad_ResourceUnavailable) {
+                throw new IllegalStateException(path + " (command mailbox full)", ex);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 경로/glob 패턴 목록에 해당하는 태그의 DataValue 를 한 번에 읽는다.
+     * 값은 설비 tick 사이(betweenTicks)에서 한 번에 수집하므로 응답 안의 모든 태그가 같은 tick 기준이다.
+     */
+    public TagSnapshot snapshot(List<String> patterns) {
+        List<String> paths = new ArrayList<>();
+        List<UaVariableNode> nodes = new ArrayList<>();
+        Set<String> seen = patterns.size() > 1 ? new HashSet<>() : null;
+        TagRegistry registry = namespace.getTagRegistry();
+        for (String pattern : patterns) {
+            if (pattern == null) {
+                continue;
+            }
+            registry.forEachMatching(pattern.trim(), (path, node) -> {
+                if (seen == null || seen.add(path)) {
+                    paths.add(path);
+                    nodes.add(node);
+                }
+            });
+        }
+        int size = nodes.size();
+        DataValue[] values = new DataValue[size];
+        long capturedAt = namespace.betweenTicks(() -> {
+            for (int i = 0; i < size; i++) {
+                values[i] = namespace.readValue(nodes.get(i));
+            }
+            return System.currentTimeMillis();
+        });
+        return new TagSnapshot(paths.toArray(new String[0]), values, capturedAt);
+    }
+
+    /**
+     * 여러 태그를 한 번에 쓴다. 먼저 모든 경로/값을 검증하고, 하나라도 실패하면 아무것도 쓰지 않는다.
+     * 검증을 통과하면 설비 tick 사이에서 한 번에 반영하므로 tick 은 전부 반영되기 전/후 상태만 보게 된다.
+     *
+     * @return 반영된 태그 수
+     */
+    public int writeValues(Map<String, Object> values) {
+        int size = values.size();
+        UaVariableNode[] nodes = new UaVariableNode[size];
+        Object[] coerced = new Object[size];
+        List<String> rejected = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String path = entry.getKey();
+            UaVariableNode node = find(path).orElse(null);
+            if (node == null) {
+                rejected.add(path + " (not found)");
+            } else if (!isWritable(node)) {
+                rejected.add(path + " (read-only)");
+            } else {
+                try {
+                    nodes[index] = node;
+                    coerced[index] = coerce(node, path, entry.getValue());
+                } catch (IllegalArgumentException ex) {
+                    rejected.add(ex.getMessage());
+                }
+            }
+            index++;
+        }
+        if (!rejected.isEmpty()) {
+            throw new IllegalArgumentException("Rejected tags: " + String.join(", ", rejected));
+        }
+        return namespace.betweenTicks(() -> {
+            int written = 0;
+            for (int i = 0; i < size; i++) {
+                try {
+                    namespace.writeAttributeValue(nodes[i], coerced[i]);
+                    written++;
+                } catch (UaException ex) {
+                    System.out.printf("[UaNodeManager] bulk write failed for %s: %s%n",
+                            MultiMachineNameSpace.tagPath(nodes[i].getNodeId()),
+                            ex.getMessage());
+                }
+            }
+            return written;
+        });
+    }
+
+    private static boolean isWritable(UaVariableNode node) {
+        return AccessLevel.fromValue(node.getAccessLevel()).contains(AccessLevel.CurrentWrite);
+    }
+
+    /** JSON/쿼리 파라미터로 들어온 값을 노드 DataType(Double/Int32/Int64/Boolean/String)에 맞춘다. */
+    private static Object coerce(UaVariableNode node, String path, Object value) {
+        NodeId dataType = node.getDataType();
+        try {
+            if (Identifiers.Double.equals(dataType)) {
+                return value instanceof Number n ? n.doubleValue() : Double.parseDouble(String.valueOf(value));
+            }
+            if (Identifiers.Int32.equals(dataType)) {
+                long integral = integral(path, value, "Int32");
+                if (integral < Integer.MIN_VALUE || integral > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException(path + " (out of Int32 range: " + value + ")");
+                }
+                return (int) integral;
+            }
+            if (Identifiers.Int64.equals(dataType)) {
+                return integral(path, value, "Int64");
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(path + " (expected number: " + value + ")");
+        }
+        if (Identifiers.Boolean.equals(dataType)) {
+            if (value instanceof Boolean) {
+                return value;
+            }
+            String text = String.valueOf(value);
+            if (!"true".equalsIgnoreCase(text) && !"false".equalsIgnoreCase(text)) {
+                throw new IllegalArgumentException(path + " (expected boolean: " + value + ")");
+            }
+            return Boolean.parseBoolean(text);
+        }
+        if (Identifiers.String.equals(dataType)) {
+            return value == null ? "" : String.valueOf(value);
+        }
+        return value;
+    }
+
+    /**
+     * 정수형 노드에 쓸 값. 3.7 처럼 소수부가 있거나 long 범위를 벗어난 값은 잘라내거나 wrap 하지 않고 거부한다.
+     * JSON 숫자(Double/BigInteger/BigDecimal)와 문자열 모두 BigDecimal 로 읽어 정확히 판별한다.
+     */
+    private static long integral(String path, Object value, String typeName) {
+        BigDecimal decimal = new BigDecimal(String.valueOf(value).trim());
+        try {
+            return decimal.longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException(path + " (expected " + typeName + ": " + value + ")");
+        }
+    }
+
+    /** bulk read 결과. 경로와 DataValue 를 같은 인덱스의 배열로 보관해 태그마다 객체를 만들지 않는다. */
+    public static final class TagSnapshot {
+        private final String[] paths;
+        private final DataValue[] values;
+        private final long capturedAt;
+
+        private TagSnapshot(String[] paths, DataValue[] values, long capturedAt) {
+            this.paths = paths;
+            this.values = values;
+            this.capturedAt = capturedAt;
+        }
+
+        public int size() {
+            return paths.length;
+        }
+
+        public String path(int index) {
+            return paths[index];
+        }
+
+        public DataValue value(int index) {
+            return values[index];
+        }
+
+        public long capturedAt() {
+            return capturedAt;
+        }
     }
 }
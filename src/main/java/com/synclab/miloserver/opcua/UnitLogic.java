@@ -2,32 +2,40 @@ package com.synclab.miloserver.opcua;
 
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 import org.springframework.util.StringUtils;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * 각 설비 시뮬레이터가 공통으로 사용하는 추상 클래스.
@@ -156,6 +164,8 @@ public abstract class UnitLogic {
         private OffsetDateTime clearedAt;
         private boolean active;
         private long expectedAutoClearMs;
+        // 해제 후 돌아갈 상태. snapshot 에서 되살린 알람은 가공 중 tray 가 없으므로 IDLE
+        private String resumeState = "EXECUTE";
 
         private ActiveAlarm(AlarmDefinition definition) {
             this.definition = definition;
@@ -167,6 +177,22 @@ public abstract class UnitLogic {
     protected ActiveAlarm activeAlarm;
 
     protected final Map<String, UaVariableNode> telemetryNodes = new HashMap<>();
+    // 읽기 시점에 계산되는 파생 telemetry 키. updateTelemetry 는 이 키에 대해 epoch 만 올린다.
+    private final Set<String> lazyTelemetryKeys = new HashSet<>();
+    // tick 시작과 lazy 태그 관련 상태 변경 때마다 증가하며, lazy 노드의 memo 무효화 기준이 된다.
+    private final AtomicLong telemetryEpoch = new AtomicLong();
+    // 구독되지 않아 건너뛴 telemetry 의 재계산 작업. 해당 태그가 구독되면 다음 tick 에 반영된다.
+    private final Map<String, Runnable> elidedTelemetry = new ConcurrentHashMap<>();
+    // 작업지시 요약은 청크 → manifest → payload 순서로 함께 게시한다.
+    private static final List<String> ORDER_SUMMARY_KEYS =
+            List.of("order_summary_chunk_data", "order_summary_chunks", "order_summary_payload");
+    // 이 설비 telemetry 를 샘플링 중인 monitored item 수 (MultiMachineNameSpace 가 갱신)
+    private final AtomicInteger observedItemCount = new AtomicInteger();
+    private final AtomicLong observationEpoch = new AtomicLong();
+    private long appliedObservationEpoch = 0L;
+    // -Dmilo.telemetry.elision=false 로 끄면 구독 여부와 관계없이 모든 telemetry 를 계산한다.
+    private static final boolean TELEMETRY_ELISION_ENABLED =
+            Boolean.parseBoolean(System.getProperty("milo.telemetry.elision", "true"));
     // 문서에서 언급한 "1초 주기 시뮬레이션"을 담당하는 스케줄러
     private final ScheduledExecutorService simulationExecutor =
             Executors.newSingleThreadScheduledExecutor(r -> {
@@ -174,7 +200,16 @@ public abstract class UnitLogic {
                 t.setDaemon(true);
                 return t;
             });
-    private ScheduledFuture<?> simulationTask;
+    private volatile ScheduledFuture<?> simulationTask;
+    private static final int COMMAND_MAILBOX_CAPACITY = Integer.getInteger("milo.command.mailbox.capacity", 32);
+    private final CommandMailbox commandMailbox = new CommandMailbox(COMMAND_MAILBOX_CAPACITY);
+    // 명령 Method 호출이 적용 결과를 기다리는 최대 시간 (설비 tick 주기보다 충분히 길게)
+    private static final long COMMAND_REPLY_TIMEOUT_MS = 5000L;
+    // 아래 두 필드는 시뮬레이션 스레드에서만 읽고 쓴다.
+    private StatusCode appliedCommandStatus;
+    private long supersededCommands = 0L;
+    private final Object commandSeqLock = new Object();
+    private long publishedCommandSeq = 0L;
     private final AtomicBoolean stopRequested = new AtomicBoolean(false);
     protected long stateStartTime = System.currentTimeMillis();
     private ProductionLineController lineController;
@@ -192,64 +227,195 @@ public abstract class UnitLogic {
     /** 공통 telemetry 등록 (PackML/OEE 기반) */
     // CtrlLine이 주요 태그(state, mode_state, energy_usage 등)를 인식할 수 있도록 공통 변수를 등록
     protected void setupCommonTelemetry(MultiMachineNameSpace ns) {
-        telemetryNodes.put("equipment_code", ns.addVariableNode(machineFolder, name + ".equipment_code", equipmentCode));
-        telemetryNodes.put("process_id", ns.addVariableNode(machineFolder, name + ".process_id", processId));
-        telemetryNodes.put("unit_type", ns.addVariableNode(machineFolder, name + ".unit_type", unitType));
-        telemetryNodes.put("line_id", ns.addVariableNode(machineFolder,  name + ".line_id", lineId));
-        telemetryNodes.put("machine_no", ns.addVariableNode(machineFolder, name + ".machine_no", machineNo));
-        telemetryNodes.put("state", ns.addVariableNode(machineFolder,  name + ".state", state));
-        telemetryNodes.put("mode_state", ns.addVariableNode(machineFolder, name + ".mode_state", modeState));
-        telemetryNodes.put("PPM", ns.addVariableNode(machineFolder,  name + ".PPM", ppm));
-        telemetryNodes.put("cycle_time", ns.addVariableNode(machineFolder, name + ".cycle_time", cycleTime));
-        telemetryNodes.put("uptime", ns.addVariableNode(machineFolder,  name + ".uptime", uptime));
-        telemetryNodes.put("downtime", ns.addVariableNode(machineFolder,  name + ".downtime", downtime));
-        telemetryNodes.put("availability", ns.addVariableNode(machineFolder,  name + ".availability", availability));
-        telemetryNodes.put("performance", ns.addVariableNode(machineFolder,  name + ".performance", performance));
-        telemetryNodes.put("quality_rate", ns.addVariableNode(machineFolder, name + ".quality_rate", qualityRate));
-        telemetryNodes.put("OEE", ns.addVariableNode(machineFolder, name + ".OEE", oee));
-        telemetryNodes.put("alarm_code", ns.addVariableNode(machineFolder,  name + ".alarm_code", alarmCode));
-        telemetryNodes.put("alarm_level", ns.addVariableNode(machineFolder,  name + ".alarm_level", alarmLevel));
-        telemetryNodes.put("alarm_name", ns.addVariableNode(machineFolder, name + ".alarm_name", ""));
-        telemetryNodes.put("alarm_type", ns.addVariableNode(machineFolder, name + ".alarm_type", 0));
-        telemetryNodes.put("alarm_cause", ns.addVariableNode(machineFolder, name + ".alarm_cause", ""));
-        telemetryNodes.put("alarm_occurrence_time", ns.addVariableNode(machineFolder, name + ".alarm_occurrence_time", ""));
-        telemetryNodes.put("alarm_release_time", ns.addVariableNode(machineFolder, name + ".alarm_release_time", ""));
-        telemetryNodes.put("alarm_active", ns.addVariableNode(machineFolder, name + ".alarm_active", false));
-        telemetryNodes.put("alarm_event_payload", ns.addVariableNode(machineFolder, name + ".alarm_event_payload", ""));
-        telemetryNodes.put("energy_usage", ns.addVariableNode(machineFolder, name + ".energy_usage", energyUsage));
-        telemetryNodes.put("last_maintenance", ns.addVariableNode(machineFolder, name + ".last_maintenance", lastMaintenance.toString()));
-        telemetryNodes.put("tray_id", ns.addVariableNode(machineFolder, name + ".tray_id", trayId));
-        telemetryNodes.put("tray_serials", ns.addVariableNode(machineFolder, name + ".tray_serials", ""));
-        telemetryNodes.put("tray_ng_serials", ns.addVariableNode(machineFolder, name + ".tray_ng_serials", ""));
-        telemetryNodes.put("tray_completed_ok_serials", ns.addVariableNode(machineFolder, name + ".tray_completed_ok_serials", ""));
-        telemetryNodes.put("tray_completed_ng_serials", ns.addVariableNode(machineFolder, name + ".tray_completed_ng_serials", ""));
-        telemetryNodes.put("tray_active_serial", ns.addVariableNode(machineFolder, name + ".tray_active_serial", ""));
-        telemetryNodes.put("tray_pending_count", ns.addVariableNode(machineFolder, name + ".tray_pending_count", 0));
-        telemetryNodes.put("tray_ok_count", ns.addVariableNode(machineFolder, name + ".tray_ok_count", 0));
-        telemetryNodes.put("tray_ng_count", ns.addVariableNode(machineFolder, name + ".tray_ng_count", 0));
-        telemetryNodes.put("order_ng_type", ns.addVariableNode(machineFolder, name + ".order_ng_type", 0));
-        telemetryNodes.put("order_ng_type1_qty", ns.addVariableNode(machineFolder, name + ".order_ng_type1_qty", 0));
-        telemetryNodes.put("order_ng_type2_qty", ns.addVariableNode(machineFolder, name + ".order_ng_type2_qty", 0));
-        telemetryNodes.put("order_ng_type3_qty", ns.addVariableNode(machineFolder, name + ".order_ng_type3_qty", 0));
-        telemetryNodes.put("order_ng_type4_qty", ns.addVariableNode(machineFolder, name + ".order_ng_type4_qty", 0));
-        telemetryNodes.put("order_no", ns.addVariableNode(machineFolder, name + ".order_no", orderNo));
-        telemetryNodes.put("order_target_qty", ns.addVariableNode(machineFolder, name + ".order_target_qty", targetQuantity));
-        telemetryNodes.put("order_item_code", ns.addVariableNode(machineFolder, name + ".order_item_code", orderItemCode));
-        telemetryNodes.put("order_produced_qty", ns.addVariableNode(machineFolder, name + ".order_produced_qty", producedQuantity));
-        telemetryNodes.put("order_ok_qty", ns.addVariableNode(machineFolder, name + ".order_ok_qty", okCount));
-        telemetryNodes.put("order_ng_qty", ns.addVariableNode(machineFolder, name + ".order_ng_qty", ngCount));
-        telemetryNodes.put("order_ng_name", ns.addVariableNode(machineFolder, name + ".order_ng_name", ""));
-        telemetryNodes.put("order_ng_types_payload", ns.addVariableNode(machineFolder, name + ".order_ng_types_payload", ""));
-        telemetryNodes.put("order_status", ns.addVariableNode(machineFolder, name + ".order_status", orderStatus));
-        telemetryNodes.put("mes_ack_pending", ns.addVariableNode(machineFolder, name + ".mes_ack_pending", awaitingMesAck));
-        telemetryNodes.put("ng_event_payload", ns.addVariableNode(machineFolder, name + ".ng_event_payload", ""));
-        telemetryNodes.put("order_summary_payload", ns.addVariableNode(machineFolder, name + ".order_summary_payload", ""));
+        telemetryNodes.put("equipment_code", ns.addVariableNode(machineFolder, name + ".equipment_code", equipmentCode, TagClass.CONSTANT));
+        telemetryNodes.put("process_id", ns.addVariableNode(machineFolder, name + ".process_id", processId, TagClass.CONSTANT));
+        telemetryNodes.put("unit_type", ns.addVariableNode(machineFolder, name + ".unit_type", unitType, TagClass.CONSTANT));
+        telemetryNodes.put("line_id", ns.addVariableNode(machineFolder,  name + ".line_id", lineId, TagClass.CONSTANT));
+        telemetryNodes.put("machine_no", ns.addVariableNode(machineFolder, name + ".machine_no", machineNo, TagClass.CONSTANT));
+        telemetryNodes.put("state", ns.addVariableNode(machineFolder,  name + ".state", state, TagClass.EVENT));
+        telemetryNodes.put("mode_state", ns.addVariableNode(machineFolder, name + ".mode_state", modeState, TagClass.EVENT));
+        telemetryNodes.put("PPM", ns.addVariableNode(machineFolder,  name + ".PPM", ppm, TagClass.NORMAL));
+        telemetryNodes.put("cycle_time", ns.addVariableNode(machineFolder, name + ".cycle_time", cycleTime, TagClass.NORMAL));
+        telemetryNodes.put("uptime", ns.addVariableNode(machineFolder,  name + ".uptime", uptime, TagClass.NORMAL));
+        telemetryNodes.put("downtime", ns.addVariableNode(machineFolder,  name + ".downtime", downtime, TagClass.NORMAL));
+        telemetryNodes.put("availability", ns.addVariableNode(machineFolder,  name + ".availability", availability, TagClass.NORMAL));
+        telemetryNodes.put("performance", ns.addVariableNode(machineFolder,  name + ".performance", performance, TagClass.NORMAL));
+        telemetryNodes.put("quality_rate", ns.addVariableNode(machineFolder, name + ".quality_rate", qualityRate, TagClass.NORMAL));
+        telemetryNodes.put("OEE", ns.addVariableNode(machineFolder, name + ".OEE", oee, TagClass.NORMAL));
+        telemetryNodes.put("alarm_code", ns.addVariableNode(machineFolder,  name + ".alarm_code", alarmCode, TagClass.EVENT));
+        telemetryNodes.put("alarm_level", ns.addVariableNode(machineFolder,  name + ".alarm_level", alarmLevel, TagClass.EVENT));
+        registerLazyTelemetry(ns, "alarm_name", TagClass.EVENT, () -> {
+            ActiveAlarm alarm = activeAlarm;
+            return alarm == null ? "" : alarm.definition.name;
+        });
+        registerLazyTelemetry(ns, "alarm_type", TagClass.EVENT, () -> {
+            ActiveAlarm alarm = activeAlarm;
+            return alarm == null ? 0 : alarm.definition.severity.getLevel();
+        });
+        registerLazyTelemetry(ns, "alarm_cause", TagClass.EVENT, () -> {
+            ActiveAlarm alarm = activeAlarm;
+            return alarm == null ? "" : alarm.definition.cause.name();
+        });
+        telemetryNodes.put("alarm_occurrence_time", ns.addVariableNode(machineFolder, name + ".alarm_occurrence_time", "", TagClass.EVENT));
+        telemetryNodes.put("alarm_release_time", ns.addVariableNode(machineFolder, name + ".alarm_release_time", "", TagClass.EVENT));
+        registerLazyTelemetry(ns, "alarm_active", TagClass.EVENT, () -> {
+            ActiveAlarm alarm = activeAlarm;
+            return alarm != null && alarm.active;
+        });
+        telemetryNodes.put("alarm_event_payload", ns.addVariableNode(machineFolder, name + ".alarm_event_payload", "", TagClass.EVENT));
+        telemetryNodes.put("energy_usage", ns.addVariableNode(machineFolder, name + ".energy_usage", energyUsage, TagClass.FAST));
+        telemetryNodes.put("last_maintenance", ns.addVariableNode(machineFolder, name + ".last_maintenance", lastMaintenance.toString(), TagClass.SLOW));
+        telemetryNodes.put("tray_id", ns.addVariableNode(machineFolder, name + ".tray_id", trayId, TagClass.EVENT));
+        telemetryNodes.put("tray_serials", ns.addVariableNode(machineFolder, name + ".tray_serials", "", TagClass.EVENT));
+        telemetryNodes.put("tray_ng_serials", ns.addVariableNode(machineFolder, name + ".tray_ng_serials", "", TagClass.EVENT));
+        telemetryNodes.put("tray_completed_ok_serials", ns.addVariableNode(machineFolder, name + ".tray_completed_ok_serials", "", TagClass.EVENT));
+        telemetryNodes.put("tray_completed_ng_serials", ns.addVariableNode(machineFolder, name + ".tray_completed_ng_serials", "", TagClass.EVENT));
+        telemetryNodes.put("tray_active_serial", ns.addVariableNode(machineFolder, name + ".tray_active_serial", "", TagClass.EVENT));
+        registerLazyTelemetry(ns, "tray_pending_count", TagClass.NORMAL, () -> trayPendingSerials.size());
+        registerLazyTelemetry(ns, "tray_ok_count", TagClass.NORMAL, () -> trayCompletedOkSerials.size());
+        registerLazyTelemetry(ns, "tray_ng_count", TagClass.NORMAL, () -> trayRejectedSerials.size());
+        telemetryNodes.put("order_ng_type", ns.addVariableNode(machineFolder, name + ".order_ng_type", 0, TagClass.EVENT));
+        registerLazyTelemetry(ns, "order_ng_type1_qty", TagClass.NORMAL, () -> orderNgTypeCounts[0]);
+        registerLazyTelemetry(ns, "order_ng_type2_qty", TagClass.NORMAL, () -> orderNgTypeCounts[1]);
+        registerLazyTelemetry(ns, "order_ng_type3_qty", TagClass.NORMAL, () -> orderNgTypeCounts[2]);
+        registerLazyTelemetry(ns, "order_ng_type4_qty", TagClass.NORMAL, () -> orderNgTypeCounts[3]);
+        telemetryNodes.put("order_no", ns.addVariableNode(machineFolder, name + ".order_no", orderNo, TagClass.EVENT));
+        telemetryNodes.put("order_target_qty", ns.addVariableNode(machineFolder, name + ".order_target_qty", targetQuantity, TagClass.EVENT));
+        telemetryNodes.put("order_item_code", ns.addVariableNode(machineFolder, name + ".order_item_code", orderItemCode, TagClass.EVENT));
+        // 작업지시 카운터는 EVENT 인 order_status/order_summary_payload 보다 늦게 보이지 않도록 coalescing 하지 않는다.
+        telemetryNodes.put("order_produced_qty", ns.addVariableNode(machineFolder, name + ".order_produced_qty", producedQuantity, TagClass.EVENT));
+        telemetryNodes.put("order_ok_qty", ns.addVariableNode(machineFolder, name + ".order_ok_qty", okCount, TagClass.EVENT));
+        telemetryNodes.put("order_ng_qty", ns.addVariableNode(machineFolder, name + ".order_ng_qty", ngCount, TagClass.EVENT));
+        telemetryNodes.put("order_ng_name", ns.addVariableNode(machineFolder, name + ".order_ng_name", "", TagClass.EVENT));
+        registerLazyTelemetry(ns, "order_ng_types_payload", TagClass.EVENT, this::buildNgTypePayload);
+        telemetryNodes.put("order_status", ns.addVariableNode(machineFolder, name + ".order_status", orderStatus, TagClass.EVENT));
+        telemetryNodes.put("mes_ack_pending", ns.addVariableNode(machineFolder, name + ".mes_ack_pending", awaitingMesAck, TagClass.EVENT));
+        telemetryNodes.put("ng_event_payload", ns.addVariableNode(machineFolder, name + ".ng_event_payload", "", TagClass.EVENT));
+        telemetryNodes.put("order_summary_payload", ns.addVariableNode(machineFolder, name + ".order_summary_payload", "", TagClass.EVENT));
+        telemetryNodes.put("order_summary_chunks", ns.addVariableNode(machineFolder, name + ".order_summary_chunks", "", TagClass.EVENT));
+        telemetryNodes.put("order_summary_chunk_data", ns.addArrayVariableNode(machineFolder, name + ".order_summary_chunk_data",
+                Identifiers.String, new String[0]));
+        telemetryNodes.put("command_seq", ns.addVariableNode(machineFolder, name + ".command_seq", 0L, TagClass.EVENT));
+        telemetryNodes.put("command_result", ns.addVariableNode(machineFolder, name + ".command_result", "", TagClass.EVENT));
 
         initializeDefaultTelemetryPayloads(ns);
     }
 
+    /**
+     * 값을 push 하지 않고 읽기 시점에 source 로부터 계산하는 파생 telemetry 를 등록한다.
+     * source 는 시뮬레이션 스레드 밖(OPC UA 읽기/샘플링 스레드)에서 호출되므로 tick 과 같은 설비 monitor 안에서 읽는다.
+     */
+    protected void registerLazyTelemetry(MultiMachineNameSpace ns, String key, TagClass tagClass, Supplier<Object> source) {
+        Supplier<Object> guarded = () -> {
+            synchronized (this) {
+                return source.get();
+            }
+        };
+        telemetryNodes.put(key, ns.addLazyVariableNode(machineFolder, name + "." + key, tagClass, telemetryEpoch::get, guarded));
+        lazyTelemetryKeys.add(key);
+    }
+
+    /** lazy telemetry 의 memo 를 무효화한다. */
+    protected void markTelemetryDirty() {
+        telemetryEpoch.incrementAndGet();
+    }
+
+    /** MultiMachineNameSpace 의 data item hook 에서 호출된다. */
+    void onObservationChanged(int delta, boolean newlyObservedNode) {
+        observedItemCount.addAndGet(delta);
+        if (newlyObservedNode) {
+            observationEpoch.incrementAndGet();
+        }
+    }
+
+    public int getObservedItemCount() {
+        return observedItemCount.get();
+    }
+
+    protected boolean isTelemetryObserved(MultiMachineNameSpace ns, String key) {
+        if (!TELEMETRY_ELISION_ENABLED) {
+            return true;
+        }
+        UaVariableNode node = telemetryNodes.get(key);
+        if (node == null) {
+            return true;
+        }
+        // EVENT 태그도 관측자가 없으면 놓칠 구독자가 없으므로 생략한다. 관측자가 있는 동안에는 모든 변화를 내보낸다.
+        return observedItemCount.get() > 0 && ns.isObserved(node);
+    }
+
+    /**
+     * 공정 측정값, payload 문자열, 시리얼 목록처럼 계산 비용이 있는 telemetry 갱신.
+     * 구독자가 없으면 값을 만들지 않고 마지막 요청만 보관했다가, 구독이 생기는 즉시 계산해 반영한다.
+     * REST/SSE 읽기는 readValue 가 materializeElidedTelemetry 로 먼저 계산하게 한다.
+     * (구독 없이 OPC Read 만 하는 클라이언트는 마지막으로 publish 된 값을 보게 된다.)
+     */
+    protected void updateObservedTelemetry(MultiMachineNameSpace ns, String key, Supplier<Object> value) {
+        if (isTelemetryObserved(ns, key)) {
+            elidedTelemetry.remove(key);
+            updateTelemetry(ns, key, value.get());
+        } else {
+            elidedTelemetry.put(key, () -> updateTelemetry(ns, key, value.get()));
+        }
+    }
+
+    /**
+     * 여러 태그를 정해진 순서로 함께 게시하는 갱신(작업지시 요약의 청크 → manifest → payload 등).
+     * 그중 하나라도 관측 중이면 바로 실행하고, 아니면 모든 태그에 같은 작업을 미뤄 두어 어느 태그를 읽어도 한 번에 반영된다.
+     */
+    protected void updateObservedTelemetryGroup(MultiMachineNameSpace ns, List<String> keys, Runnable publish) {
+        for (String key : keys) {
+            if (isTelemetryObserved(ns, key)) {
+                keys.forEach(elidedTelemetry::remove);
+                publish.run();
+                return;
+            }
+        }
+        keys.forEach(key -> elidedTelemetry.put(key, publish));
+    }
+
+    /**
+     * 서버 내부 읽기 직전, 또는 노드가 처음 관측되기 시작할 때 호출된다.
+     * nodeId 의 계산을 미뤄 두었으면 지금 설비 상태로 계산해 반영한다.
+     */
+    synchronized void materializeElidedTelemetry(MultiMachineNameSpace ns, NodeId nodeId) {
+        if (elidedTelemetry.isEmpty()) {
+            return;
+        }
+        elidedTelemetry.forEach((key, republish) -> {
+            UaVariableNode node = telemetryNodes.get(key);
+            if (node != null && node.getNodeId().equals(nodeId) && elidedTelemetry.remove(key, republish)) {
+                runElided(republish);
+            }
+        });
+    }
+
+    /** 같은 작업을 공유하는 다른 태그(group)의 대기 항목도 함께 지운다. */
+    private void runElided(Runnable republish) {
+        elidedTelemetry.values().removeIf(pending -> pending == republish);
+        republish.run();
+    }
+
+    private synchronized void republishObservedTelemetry(MultiMachineNameSpace ns) {
+        long epoch = observationEpoch.get();
+        if (epoch == appliedObservationEpoch || elidedTelemetry.isEmpty()) {
+            appliedObservationEpoch = epoch;
+            return;
+        }
+        appliedObservationEpoch = epoch;
+        elidedTelemetry.forEach((key, republish) -> {
+            if (isTelemetryObserved(ns, key) && elidedTelemetry.remove(key, republish)) {
+                runElided(republish);
+            }
+        });
+    }
+
     /** Telemetry 값 업데이트 및 구독자 알림 */
     protected void updateTelemetry(MultiMachineNameSpace ns, String key, Object value) {
+        if (lazyTelemetryKeys.contains(key)) {
+            markTelemetryDirty();
+            return;
+        }
         UaVariableNode node = telemetryNodes.get(key);
         if (node == null) return;
 
@@ -323,10 +489,10 @@ public abstract class UnitLogic {
     protected void updateTrayTelemetry(MultiMachineNameSpace ns) {
         refreshPendingSerialsView();
         updateTelemetry(ns, "tray_id", trayId);
-        updateTelemetry(ns, "tray_serials", serializeSerials(traySerials));
-        updateTelemetry(ns, "tray_ng_serials", serializeSerials(trayRejectedSerials));
-        updateTelemetry(ns, "tray_completed_ok_serials", serializeSerials(trayCompletedOkSerials));
-        updateTelemetry(ns, "tray_completed_ng_serials", serializeSerials(trayRejectedSerials));
+        updateObservedTelemetry(ns, "tray_serials", () -> serializeSerials(traySerials));
+        updateObservedTelemetry(ns, "tray_ng_serials", () -> serializeSerials(trayRejectedSerials));
+        updateObservedTelemetry(ns, "tray_completed_ok_serials", () -> serializeSerials(trayCompletedOkSerials));
+        updateObservedTelemetry(ns, "tray_completed_ng_serials", () -> serializeSerials(trayRejectedSerials));
         updateTelemetry(ns, "tray_active_serial", activeSerial);
         updateTelemetry(ns, "tray_pending_count", traySerials.size());
         updateTelemetry(ns, "tray_ok_count", trayCompletedOkSerials.size());
@@ -337,38 +503,6 @@ public abstract class UnitLogic {
         return serials.isEmpty() ? "" : String.join(",", serials);
     }
 
-    private String serializeSerialsAsJsonArray(List<String> serials) {
-        if (serials == null || serials.isEmpty()) {
-            return "[]";
-        }
-        StringBuilder builder = new StringBuilder("[");
-        for (int i = 0; i < serials.size(); i++) {
-            if (i > 0) {
-                builder.append(',');
-            }
-            builder.append('\"')
-                    .append(escapeJson(serials.get(i)))
-                    .append('\"');
-        }
-        builder.append(']');
-        return builder.toString();
-    }
-
-    private String serializeSerialsAsGzipBase64(List<String> serials) {
-        if (serials == null || serials.isEmpty()) {
-            return "";
-        }
-        String jsonArray = serializeSerialsAsJsonArray(serials);
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             GZIPOutputStream gzip = new GZIPOutputStream(baos)) {
-            gzip.write(jsonArray.getBytes(StandardCharsets.UTF_8));
-            gzip.finish();
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
-        } catch (IOException ex) {
-            return "";
-        }
-    }
-
     private void recordOrderOkSerial(String serial) {
         if (!publishFinalSerialsInSummary || serial == null || serial.isBlank()) {
             return;
@@ -430,6 +564,14 @@ public abstract class UnitLogic {
         return activeSerial;
     }
 
+    /** 현재 serial 의 공정 측정값을 ProcessMeasurementStore 에 남긴다. values 는 columns 순서 (boolean 은 1/0) */
+    protected synchronized void recordProcessMeasurements(MultiMachineNameSpace ns, String[] columns, double... values) {
+        if (activeSerial == null || activeSerial.isEmpty()) {
+            return;
+        }
+        ns.getMeasurementStore().append(unitType, orderNo, name, activeSerial, columns, values);
+    }
+
     public synchronized void completeActiveSerialOk(MultiMachineNameSpace ns) {
         if (activeSerial == null || activeSerial.isEmpty()) {
             return;
@@ -522,7 +664,7 @@ public abstract class UnitLogic {
         updateTelemetry(ns, "order_ng_type3_qty", orderNgTypeCounts[2]);
         updateTelemetry(ns, "order_ng_type4_qty", orderNgTypeCounts[3]);
         updateTelemetry(ns, "order_ng_name", lastNgName);
-        publishNgTypePayload(ns);
+        markTelemetryDirty();
     }
 
     protected void resetOrderNgCounts(MultiMachineNameSpace ns) {
@@ -562,68 +704,83 @@ public abstract class UnitLogic {
     }
 
     private void publishNgEvent(MultiMachineNameSpace ns, int ngType, int ngQty) {
-        String payload = String.format(
-                "{\"equipmentCode\":\"%s\",\"order_no\":\"%s\",\"ng_type\":%d,\"ng_name\":\"%s\",\"ng_qty\":%d}",
-                equipmentCode == null ? "" : equipmentCode,
-                orderNo == null ? "" : orderNo,
-                ngType,
-                lastNgName == null ? "" : lastNgName,
-                Math.max(ngQty, 0)
-        );
-        updateTelemetry(ns, "ng_event_payload", payload);
-    }
-
-    private void publishNgTypePayload(MultiMachineNameSpace ns) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("{\"equipmentCode\":\"")
-                .append(escapeJson(equipmentCode))
-                .append("\",\"order_no\":\"")
-                .append(escapeJson(orderNo))
-                .append("\",\"types\":[");
+        String eventOrderNo = orderNo;
+        String ngName = lastNgName;
+        updateObservedTelemetry(ns, "ng_event_payload", () -> JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("equipmentCode", equipmentCode)
+                .field("order_no", eventOrderNo)
+                .field("ng_type", ngType)
+                .field("ng_name", ngName)
+                .field("ng_qty", Math.max(ngQty, 0))
+                .endObject()
+                .toJson());
+    }
+
+    private String buildNgTypePayload() {
+        JsonPayloadWriter writer = JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("equipmentCode", equipmentCode)
+                .field("order_no", orderNo)
+                .name("types")
+                .beginArray();
         for (int i = 0; i < trayNgTypeCounts.length; i++) {
-            if (i > 0) {
-                builder.append(',');
-            }
             int type = i + 1;
-            builder.append("{\"type\":")
-                    .append(type)
-                    .append(",\"name\":\"")
-                    .append(escapeJson(ngTypeNameMap.getOrDefault(type, "")))
-                    .append("\",\"qty\":")
-                    .append(Math.max(orderNgTypeCounts[i], 0))
-                    .append('}');
+            writer.beginObject()
+                    .field("type", type)
+                    .field("name", ngTypeNameMap.getOrDefault(type, ""))
+                    .field("qty", Math.max(orderNgTypeCounts[i], 0))
+                    .endObject();
         }
-        builder.append("]}");
-        updateTelemetry(ns, "order_ng_types_payload", builder.toString());
+        return writer.endArray().endObject().toJson();
     }
 
-    private String escapeJson(String value) {
-        if (value == null) {
-            return "";
-        }
-        return value.replace("\"", "\\\"");
+    private void updateOrderSummaryPayload(MultiMachineNameSpace ns) {
+        updateObservedTelemetryGroup(ns, ORDER_SUMMARY_KEYS, () -> publishOrderSummary(ns));
     }
 
-    private void updateOrderSummaryPayload(MultiMachineNameSpace ns) {
+    private void publishOrderSummary(MultiMachineNameSpace ns) {
         if (!StringUtils.hasText(orderNo)) {
+            publishOrderSummaryChunks(ns, OrderSummaryChunks.empty());
             updateTelemetry(ns, "order_summary_payload", "");
             return;
         }
-        String compressedSerials = publishFinalSerialsInSummary
-                ? serializeSerialsAsGzipBase64(new ArrayList<>(orderCompletedOkSerials))
-                : "";
-        String payload = String.format(
-                "{\"equipmentCode\":\"%s\",\"order_no\":\"%s\",\"status\":\"%s\",\"order_produced_qty\":%d,\"order_ng_qty\":%d,\"good_serials_gzip\":\"%s\"}",
-                escapeJson(equipmentCode),
-                escapeJson(orderNo),
-                escapeJson(orderStatus),
-                producedQuantity,
-                ngCount,
-                compressedSerials
-        );
+        OrderSummaryChunks chunks = publishFinalSerialsInSummary
+                ? OrderSummaryChunks.encode(orderCompletedOkSerials, OrderSummaryChunks.DEFAULT_CHUNK_CHARS)
+                : OrderSummaryChunks.empty();
+        // 청크 데이터 → manifest → payload 순으로 게시해, manifest 변경을 본 클라이언트가 항상 완성된 청크를 읽도록 한다.
+        publishOrderSummaryChunks(ns, chunks);
+        String payload = JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("equipmentCode", equipmentCode)
+                .field("order_no", orderNo)
+                .field("status", orderStatus)
+                .field("order_produced_qty", producedQuantity)
+                .field("order_ng_qty", ngCount)
+                .field("good_serials_gzip", chunks.inlineValue())
+                .field("good_serials_chunks", chunks.count())
+                .field("good_serials_crc32", chunks.crc32Hex())
+                .endObject()
+                .toJson();
         updateTelemetry(ns, "order_summary_payload", payload);
     }
 
+    private void publishOrderSummaryChunks(MultiMachineNameSpace ns, OrderSummaryChunks chunks) {
+        updateTelemetry(ns, "order_summary_chunk_data", chunks.chunks());
+        String manifest = JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("equipmentCode", equipmentCode)
+                .field("order_no", orderNo)
+                .field("count", chunks.count())
+                .field("chunk_size", chunks.chunkChars())
+                .field("total_length", chunks.totalLength())
+                .field("crc32", chunks.crc32Hex())
+                .field("encoding", OrderSummaryChunks.ENCODING)
+                .endObject()
+                .toJson();
+        updateTelemetry(ns, "order_summary_chunks", manifest);
+    }
+
     private void initializeDefaultTelemetryPayloads(MultiMachineNameSpace ns) {
         resetNgTelemetry(ns);
         publishNgEvent(ns, 0, 0);
@@ -636,22 +793,32 @@ public abstract class UnitLogic {
                                     OffsetDateTime clearedAt,
                                     Integer clearedUserId) {
         if (definition == null || occurredAt == null) {
-            updateTelemetry(ns, "alarm_event_payload", "");
+            updateObservedTelemetry(ns, "alarm_event_payload", () -> "");
             return;
         }
-        String userValue = clearedUserId == null ? "null" : String.valueOf(clearedUserId);
-        String payload = String.format(
-                "{\"equipmentCode\":\"%s\",\"alarm_code\":\"%s\",\"alarm_type\":%d,\"alarm_name\":\"%s\",\"alarm_level\":\"%s\",\"occurred_at\":\"%s\",\"cleared_at\":\"%s\",\"user\":%s}",
-                equipmentCode == null ? "" : equipmentCode,
-                definition.code == null ? "" : definition.code,
-                definition.severity.getLevel(),
-                definition.name == null ? "" : definition.name,
-                definition.severity.getDisplay(),
-                occurredAt.toString(),
-                clearedAt == null ? "" : clearedAt.toString(),
-                userValue
-        );
-        updateTelemetry(ns, "alarm_event_payload", payload);
+        updateObservedTelemetry(ns, "alarm_event_payload",
+                () -> buildAlarmPayload(definition, occurredAt, clearedAt, clearedUserId));
+    }
+
+    private String buildAlarmPayload(AlarmDefinition definition,
+                                     OffsetDateTime occurredAt,
+                                     OffsetDateTime clearedAt,
+                                     Integer clearedUserId) {
+        JsonPayloadWriter writer = JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("equipmentCode", equipmentCode)
+                .field("alarm_code", definition.code)
+                .field("alarm_type", definition.severity.getLevel())
+                .field("alarm_name", definition.name)
+                .field("alarm_level", definition.severity.getDisplay())
+                .field("occurred_at", occurredAt.toString())
+                .field("cleared_at", clearedAt == null ? "" : clearedAt.toString());
+        if (clearedUserId == null) {
+            writer.nullField("user");
+        } else {
+            writer.field("user", clearedUserId.longValue());
+        }
+        return writer.endObject().toJson();
     }
 
     public synchronized void beginContinuousOrder(MultiMachineNameSpace ns,
@@ -735,45 +902,231 @@ public abstract class UnitLogic {
 
         String[] tokens = command.split(":");
         String action = tokens[0].trim().toUpperCase();
+        StatusCode result;
 
         switch (action) {
             case "START":
                 if (tokens.length < 3) {
                     System.err.printf("[%s] START command requires at least orderNo:targetQty but got '%s'%n", name, command);
+                    appliedCommandStatus = new StatusCode(StatusCodes.Bad_InvalidArgument);
                     return true;
                 }
                 try {
-                    String orderId = tokens[1];
-                    int targetQty = Integer.parseInt(tokens[2]);
+                    int targetQty = Integer.parseInt(tokens[2].trim());
                     int targetPpm = 0;
                     if (tokens.length >= 4 && !tokens[3].isBlank()) {
-                        targetPpm = Integer.parseInt(tokens[3]);
+                        targetPpm = Integer.parseInt(tokens[3].trim());
                     }
-                    handleStartCommand(ns, orderId, targetQty, targetPpm, null);
+                    result = startOrderCommand(ns, tokens[1], targetQty, null, targetPpm);
                 } catch (NumberFormatException ex) {
                     System.err.printf("[%s] Invalid START parameters '%s': %s%n", name, command, ex.getMessage());
+                    appliedCommandStatus = new StatusCode(StatusCodes.Bad_InvalidArgument);
+                    return true;
                 }
-                return true;
+                break;
 
             case "ACK":
-                acknowledgeOrderCompletion(ns);
-                return true;
+                result = ackCommand(ns);
+                break;
 
             case "RESET":
-                if (!awaitingMesAck) {
-                    resetOrderState(ns);
-                    changeState(ns, "IDLE");
-                }
-                return true;
+                result = resetCommand(ns);
+                break;
 
             case "STOP":
-                requestSimulationStop();
-                changeState(ns, "STOPPING");
-                return true;
+                result = stopCommand(ns);
+                break;
 
             default:
+                appliedCommandStatus = new StatusCode(StatusCodes.Bad_NotSupported);
                 return false;
         }
+        appliedCommandStatus = result;
+        if (result.isBad()) {
+            System.err.printf("[%s] Command '%s' rejected: %s%n", name, command, result);
+        }
+        return true;
+    }
+
+    /**
+     * .command 쓰기 진입점. 쓰기 스레드에서는 mailbox 에 넣고 순번을 command_seq 로 알린 뒤 바로 반환하며,
+     * 명령은 다음 tick 경계에서 설비 시뮬레이션 스레드가 적용하고 결과를 command_result 로 남긴다.
+     * 대기열이 가득 차면 Bad_ResourceUnavailable 을 반환해 쓰기 자체를 거부한다. STOP 은 대기 중인 STOP 에 합쳐져 항상 받아들인다.
+     */
+    public StatusCode submitCommand(MultiMachineNameSpace ns, String command) {
+        return enqueueCommand(ns, command, null) != null
+                ? StatusCode.GOOD
+                : new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+    }
+
+    /**
+     * 명령 Method 진입점. .command 쓰기와 같은 mailbox 순서로 tick 경계에서 적용되며(command_seq/command_result 포함),
+     * 호출 스레드는 적용 결과를 최대 COMMAND_REPLY_TIMEOUT_MS 동안 기다린다. tick 을 막는 write lock 은 잡지 않는다.
+     */
+    private StatusCode requestCommand(MultiMachineNameSpace ns, String text, Supplier<StatusCode> action) {
+        CommandMailbox.Command command = enqueueCommand(ns, text, action);
+        if (command == null) {
+            return new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+        }
+        try {
+            return command.reply().get(COMMAND_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            System.err.printf("[%s] Command #%d '%s' not applied within %d ms%n", name, command.seq(), text, COMMAND_REPLY_TIMEOUT_MS);
+            return new StatusCode(StatusCodes.Bad_Timeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new StatusCode(StatusCodes.Bad_Shutdown);
+        } catch (ExecutionException ex) {
+            return new StatusCode(StatusCodes.Bad_InternalError);
+        }
+    }
+
+    private CommandMailbox.Command enqueueCommand(MultiMachineNameSpace ns, String text, Supplier<StatusCode> action) {
+        boolean urgent = "STOP".equalsIgnoreCase(text.split(":", 2)[0].trim());
+        CommandMailbox.Command command = commandMailbox.submit(text, urgent, action);
+        if (command == null) {
+            System.err.printf("[%s] Command mailbox full; rejected '%s'%n", name, text);
+            return null;
+        }
+        publishCommandSeq(ns, command.seq());
+        if (!isSimulationRunning()) {
+            // tick 이 돌지 않는 설비(정지 상태)는 같은 시뮬레이션 스레드에서 한 번만 비운다.
+            simulationExecutor.execute(() -> ns.runTick(() -> applyQueuedCommands(ns)));
+        }
+        return command;
+    }
+
+    /**
+     * 여러 쓰기 스레드가 동시에 enqueue 하면 순번 발급과 게시 순서가 뒤바뀔 수 있으므로,
+     * 지금까지 게시한 것보다 큰 순번만 게시해 command_seq 가 뒤로 가지 않게 한다.
+     */
+    private void publishCommandSeq(MultiMachineNameSpace ns, long seq) {
+        synchronized (commandSeqLock) {
+            if (seq <= publishedCommandSeq) {
+                return;
+            }
+            publishedCommandSeq = seq;
+            updateTelemetry(ns, "command_seq", seq);
+        }
+    }
+
+    /** 시뮬레이션 스레드에서 tick 시작 시 호출된다. */
+    private void applyQueuedCommands(MultiMachineNameSpace ns) {
+        commandMailbox.drain(command -> applyQueuedCommand(ns, command), command -> {
+            System.out.printf("[%s] Command #%d '%s' superseded by STOP%n", name, command.seq(), command.text());
+            supersededCommands++;
+            StatusCode status = new StatusCode(StatusCodes.Bad_RequestCancelledByRequest);
+            command.reply().complete(status);
+            publishCommandResult(ns, command, status, true);
+        });
+        if (commandMailbox.hasPending() && !isSimulationRunning()) {
+            simulationExecutor.execute(() -> ns.runTick(() -> applyQueuedCommands(ns)));
+        }
+    }
+
+    private void applyQueuedCommand(MultiMachineNameSpace ns, CommandMailbox.Command command) {
+        appliedCommandStatus = null;
+        try {
+            if (command.action() != null) {
+                appliedCommandStatus = command.action().get();
+            } else {
+                onCommand(ns, command.text());
+            }
+        } catch (RuntimeException ex) {
+            System.err.printf("[%s] Command #%d '%s' failed: %s%n", name, command.seq(), command.text(), ex.getMessage());
+            appliedCommandStatus = new StatusCode(StatusCodes.Bad_InternalError);
+        }
+        // onCommand 가 handleCommonCommand 를 거치지 않고 직접 처리한 명령은 Good 으로 본다.
+        StatusCode status = appliedCommandStatus != null ? appliedCommandStatus : StatusCode.GOOD;
+        command.reply().complete(status);
+        publishCommandResult(ns, command, status, false);
+    }
+
+    /** STOP 에 밀려 적용되지 않은 명령도 superseded=true 결과를 남겨, 순번을 기다리는 클라이언트가 결과를 받게 한다. */
+    private void publishCommandResult(MultiMachineNameSpace ns, CommandMailbox.Command command, StatusCode status, boolean superseded) {
+        JsonPayloadWriter json = JsonPayloadWriter.acquire()
+                .beginObject()
+                .field("seq", command.seq())
+                .field("command", command.text())
+                .field("status", statusName(status))
+                .field("applied_at", OffsetDateTime.now().toString());
+        if (superseded) {
+            json.field("superseded", true);
+        } else if (command.priority()) {
+            json.field("superseded_count", supersededCommands);
+            supersededCommands = 0;
+        }
+        updateTelemetry(ns, "command_result", json.endObject().toJson());
+    }
+
+    private static String statusName(StatusCode status) {
+        return StatusCodes.lookup(status.getValue())
+                .map(names -> names[0])
+                .orElse(String.format("0x%08X", status.getValue()));
+    }
+
+    /** StartOrder Method / "START:orderNo:qty[:ppm]" 명령. itemCode 가 비어 있으면 기존 품목 코드를 유지한다. */
+    protected StatusCode startOrderCommand(MultiMachineNameSpace ns, String orderId, int targetQty, String itemCode, int targetPpm) {
+        if (orderId == null || orderId.isBlank()) {
+            return new StatusCode(StatusCodes.Bad_InvalidArgument);
+        }
+        if (targetQty <= 0 || targetPpm < 0) {
+            return new StatusCode(StatusCodes.Bad_OutOfRange);
+        }
+        String sanitizedItemCode = itemCode != null && !itemCode.isBlank() ? itemCode.trim() : null;
+        handleStartCommand(ns, orderId.trim(), targetQty, targetPpm, sanitizedItemCode);
+        return StatusCode.GOOD;
+    }
+
+    /** 완료(COMPLETE) 상태이거나 MES ACK 대기 중일 때만 받는다. */
+    protected StatusCode ackCommand(MultiMachineNameSpace ns) {
+        if (!awaitingMesAck && !"COMPLETE".equalsIgnoreCase(state)) {
+            return new StatusCode(StatusCodes.Bad_InvalidState);
+        }
+        acknowledgeOrderCompletion(ns);
+        return StatusCode.GOOD;
+    }
+
+    /** MES ACK 대기 중에는 작업지시를 지울 수 없다. */
+    protected StatusCode resetCommand(MultiMachineNameSpace ns) {
+        if (awaitingMesAck) {
+            return new StatusCode(StatusCodes.Bad_InvalidState);
+        }
+        resetOrderState(ns);
+        changeState(ns, "IDLE");
+        return StatusCode.GOOD;
+    }
+
+    protected StatusCode stopCommand(MultiMachineNameSpace ns) {
+        requestSimulationStop();
+        changeState(ns, "STOPPING");
+        return StatusCode.GOOD;
+    }
+
+    /** 설비 폴더의 명령 Method 노드(StartOrder/Ack/Stop/Reset)가 호출하는 대상. 모든 호출은 command mailbox 를 거친다. */
+    CommandMethods.Target commandTarget(MultiMachineNameSpace ns) {
+        return new CommandMethods.Target() {
+            @Override
+            public StatusCode startOrderCommand(String orderNo, int targetQty, String itemCode, int ppm) {
+                return requestCommand(ns, "START:" + orderNo + ":" + targetQty + ":" + ppm,
+                        () -> UnitLogic.this.startOrderCommand(ns, orderNo, targetQty, itemCode, ppm));
+            }
+
+            @Override
+            public StatusCode ackCommand() {
+                return requestCommand(ns, "ACK", () -> UnitLogic.this.ackCommand(ns));
+            }
+
+            @Override
+            public StatusCode stopCommand() {
+                return requestCommand(ns, "STOP", () -> UnitLogic.this.stopCommand(ns));
+            }
+
+            @Override
+            public StatusCode resetCommand() {
+                return requestCommand(ns, "RESET", () -> UnitLogic.this.resetCommand(ns));
+            }
+        };
     }
 
     protected AlarmDefinition registerAlarm(String code,
@@ -879,7 +1232,7 @@ public abstract class UnitLogic {
         updateAlarmPayload(ns, activeAlarm.definition, activeAlarm.occurredAt, activeAlarm.clearedAt, clearedUserId);
 
         if ("HOLD".equals(state) || "SUSPEND".equals(state)) {
-            changeState(ns, "EXECUTE");
+            changeState(ns, activeAlarm.resumeState);
         }
     }
 
@@ -964,7 +1317,12 @@ public abstract class UnitLogic {
         if (simulationTask == null || simulationTask.isCancelled() || simulationTask.isDone()) {
             simulationTask = simulationExecutor.scheduleAtFixedRate(() -> {
                 try {
-                    simulateStep(ns);
+                    ns.runTick(() -> {
+                        applyQueuedCommands(ns);
+                        markTelemetryDirty();
+                        republishObservedTelemetry(ns);
+                        simulateStep(ns);
+                    });
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -1004,6 +1362,11 @@ public abstract class UnitLogic {
         }
     }
 
+    private boolean isSimulationRunning() {
+        ScheduledFuture<?> task = simulationTask;
+        return task != null && !task.isDone();
+    }
+
     protected synchronized void stopSimulation() {
         if (simulationTask != null) {
             simulationTask.cancel(false);
@@ -1130,6 +1493,62 @@ public abstract class UnitLogic {
         changeState(ns, "RESETTING");
     }
 
+    /** 작업지시/누적 카운터/NG 유형/활성 알람. tray 진행 상태는 라인 snapshot 이 가진다. */
+    synchronized SimulationSnapshotStore.MachineState captureState() {
+        boolean alarmActive = activeAlarm != null && activeAlarm.active;
+        return new SimulationSnapshotStore.MachineState(
+                SimulationSnapshotStore.machineKey(this),
+                orderNo,
+                orderItemCode,
+                orderStatus,
+                orderActive,
+                awaitingMesAck,
+                targetQuantity,
+                producedQuantity,
+                okCount,
+                ngCount,
+                orderNgTypeCounts.clone(),
+                trayNgTypeCounts.clone(),
+                alarmActive ? activeAlarm.definition.code : "",
+                alarmActive ? activeAlarm.occurredAt.toInstant().toEpochMilli() : -1L,
+                alarmActive ? activeAlarm.expectedAutoClearMs : 0L
+        );
+    }
+
+    /**
+     * 기동 직후(IDLE, tray 없음) snapshot 값을 되살린다. 카운터는 라인에 이벤트로 전달되어 tray 완료 판정 기준이 된다.
+     * 알람은 원래 발생 시각/자동 해제 시각으로 다시 걸고, 해제되면 IDLE 로 돌아가 라인의 tray 를 다시 받는다.
+     */
+    synchronized void restoreState(MultiMachineNameSpace ns, SimulationSnapshotStore.MachineState saved) {
+        orderNo = saved.orderNo;
+        updateTelemetry(ns, "order_no", orderNo);
+        updateOrderItemCode(ns, saved.itemCode);
+        targetQuantity = saved.targetQty;
+        updateTelemetry(ns, "order_target_qty", targetQuantity);
+        System.arraycopy(saved.ngTypeCounts, 0, orderNgTypeCounts, 0,
+                Math.min(saved.ngTypeCounts.length, orderNgTypeCounts.length));
+        updateNgTelemetry(ns);
+        updateProducedQuantity(ns, saved.producedQty);
+        updateQualityCounts(ns, saved.okCount, saved.ngCount);
+        orderActive = saved.orderActive;
+        updateOrderStatus(ns, saved.orderStatus);
+        if (saved.awaitingAck) {
+            updateMesAckPending(ns, true);
+        }
+        AlarmDefinition definition = saved.alarmCode.isEmpty() ? null : alarmDefinitions.get(saved.alarmCode);
+        if (definition != null) {
+            ActiveAlarm alarm = triggerAlarm(ns, definition);
+            alarm.resumeState = "IDLE";
+            alarm.expectedAutoClearMs = saved.alarmAutoClearAt;
+            if (saved.alarmOccurredAt > 0) {
+                alarm.occurredAt = OffsetDateTime.ofInstant(Instant.ofEpochMilli(saved.alarmOccurredAt),
+                        ZoneId.systemDefault());
+                updateTelemetry(ns, "alarm_occurrence_time", alarm.occurredAt.toString());
+                updateAlarmPayload(ns, definition, alarm.occurredAt, null, null);
+            }
+        }
+    }
+
     protected void resetOrderState(MultiMachineNameSpace ns) {
         this.orderNo = "";
         this.targetQuantity = 0;
@@ -0,0 +1,45 @@
+package com.synclab.miloserver.opcua;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandMailboxTests {
+
+    @Test
+    void stopIsNeverRejectedAndCoalesces() {
+        CommandMailbox mailbox = new CommandMailbox(1);
+        assertThat(mailbox.offer("START", false)).isEqualTo(1L);
+        assertThat(mailbox.offer("RESET", false)).isEqualTo(-1L);
+
+        long first = mailbox.offer("STOP", true);
+        for (int i = 0; i < 10; i++) {
+            assertThat(mailbox.offer("STOP", true)).isEqualTo(first);
+        }
+
+        List<String> applied = new ArrayList<>();
+        List<String> superseded = new ArrayList<>();
+        mailbox.drain(command -> applied.add(command.text()), command -> superseded.add(command.text()));
+        assertThat(applied).containsExactly("STOP");
+        assertThat(superseded).containsExactly("START");
+        assertThat(mailbox.hasPending()).isFalse();
+    }
+
+    @Test
+    void repeatedStopSupersedesCommandsQueuedBeforeIt() {
+        CommandMailbox mailbox = new CommandMailbox(4);
+        mailbox.offer("STOP", true);
+        mailbox.offer("START", false);
+        mailbox.offer("STOP", true);
+        long after = mailbox.offer("RESET", false);
+
+        List<Long> applied = new ArrayList<>();
+        List<String> superseded = new ArrayList<>();
+        mailbox.drain(command -> applied.add(command.seq()), command -> superseded.add(command.text()));
+        assertThat(superseded).containsExactly("START");
+        assertThat(applied).containsExactly(1L, after);
+    }
+}
@@ -0,0 +1,31 @@
+package com.synclab.miloserver.opcua;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonPayloadWriterTests {
+
+    @Test
+    void fixedMatchesBigDecimalHalfUp() {
+        double[] values = {1.005, 2.675, 0.125, -1.005, 1.0, 0.0, 23.456, 99.995, 1234567.8945, -0.004};
+        for (double value : values) {
+            for (int scale = 0; scale <= 4; scale++) {
+                StringBuilder out = new StringBuilder();
+                JsonPayloadWriter.appendFixed(out, value, scale);
+                BigDecimal expected = BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP);
+                assertThat(new BigDecimal(out.toString())).as("%s scale %d", value, scale).isEqualByComparingTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void fixedWritesNullForNonFinite() {
+        StringBuilder out = new StringBuilder();
+        JsonPayloadWriter.appendFixed(out, Double.NaN, 2);
+        assertThat(out).hasToString("null");
+    }
+}
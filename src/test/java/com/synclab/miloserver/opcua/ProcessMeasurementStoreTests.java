@@ -0,0 +1,126 @@
+package com.synclab.miloserver.opcua;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProcessMeasurementStoreTests {
+
+    private static final String[] COLUMNS = {"viscosity_cP", "thickness_um"};
+
+    @Test
+    void spilledChunksReadBackThroughOneGrowingMapping(@TempDir Path dir) throws IOException {
+        ProcessMeasurementStore store = new ProcessMeasurementStore(4, 1, dir);
+        int rows = ProcessMeasurementStore.CHUNK_ROWS * 6 + 10;
+        for (int i = 0; i < rows; i++) {
+            store.append("ElectrodeUnit", "ORD-1", "ElectrodeUnit01", "S" + i, COLUMNS, new double[]{i, i * 0.5});
+        }
+
+        ProcessMeasurementStore.TableSummary summary = store.summaries().get(0);
+        assertThat(summary.getRows()).isEqualTo(rows);
+        assertThat(summary.getSpilledChunks()).isEqualTo(5);
+        assertThat(summary.getColumns().get(0).getMax()).isEqualTo(rows - 1.0);
+
+        // 첫 chunk 는 파일로 옮긴 뒤 mapping 이 여러 번 커졌어도 같은 값을 읽어야 한다.
+        List<ProcessMeasurementStore.Row> first = store.read("ElectrodeUnit", "ORD-1", 0, 2);
+        assertThat(first).extracting(ProcessMeasurementStore.Row::getSerial).containsExactly("S0", "S1");
+        assertThat(first.get(1).getValues()).containsEntry("thickness_um", 0.5);
+        assertThat(first.get(0).getMachine()).isEqualTo("ElectrodeUnit01");
+        assertThat(first.get(0).getRecordedAt()).isPositive();
+        int spilledIndex = ProcessMeasurementStore.CHUNK_ROWS * 4 + 7;
+        assertThat(store.read("ElectrodeUnit", "ORD-1", spilledIndex, 1).get(0).getValues())
+                .containsEntry("viscosity_cP", (double) spilledIndex);
+
+        StringWriter csv = new StringWriter();
+        assertThat(store.exportCsv("ElectrodeUnit", "ORD-1", csv)).isTrue();
+        assertThat(csv.toString().lines().count()).isEqualTo(rows + 1L);
+
+        store.close();
+        assertThat(spillFiles(dir)).isEmpty();
+    }
+
+    @Test
+    void tablesWithCollidingSanitizedNamesUseSeparateFiles(@TempDir Path dir) throws IOException {
+        ProcessMeasurementStore store = new ProcessMeasurementStore(4, 1, dir);
+        int rows = ProcessMeasurementStore.CHUNK_ROWS * 3;
+        for (int i = 0; i < rows; i++) {
+            store.append("Unit", "ORD/1", "M1", "A" + i, COLUMNS, new double[]{1.0, 1.0});
+            store.append("Unit", "ORD:1", "M1", "B" + i, COLUMNS, new double[]{2.0, 2.0});
+        }
+        // 두 테이블 모두 spill 했으므로 같은 파일을 썼다면 먼저 연 쪽 값이 덮어써진다.
+        assertThat(store.summaries()).allSatisfy(summary -> assertThat(summary.getSpilledChunks()).isEqualTo(1));
+        assertThat(store.read("Unit", "ORD/1", 0, 1).get(0).getValues()).containsEntry("viscosity_cP", 1.0);
+        assertThat(store.read("Unit", "ORD:1", 0, 1).get(0).getValues()).containsEntry("viscosity_cP", 2.0);
+        store.close();
+        assertThat(spillFiles(dir)).isEmpty();
+    }
+
+    @Test
+    void serialsRoundTripThroughSpillAsNumbers(@TempDir Path dir) {
+        ProcessMeasurementStore store = new ProcessMeasurementStore(4, 1, dir);
+        int rows = ProcessMeasurementStore.CHUNK_ROWS * 3;
+        for (int i = 0; i < rows; i++) {
+            // 생산 라인 serial 형식(접두어 + 0 을 채운 20자리 번호). 형식이 다른 serial 도 섞는다.
+            String serial = i == 5 ? "REWORK-7" : String.format("CC-A%020d", 1000L + i);
+            store.append("Unit", "ORD-1", i % 2 == 0 ? "M1" : "M2", serial, COLUMNS, new double[]{i, i});
+        }
+        assertThat(store.summaries().get(0).getSpilledChunks()).isEqualTo(1);
+
+        List<ProcessMeasurementStore.Row> spilled = store.read("Unit", "ORD-1", 4, 3);
+        assertThat(spilled).extracting(ProcessMeasurementStore.Row::getSerial)
+                .containsExactly(String.format("CC-A%020d", 1004L), "REWORK-7", String.format("CC-A%020d", 1006L));
+        assertThat(spilled).extracting(ProcessMeasurementStore.Row::getMachine).containsExactly("M1", "M2", "M1");
+        store.close();
+    }
+
+    @Test
+    void tableWithoutSpillDirKeepsOnlyResidentChunks() {
+        ProcessMeasurementStore store = new ProcessMeasurementStore(4, 2, null);
+        int rows = ProcessMeasurementStore.CHUNK_ROWS * 6;
+        for (int i = 0; i < rows; i++) {
+            store.append("Unit", "ORD-1", "M1", "S" + i, COLUMNS, new double[]{i, i});
+        }
+
+        // 쓰는 중인 마지막 chunk + resident 2개만 남고, 버린 행도 행 수와 통계에는 들어 있다.
+        ProcessMeasurementStore.TableSummary summary = store.summaries().get(0);
+        assertThat(summary.getDroppedChunks()).isEqualTo(3);
+        assertThat(summary.getSpilledChunks()).isZero();
+        assertThat(summary.getRows()).isEqualTo(rows);
+        assertThat(summary.getColumns().get(0).getMin()).isZero();
+
+        int firstKept = ProcessMeasurementStore.CHUNK_ROWS * 3;
+        assertThat(store.read("Unit", "ORD-1", 0, 1)).extracting(ProcessMeasurementStore.Row::getSerial)
+                .containsExactly("S" + firstKept);
+        assertThat(store.read("Unit", "ORD-1", 0, rows)).hasSize(rows - firstKept);
+    }
+
+    @Test
+    void oldestOrdersAreEvictedBeyondRetention() throws InterruptedException {
+        ProcessMeasurementStore store = new ProcessMeasurementStore(2, 1, null);
+        store.append("Unit", "ORD-1", "M1", "S1", COLUMNS, new double[]{1.0, 1.0});
+        Thread.sleep(2);
+        store.append("Unit", "ORD-2", "M1", "S2", COLUMNS, new double[]{1.0, 1.0});
+        Thread.sleep(2);
+        store.append("Unit", "ORD-1", "M1", "S3", COLUMNS, new double[]{1.0, 1.0});
+        Thread.sleep(2);
+        store.append("Unit", "ORD-3", "M1", "S4", COLUMNS, new double[]{1.0, 1.0});
+
+        assertThat(store.contains("Unit", "ORD-1")).isTrue();
+        assertThat(store.contains("Unit", "ORD-2")).isFalse();
+        assertThat(store.contains("Unit", "ORD-3")).isTrue();
+    }
+
+    private static List<Path> spillFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".measurements")).toList();
+        }
+    }
+}
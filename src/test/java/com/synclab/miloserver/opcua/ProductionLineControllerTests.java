@@ -0,0 +1,313 @@
+package com.synclab.miloserver.opcua;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 라인 이벤트 루프를 실제로 돌리고, 설비는 tray 가공 완료 시점을 테스트가 정하는 TestUnit 으로 대신한다.
+ * 라인 상태는 라인 태그(stage_status, wip_units, order_queue 등)로만 확인한다.
+ * 설비 등록과 작업지시는 같은 이벤트 큐로 들어가므로 작업지시는 등록이 끝난 뒤 처리된다.
+ */
+class ProductionLineControllerTests {
+
+    private static final long AWAIT_MS = 5000L;
+    private static final int TRAY = 36;
+
+    private TestNamespace namespace;
+    private final Map<ProductionLineController, UaFolderNode> lines = new LinkedHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        OpcUaServer server = new OpcUaServer(OpcUaServerConfig.builder()
+                .setApplicationUri("urn:synclab:milo:test")
+                .setEndpoints(Set.of())
+                .build());
+        namespace = new TestNamespace(server);
+    }
+
+    @AfterEach
+    void tearDown() {
+        lines.keySet().forEach(ProductionLineController::shutdown);
+        System.clearProperty("milo.line.buffer.capacity.2");
+    }
+
+    @Test
+    void fullBufferBlocksUpstreamStageUntilItDrains() {
+        System.setProperty("milo.line.buffer.capacity.2", "1");
+        UaFolderNode factory = namespace.topFolder("T1");
+        ProductionLineController line = line(factory, "CL0001");
+        TestUnit cleaner = unit(line, "TrayCleaner01", 1, "TRAY_CLEAN");
+        TestUnit electrode = unit(line, "ElectrodeUnit01", 2, "ELECTRODE");
+
+        assertThat(line.startOrderCommand("ORD-B", TRAY * 4, "ITEM", 0).isGood()).isTrue();
+        await(() -> cleaner.hasTray());
+        String first = cleaner.trayId();
+        cleaner.finishTray();
+        await(() -> electrode.hasTray() && cleaner.hasTray() && !cleaner.trayId().equals(first));
+        String second = cleaner.trayId();
+        cleaner.finishTray();
+        // stage 2 버퍼(1)에 두 번째 tray 가 들어가고, cleaner 는 세 번째 tray 를 받는다.
+        await(() -> cleaner.hasTray() && !cleaner.trayId().equals(second));
+        String third = cleaner.trayId();
+        cleaner.finishTray();
+
+        // 버퍼가 가득 차 세 번째 tray 를 내보내지 못하므로 cleaner 는 막히고 새 tray 를 받지 않는다.
+        await(() -> "BLOCKED".equals(stageStatus(line)[0]));
+        assertThat(cleaner.trayId()).isEqualTo(third);
+
+        electrode.finishTray();
+        await(() -> !"BLOCKED".equals(stageStatus(line)[0]));
+        await(() -> !cleaner.trayId().equals(third));
+        assertThat(electrode.hasTray()).isTrue();
+    }
+
+    @Test
+    void wipCountersReturnToZeroAfterOrderCompletes() {
+        UaFolderNode factory = namespace.topFolder("T2");
+        ProductionLineController line = line(factory, "CL0001");
+        TestUnit cleaner = unit(line, "TrayCleaner01", 1, "TRAY_CLEAN");
+        TestUnit electrode = unit(line, "ElectrodeUnit01", 2, "ELECTRODE");
+
+        assertThat(line.startOrderCommand("ORD-W", TRAY * 2, "ITEM", 0).isGood()).isTrue();
+        runToCompletion(List.of(cleaner, electrode), line);
+
+        await(() -> "WAITING_ACK".equals(value(line, "order_status")));
+        await(() -> Integer.valueOf(0).equals(value(line, "wip_units")));
+        assertThat((Integer[]) value(line, "wip_trays")).containsOnly(0);
+        assertThat(value(line, "order_produced_qty")).isEqualTo(TRAY * 2);
+    }
+
+    @Test
+    void queuedOrderStartsAfterPreviousOrderAndWaitsForAck() {
+        UaFolderNode factory = namespace.topFolder("T3");
+        ProductionLineController line = line(factory, "CL0001");
+        TestUnit cleaner = unit(line, "TrayCleaner01", 1, "TRAY_CLEAN");
+        TestUnit electrode = unit(line, "ElectrodeUnit01", 2, "ELECTRODE");
+
+        List<String> statuses = new CopyOnWriteArrayList<>();
+        UaVariableNode queueNode = node(line, "order_queue");
+        MultiMachineNameSpace.ValueChangeListener listener = (node, value) -> {
+            if (node == queueNode) {
+                String status = orderStatus(String.valueOf(value), "ORD-2");
+                if (status != null && (statuses.isEmpty() || !statuses.get(statuses.size() - 1).equals(status))) {
+                    statuses.add(status);
+                }
+            }
+        };
+        namespace.addValueChangeListener(listener);
+        try {
+            assertThat(line.startOrderCommand("ORD-1", TRAY, "ITEM", 0).isGood()).isTrue();
+            assertThat(line.startOrderCommand("ORD-2", TRAY, "ITEM", 0).isGood()).isTrue();
+            runToCompletion(List.of(cleaner, electrode), line);
+            await(() -> statuses.contains("WAITING_ACK"));
+        } finally {
+            namespace.removeValueChangeListener(listener);
+        }
+
+        assertThat(statuses).containsExactly("QUEUED", "EXECUTE", "WAITING_ACK");
+        assertThat(line.ackCommand().isGood()).isTrue();
+        await(() -> "ORD-2".equals(value(line, "order_no")));
+        assertThat(value(line, "order_status")).isEqualTo("WAITING_ACK");
+    }
+
+    @Test
+    void borrowedTrayIsReturnedAndSiblingMachineDropsLendingOrder() {
+        UaFolderNode factory = namespace.topFolder("T4");
+        FactoryCoordinator coordinator = new FactoryCoordinator();
+        ProductionLineController lender = line(factory, "CL0001");
+        ProductionLineController sibling = line(factory, "CP0001");
+        lender.joinFactory(coordinator);
+        sibling.joinFactory(coordinator);
+        TestUnit cleaner = unit(lender, "TrayCleaner01", 1, "TRAY_CLEAN");
+        TestUnit electrode = unit(lender, "ElectrodeUnit01", 2, "ELECTRODE");
+        TestUnit siblingCleaner = unit(sibling, "TrayCleaner01", 1, "TRAY_CLEAN");
+        // 등록 이벤트 뒤에 처리되는 명령이 돌아오면 형제 라인이 여유 설비를 이미 알린 상태다 (작업지시가 없어 ACK 는 거절됨).
+        assertThat(sibling.ackCommand().isGood()).isFalse();
+
+        assertThat(lender.startOrderCommand("ORD-S", TRAY * 2, "ITEM", 0).isGood()).isTrue();
+        await(() -> siblingCleaner.hasTray());
+        assertThat(siblingCleaner.orderNo()).isEqualTo("ORD-S");
+        assertThat(siblingCleaner.isContinuousMode()).isTrue();
+        assertThat(String.valueOf(value(lender, "shared_trays"))).contains("\"to_line\":\"" + sibling.getLineName());
+
+        siblingCleaner.finishTray();
+        // 형제 라인에는 자기 작업지시가 없으므로 돌려준 뒤 설비 작업지시 상태가 비워진다.
+        await(() -> siblingCleaner.orderNo().isEmpty());
+        assertThat(siblingCleaner.isContinuousMode()).isFalse();
+        assertThat(siblingCleaner.targetQuantity()).isZero();
+
+        runToCompletion(List.of(cleaner, electrode), lender);
+        await(() -> "WAITING_ACK".equals(value(lender, "order_status")));
+        assertThat(value(lender, "order_produced_qty")).isEqualTo(TRAY * 2);
+        assertThat(String.valueOf(value(lender, "shared_trays"))).isEqualTo("{\"lent\":[],\"borrowed\":[]}");
+    }
+
+    /** 배정된 tray 가 더 없을 때까지 tray 를 가진 설비를 하나씩 완료시킨다. */
+    private void runToCompletion(List<TestUnit> units, ProductionLineController line) {
+        long deadline = System.currentTimeMillis() + AWAIT_MS * 4;
+        while (System.currentTimeMillis() < deadline) {
+            boolean finished = false;
+            for (TestUnit unit : units) {
+                if (unit.hasTray()) {
+                    String trayId = unit.trayId();
+                    unit.finishTray();
+                    await(() -> !unit.hasTray() || !unit.trayId().equals(trayId));
+                    finished = true;
+                }
+            }
+            if (!finished) {
+                String queue = String.valueOf(value(line, "order_queue"));
+                if (!queue.contains("\"EXECUTE\"") && !queue.contains("\"QUEUED\"")) {
+                    return;
+                }
+                sleep(20);
+            }
+        }
+        throw new AssertionError("line did not finish: " + value(line, "order_queue"));
+    }
+
+    private ProductionLineController line(UaFolderNode factory, String lineCode) {
+        UaFolderNode folder = namespace.addFolder(factory, lineCode);
+        ProductionLineController line = new ProductionLineController(
+                namespace, factory.getBrowseName().getName() + "." + lineCode, folder);
+        lines.put(line, folder);
+        return line;
+    }
+
+    private TestUnit unit(ProductionLineController line, String name, int stageNo, String unitType) {
+        TestUnit unit = new TestUnit(name, stageNo, unitType, namespace.addFolder(lines.get(line), name), namespace);
+        line.registerMachine(unit);
+        return unit;
+    }
+
+    private String[] stageStatus(ProductionLineController line) {
+        Object value = value(line, "stage_status");
+        return value instanceof String[] status ? status : new String[0];
+    }
+
+    private UaVariableNode node(ProductionLineController line, String tag) {
+        return namespace.getTagRegistry().find(line.getLineName() + "." + tag).orElseThrow();
+    }
+
+    private Object value(ProductionLineController line, String tag) {
+        return namespace.readValue(node(line, tag)).getValue().getValue();
+    }
+
+    private static String orderStatus(String queueJson, String orderNo) {
+        Matcher matcher = Pattern.compile("\"order_no\":\"" + Pattern.quote(orderNo) + "\",[^}]*\"status\":\"([A-Z_]+)\"")
+                .matcher(queueJson);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + AWAIT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("condition not met within " + AWAIT_MS + " ms");
+            }
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(ex);
+        }
+    }
+
+    /** 루트 폴더 밖에 테스트용 공장 폴더를 만든다 (테스트마다 새 주소공간). */
+    private static final class TestNamespace extends MultiMachineNameSpace {
+        TestNamespace(OpcUaServer server) {
+            super(server, "urn:synclab:milo:test");
+        }
+
+        UaFolderNode topFolder(String name) {
+            UaFolderNode folder = new UaFolderNode(getNodeContext(), new NodeId(getNamespaceIndex(), name),
+                    new QualifiedName(getNamespaceIndex(), name), LocalizedText.english(name));
+            getNodeManager().addNode(folder);
+            return folder;
+        }
+    }
+
+    /** tray 를 받으면 가공 중으로 남아 있다가 finishTray 로 전량 OK 완료를 알리는 설비 */
+    static final class TestUnit extends UnitLogic {
+        private final MultiMachineNameSpace ns;
+
+        TestUnit(String name, int stageNo, String unitType, UaFolderNode folder, MultiMachineNameSpace ns) {
+            super(name, folder);
+            this.ns = ns;
+            this.unitType = unitType;
+            this.lineId = "TEST";
+            this.machineNo = stageNo;
+            this.equipmentCode = name;
+            this.processId = unitType;
+            setUnitsPerCycle(TRAY);
+            setDefaultPpm(60);
+            setupCommonTelemetry(ns);
+        }
+
+        @Override
+        public void setupVariables(MultiMachineNameSpace ns) {
+        }
+
+        @Override
+        public void onCommand(MultiMachineNameSpace ns, String command) {
+            handleCommonCommand(ns, command);
+        }
+
+        @Override
+        public void simulateStep(MultiMachineNameSpace ns) {
+        }
+
+        synchronized boolean hasTray() {
+            return !getTraySerialsSnapshot().isEmpty() && !"IDLE".equals(state);
+        }
+
+        synchronized String trayId() {
+            return trayId;
+        }
+
+        synchronized String orderNo() {
+            return orderNo;
+        }
+
+        synchronized int targetQuantity() {
+            return targetQuantity;
+        }
+
+        void finishTray() {
+            ns.runTick(() -> {
+                synchronized (this) {
+                    List<String> serials = getTraySerialsSnapshot();
+                    markTraySerials(ns, serials, List.of());
+                    // 라인은 OK/NG 합이 tray 수량에 닿는 순간 완료로 보므로 품질 카운트를 먼저 알린다.
+                    updateQualityCounts(ns, okCount + serials.size(), ngCount);
+                    updateProducedQuantity(ns, producedQuantity + serials.size());
+                    changeState(ns, "IDLE");
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.synclab.miloserver.opcua;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SerialGenealogyStoreTests {
+
+    private static final String PREFIX = "F1-CL1-";
+
+    @Test
+    void newestSerialsOverwriteOldestWhenFull() {
+        SerialGenealogyStore store = new SerialGenealogyStore(4);
+        store.register(serials(1, 4), "T1", "ORD-1", PREFIX, 1_000L);
+        store.register(serials(5, 6), "T2", "ORD-2", PREFIX, 2_000L);
+
+        assertThat(store.size()).isEqualTo(4);
+        assertThat(store.getEvicted()).isEqualTo(2);
+        // 5, 6 은 1, 2 의 행을 재사용하지만 1, 2 로 조회되면 안 된다.
+        assertThat(store.findBySerial(serial(1))).isNull();
+        assertThat(store.findBySerial(serial(2))).isNull();
+        assertThat(store.findBySerial(serial(3)).getTrayId()).isEqualTo("T1");
+        assertThat(store.findBySerial(serial(5)).getOrderNo()).isEqualTo("ORD-2");
+        assertThat(store.findBySerial(serial(6)).getSerial()).isEqualTo(serial(6));
+        // 아직 기록되지 않은 counter 도 같은 행을 가리키지만 조회되지 않는다.
+        assertThat(store.findBySerial(serial(9))).isNull();
+    }
+
+    @Test
+    void trayAndOrderLookupsSkipEvictedSerials() {
+        SerialGenealogyStore store = new SerialGenealogyStore(3);
+        store.register(serials(1, 2), "T1", "ORD-1", PREFIX, 1_000L);
+        store.register(serials(3, 5), "T1", "ORD-1", PREFIX, 2_000L);
+
+        assertThat(store.findByOrder("ORD-1")).extracting(SerialGenealogyStore.SerialTrace::getSerial)
+                .containsExactly(serial(3), serial(4), serial(5));
+        assertThat(store.findByTray("T1", null)).hasSize(3);
+        assertThat(store.findByTray("T1", "ORD-2")).isEmpty();
+    }
+
+    @Test
+    void stageAndVerdictAreRecordedPerSerial() {
+        SerialGenealogyStore store = new SerialGenealogyStore(16);
+        store.register(serials(1, 3), "T1", "ORD-1", PREFIX, 1_000L);
+        store.recordStage(1, "ElectrodeUnit01", List.of(serial(1), serial(2)), List.of(serial(3)), 1_500L);
+        store.markCompleted(List.of(serial(1), serial(2)));
+
+        SerialGenealogyStore.SerialTrace ok = store.findBySerial(serial(1));
+        assertThat(ok.getVerdict()).isEqualTo("OK");
+        assertThat(ok.getStages()).singleElement().satisfies(stage -> {
+            assertThat(stage.getMachine()).isEqualTo("ElectrodeUnit01");
+            assertThat(stage.getCompletedAt()).isEqualTo(1_500L);
+        });
+        SerialGenealogyStore.SerialTrace ng = store.findBySerial(serial(3));
+        assertThat(ng.getVerdict()).isEqualTo("NG");
+        assertThat(ng.getNgStage()).isEqualTo(1);
+    }
+
+    private static List<String> serials(int from, int to) {
+        List<String> serials = new ArrayList<>();
+        for (int counter = from; counter <= to; counter++) {
+            serials.add(serial(counter));
+        }
+        return serials;
+    }
+
+    private static String serial(long counter) {
+        return PREFIX + String.format("%020d", counter);
+    }
+}
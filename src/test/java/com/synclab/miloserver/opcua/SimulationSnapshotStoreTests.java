@@ -0,0 +1,101 @@
+package com.synclab.miloserver.opcua;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SimulationSnapshotStoreTests {
+
+    private static final String PREFIX = "F1-CL1-";
+
+    @Test
+    void encodedSnapshotDecodesToSameState() throws IOException {
+        SimulationSnapshotStore.Snapshot decoded = SimulationSnapshotStore.decode(join(sample()));
+
+        assertThat(decoded.savedAt()).isEqualTo(1_700_000_000_000L);
+        SimulationSnapshotStore.LineState line = decoded.lines().get(0);
+        assertThat(line.lineName).isEqualTo("F0001.CL0001");
+        assertThat(line.factoryCode()).isEqualTo("F0001");
+        assertThat(line.trayIdCounter).isEqualTo(42L);
+        assertThat(line.serialCounter).isEqualTo(1234L);
+        assertThat(line.dispatchPolicy).isEqualTo("ROUND_ROBIN");
+        assertThat(line.orders).containsExactly(order());
+        assertThat(line.trays).hasSize(2);
+        assertThat(line.trays.get(0).serials()).containsExactly(PREFIX + "00000000000000000007", "LEGACY-1");
+        assertThat(line.trays.get(1).kind()).isEqualTo(SimulationSnapshotStore.TRAY_BLOCKED);
+
+        SimulationSnapshotStore.MachineState machine = decoded.machines().get(0);
+        assertThat(machine.key).isEqualTo("F0001/CL0001/ElectrodeUnit01");
+        assertThat(machine.orderActive).isTrue();
+        assertThat(machine.awaitingAck).isFalse();
+        assertThat(machine.producedQty).isEqualTo(30);
+        assertThat(machine.ngTypeCounts).containsExactly(1, 0, 2, 0);
+        assertThat(machine.alarmCode).isEqualTo("E-101");
+        assertThat(machine.alarmOccurredAt).isEqualTo(1_699_999_999_000L);
+    }
+
+    @Test
+    void corruptedPayloadIsRejected() {
+        ByteBuffer buffer = join(sample());
+        int last = buffer.limit() - 1;
+        buffer.put(last, (byte) (buffer.get(last) ^ 0x01));
+        assertThatThrownBy(() -> SimulationSnapshotStore.decode(buffer))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("checksum");
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        ByteBuffer buffer = join(sample());
+        buffer.putShort(Integer.BYTES, (short) 99);
+        assertThatThrownBy(() -> SimulationSnapshotStore.decode(buffer))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("version");
+    }
+
+    @Test
+    void rollbackReturnsCountersToAssignment() {
+        SimulationSnapshotStore.MachineState rolled = machine()
+                .rolledBack(new SimulationSnapshotStore.InFlight("F0001/CL0001/ElectrodeUnit01", 20, 18, 2, 10));
+        assertThat(rolled.producedQty).isEqualTo(20);
+        assertThat(rolled.okCount).isEqualTo(18);
+        assertThat(rolled.ngCount).isEqualTo(2);
+        assertThat(rolled.targetQty).isEqualTo(40);
+        assertThat(rolled.ngTypeCounts).containsExactly(0, 0, 2, 0);
+    }
+
+    private static SimulationSnapshotStore.Snapshot sample() {
+        SimulationSnapshotStore.LineState line = new SimulationSnapshotStore.LineState("F0001.CL0001", 42L, 1234L,
+                PREFIX, "ROUND_ROBIN", List.of(order()),
+                List.of(new SimulationSnapshotStore.TrayState(2, SimulationSnapshotStore.TRAY_QUEUED, 0,
+                                "synklabTID-0000000041", 2, List.of(PREFIX + "00000000000000000007", "LEGACY-1")),
+                        new SimulationSnapshotStore.TrayState(3, SimulationSnapshotStore.TRAY_BLOCKED, 0,
+                                "synklabTID-0000000042", 0, List.of())),
+                List.of(), List.of());
+        return new SimulationSnapshotStore.Snapshot(1_700_000_000_000L, List.of(line), List.of(machine()));
+    }
+
+    private static SimulationSnapshotStore.OrderState order() {
+        return new SimulationSnapshotStore.OrderState("ORD-1", 100, "ITEM", 60, PREFIX, "EXECUTE", 0, 3,
+                1_699_999_000_000L, -1L, Map.of(1, 40, 2, 30));
+    }
+
+    private static SimulationSnapshotStore.MachineState machine() {
+        return new SimulationSnapshotStore.MachineState("F0001/CL0001/ElectrodeUnit01", "ORD-1", "ITEM", "EXECUTE",
+                true, false, 50, 30, 27, 3, new int[]{1, 0, 2, 0}, new int[]{1, 0, 0, 0},
+                "E-101", 1_699_999_999_000L, 5_000L);
+    }
+
+    private static ByteBuffer join(SimulationSnapshotStore.Snapshot snapshot) {
+        ByteBuffer[] parts = SimulationSnapshotStore.encode(snapshot);
+        ByteBuffer joined = ByteBuffer.allocate(parts[0].remaining() + parts[1].remaining());
+        joined.put(parts[0]).put(parts[1]);
+        return joined.flip();
+    }
+}